@@ -56,6 +56,7 @@ public class Fongo implements OperationExecutor {
   private final MongoClient mongo;
   private final String name;
   private final ServerVersion serverVersion;
+  private final StorageMode storageMode;
 
   /**
    * @param name Used only for a nice toString in case you have multiple instances
@@ -69,7 +70,17 @@ public class Fongo implements OperationExecutor {
    * @param serverVersion version of the server to use for fongo.
    */
   public Fongo(final String name, final ServerVersion serverVersion) {
+    this(name, serverVersion, StorageMode.OBJECT);
+  }
+
+  /**
+   * @param name          Used only for a nice toString in case you have multiple instances
+   * @param serverVersion version of the server to use for fongo.
+   * @param storageMode   how the collections keep their documents.
+   */
+  public Fongo(final String name, final ServerVersion serverVersion, final StorageMode storageMode) {
     this.name = name;
+    this.storageMode = storageMode;
     this.serverAddress = new ServerAddress(new InetSocketAddress(ServerAddress.defaultHost(), ServerAddress.defaultPort()));
     this.serverVersion = serverVersion;
     this.mongo = createMongo();
@@ -222,4 +233,8 @@ public class Fongo implements OperationExecutor {
     return serverVersion;
   }
 
+  public StorageMode getStorageMode() {
+    return storageMode;
+  }
+
 }
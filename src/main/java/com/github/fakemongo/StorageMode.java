@@ -0,0 +1,23 @@
+package com.github.fakemongo;
+
+/**
+ * How the collections of a {@link Fongo} keep their documents.
+ */
+public enum StorageMode {
+  /**
+   * Documents kept as {@link com.mongodb.BasicDBObject}s (default).
+   */
+  OBJECT,
+
+  /**
+   * Documents kept encoded in BSON : less memory, the queries read the fields from the bytes and only the returned
+   * documents are decoded. The number of documents by collection is not limited.
+   */
+  ENCODED,
+
+  /**
+   * Documents kept encoded in BSON out of the heap, in direct buffers : only the indexes stay in the heap. The number
+   * of documents by collection is not limited.
+   */
+  OFF_HEAP
+}
@@ -4,6 +4,7 @@ import com.github.fakemongo.impl.aggregation.Group;
 import com.github.fakemongo.impl.aggregation.Limit;
 import com.github.fakemongo.impl.aggregation.Lookup;
 import com.github.fakemongo.impl.aggregation.Match;
+import com.github.fakemongo.impl.aggregation.MergeableKeyword;
 import com.github.fakemongo.impl.aggregation.Out;
 import com.github.fakemongo.impl.aggregation.PipelineKeyword;
 import com.github.fakemongo.impl.aggregation.Project;
@@ -11,63 +12,269 @@ import com.github.fakemongo.impl.aggregation.Sample;
 import com.github.fakemongo.impl.aggregation.Skip;
 import com.github.fakemongo.impl.aggregation.Sort;
 import com.github.fakemongo.impl.aggregation.Unwind;
+import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
-import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.FongoDB;
 import com.mongodb.FongoDBCollection;
+import com.mongodb.MongoException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Handle the aggregation of a collection.
+ * Handle the aggregation of a collection. The documents are copied once from the collection, then each stage gives its
+ * documents to the next one without intermediate collection : only the stages needing all the documents ($sort,
+ * $group...) keep them. With a parallelism, the first stages are applied on parts of the documents in threads.
  */
 public class Aggregator {
   private static final Logger LOG = LoggerFactory.getLogger(Aggregator.class);
 
+  /**
+   * System property giving the parallelism of the aggregations, 1 (no parallelism) by default.
+   */
+  public static final String PARALLELISM_PROPERTY = "fongo.aggregation.parallelism";
+
+  /**
+   * Minimum number of documents by part : below, the documents are not split.
+   */
+  static final int PART_MIN_SIZE = 1000;
+
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable, "fongo-aggregation");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
   private final FongoDB fongoDB;
   private final FongoDBCollection fongoDBCollection;
   private final List<? extends DBObject> pipeline;
+  private final int parallelism;
   private static final List<PipelineKeyword> keywords = Arrays.asList(Match.INSTANCE, Project.INSTANCE, Group.INSTANCE, Sort.INSTANCE, Sample.INSTANCE, Limit.INSTANCE, Skip.INSTANCE, Unwind.INSTANCE, Out.INSTANCE,
       Lookup.INSTANCE);
 
   public Aggregator(FongoDB fongoDB, FongoDBCollection coll, List<? extends DBObject> pipeline) {
+    this(fongoDB, coll, pipeline, Integer.getInteger(PARALLELISM_PROPERTY, 1));
+  }
+
+  /**
+   * @param parallelism number of parts of the documents applied in parallel by the first stages working on each
+   *                    document alone ($match, $project, $unwind), then by the next stage if it can merge the results
+   *                    of the parts ($group, $sort). 1 to apply all the pipeline in the current thread.
+   */
+  public Aggregator(FongoDB fongoDB, FongoDBCollection coll, List<? extends DBObject> pipeline, int parallelism) {
     this.fongoDB = fongoDB;
     this.fongoDBCollection = coll;
     this.pipeline = pipeline;
+    this.parallelism = parallelism;
   }
 
   /**
    * @return null if error.
    */
   public List<DBObject> computeResult() {
-    DBCollection coll = fongoDB.createCollection(UUID.randomUUID().toString(), new BasicDBObject());
+    final List<DBObject> stages = optimize(pipeline);
+    final DBCursor source = source(stages);
+    Iterator<DBObject> objects;
+    if (parallelism > 1) {
+      final List<DBObject> documents = source.toArray();
+      objects = documents.size() >= parallelism * PART_MIN_SIZE ? applyInParallel(stages, documents) : documents.iterator();
+    } else {
+      objects = source.iterator();
+    }
+
+    for (DBObject object : stages) {
+      final PipelineKeyword keyword = keywordOf(object);
+      if (keyword == null) {
+        fongoDB.notOkErrorResult(16436, "exception: Unrecognized pipeline stage name: '" + object.keySet() + "'").throwOnError();
+      }
+      // Not found : com.mongodb.CommandFailureException: { "serverUsed" : "localhost/127.0.0.1:27017" , "errmsg" : "exception: Unrecognized pipeline stage name: '_id'" , "code" : 16436 , "ok" : 0.0}
+      objects = keyword.apply(this.fongoDBCollection, objects, object);
+    }
+
+    List<DBObject> result = drain(objects);
+    LOG.debug("computeResult() : {}", result);
+    return result;
+  }
+
+  private static PipelineKeyword keywordOf(DBObject object) {
+    for (PipelineKeyword keyword : keywords) {
+      if (keyword.canApply(object)) {
+        return keyword;
+      }
+    }
+    return null;
+  }
+
+  private static List<DBObject> drain(Iterator<DBObject> objects) {
+    List<DBObject> result = new ArrayList<DBObject>();
+    while (objects.hasNext()) {
+      result.add(objects.next());
+    }
+    return result;
+  }
+
+  /**
+   * Split the documents in parts, and apply the first stages on each part in a thread : the stages working on each
+   * document alone, then the next one if it can merge the results of the parts. These stages are removed from the
+   * stages.
+   *
+   * @return the documents for the next stages.
+   */
+  private Iterator<DBObject> applyInParallel(List<DBObject> stages, List<DBObject> documents) {
+    int partitioned = 0;
+    while (partitioned < stages.size() && keywordOf(stages.get(partitioned)) != null && keywordOf(stages.get(partitioned)).isPartitionable()) {
+      partitioned++;
+    }
+    final List<DBObject> partStages = new ArrayList<DBObject>(stages.subList(0, partitioned));
+    final DBObject merging = partitioned < stages.size() && keywordOf(stages.get(partitioned)) != null
+        && keywordOf(stages.get(partitioned)) instanceof MergeableKeyword ? stages.get(partitioned) : null;
+    if (partStages.isEmpty() && merging == null) {
+      return documents.iterator();
+    }
+    stages.subList(0, merging == null ? partitioned : partitioned + 1).clear();
+    LOG.debug("applyInParallel() {} then {} on {} parts", partStages, merging, parallelism);
+
+    final int partSize = (documents.size() + parallelism - 1) / parallelism;
+    final List<Future<Object>> futures = new ArrayList<Future<Object>>(parallelism);
+    for (int from = 0; from < documents.size(); from += partSize) {
+      final List<DBObject> part = documents.subList(from, Math.min(from + partSize, documents.size()));
+      futures.add(EXECUTOR.submit(new Callable<Object>() {
+        @Override
+        public Object call() {
+          Iterator<DBObject> objects = part.iterator();
+          for (DBObject stage : partStages) {
+            objects = keywordOf(stage).apply(fongoDBCollection, objects, stage);
+          }
+          return merging == null ? drain(objects) : ((MergeableKeyword) keywordOf(merging)).applyPart(fongoDBCollection, objects, merging);
+        }
+      }));
+    }
+
+    final List<Object> parts = new ArrayList<Object>(futures.size());
     try {
-      coll.insert(this.fongoDBCollection.find().toArray());
-
-      for (DBObject object : pipeline) {
-        boolean found = false;
-        for (PipelineKeyword keyword : keywords) {
-          if (keyword.canApply(object)) {
-            coll = keyword.apply(this.fongoDBCollection.getDB(), coll, object);
-            found = true;
-            break;
+      for (Future<Object> future : futures) {
+        parts.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MongoException("aggregation interrupted", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new MongoException(e.getCause().getMessage(), e.getCause());
+    } finally {
+      for (Future<Object> future : futures) {
+        future.cancel(true);
+      }
+    }
+
+    if (merging != null) {
+      return ((MergeableKeyword) keywordOf(merging)).merge(fongoDBCollection, parts, merging);
+    }
+    final List<DBObject> results = new ArrayList<DBObject>(documents.size());
+    for (Object part : parts) {
+      //noinspection unchecked
+      results.addAll((List<DBObject>) part);
+    }
+    return results.iterator();
+  }
+
+  /**
+   * Rewrite the pipeline to read less documents : adjacent $match are merged, a $match goes before a $project when the
+   * $project keeps all the fields of the $match, and a $sort followed by a $limit becomes one stage.
+   */
+  static List<DBObject> optimize(List<? extends DBObject> pipeline) {
+    final List<DBObject> stages = new ArrayList<DBObject>(pipeline.size());
+    for (DBObject stage : pipeline) {
+      final DBObject previous = stages.isEmpty() ? null : stages.get(stages.size() - 1);
+      if (Match.INSTANCE.canApply(stage)) {
+        addMatch(stages, stage);
+      } else if (previous != null && Limit.INSTANCE.canApply(stage) && Sort.INSTANCE.canApply(previous)
+          && !previous.containsField(Limit.INSTANCE.getKeyword()) && ((Number) stage.get(Limit.INSTANCE.getKeyword())).intValue() > 0) {
+        stages.set(stages.size() - 1, new BasicDBObject(previous.toMap()).append(Limit.INSTANCE.getKeyword(), stage.get(Limit.INSTANCE.getKeyword())));
+      } else {
+        stages.add(stage);
+      }
+    }
+    LOG.debug("optimize() : {} to {}", pipeline, stages);
+    return stages;
+  }
+
+  private static void addMatch(List<DBObject> stages, DBObject match) {
+    final DBObject previous = stages.isEmpty() ? null : stages.get(stages.size() - 1);
+    if (previous != null && Match.INSTANCE.canApply(previous)) {
+      final BasicDBList and = Util.list(previous.get(Match.INSTANCE.getKeyword()), match.get(Match.INSTANCE.getKeyword()));
+      stages.set(stages.size() - 1, new BasicDBObject(Match.INSTANCE.getKeyword(), new BasicDBObject(ExpressionParser.AND, and)));
+    } else if (previous != null && Project.INSTANCE.canApply(previous)
+        && keepsFields(ExpressionParser.toDbObject(previous.get(Project.INSTANCE.getKeyword())), ExpressionParser.toDbObject(match.get(Match.INSTANCE.getKeyword())))) {
+      stages.remove(stages.size() - 1);
+      addMatch(stages, match);
+      stages.add(previous);
+    } else {
+      stages.add(match);
+    }
+  }
+
+  /**
+   * @return true if the projection copies, unchanged, all the fields used by the query.
+   */
+  private static boolean keepsFields(DBObject project, DBObject query) {
+    for (String key : query.keySet()) {
+      if (ExpressionParser.AND.equals(key) || ExpressionParser.OR.equals(key) || ExpressionParser.NOR.equals(key)) {
+        for (Object subQuery : (List) query.get(key)) {
+          if (!keepsFields(project, ExpressionParser.toDbObject(subQuery))) {
+            return false;
           }
         }
-        if (!found) {
-          fongoDB.notOkErrorResult(16436, "exception: Unrecognized pipeline stage name: '" + object.keySet() + "'").throwOnError();
+      } else if (key.startsWith("$")) {
+        return false;
+      } else {
+        final String field = Util.split(key).get(0);
+        final Object value = project.get(field);
+        final boolean kept = value instanceof Boolean ? (Boolean) value : value instanceof Number && ((Number) value).intValue() != 0;
+        if (!kept && !(FongoDBCollection.ID_FIELD_NAME.equals(field) && !project.containsField(field))) {
+          return false;
         }
-        // Not found : com.mongodb.CommandFailureException: { "serverUsed" : "localhost/127.0.0.1:27017" , "errmsg" : "exception: Unrecognized pipeline stage name: '_id'" , "code" : 16436 , "ok" : 0.0}
       }
+    }
+    return true;
+  }
 
-      List<DBObject> result = coll.find().toArray();
-      LOG.debug("computeResult() : {}", result);
-      return result;
-    } finally {
-      coll.drop();
+  /**
+   * The documents read from the collection. A leading $match, then a leading $sort (with its $limit), are queried with
+   * the indexes of the collection and removed from the stages.
+   */
+  private DBCursor source(List<DBObject> stages) {
+    DBObject query = new BasicDBObject();
+    if (!stages.isEmpty() && Match.INSTANCE.canApply(stages.get(0))) {
+      query = ExpressionParser.toDbObject(stages.remove(0).get(Match.INSTANCE.getKeyword()));
+    }
+    final DBCursor cursor = this.fongoDBCollection.find(query);
+    if (!stages.isEmpty() && Sort.INSTANCE.canApply(stages.get(0))) {
+      final DBObject sort = stages.remove(0);
+      cursor.sort(ExpressionParser.toDbObject(sort.get(Sort.INSTANCE.getKeyword())));
+      if (sort.containsField(Limit.INSTANCE.getKeyword())) {
+        cursor.limit(((Number) sort.get(Limit.INSTANCE.getKeyword())).intValue());
+      }
     }
+    return cursor;
   }
 }
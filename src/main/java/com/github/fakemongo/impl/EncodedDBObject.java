@@ -0,0 +1,205 @@
+package com.github.fakemongo.impl;
+
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import com.mongodb.DefaultDBEncoder;
+import com.mongodb.LazyDBCallback;
+import com.mongodb.LazyDBObject;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+import org.bson.BSONObject;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.io.OutputBuffer;
+
+/**
+ * A stored document encoded in BSON. The fields are read from the bytes without decoding the document (like a
+ * {@link LazyDBObject}, embedded documents and arrays are read only), {@link #decode()} builds a copy.
+ * <p/>
+ * With a {@link SlabAllocator}, the bytes are kept out of the heap and copied in the heap for each read : an operation
+ * reading a document many times reads a {@link #view()}. The region must be given back with {@link #release()} when
+ * the document leaves the collection.
+ * <p/>
+ * A modification decodes the document, which stays decoded until {@link #replaceWith(DBObject)}.
+ * Equality is the identity, like the objects shared by the indexes.
+ * <p/>
+ * NOT Thread Safe. The ThreadSafety must be done by the caller.
+ */
+public class EncodedDBObject implements DBObject {
+  private static final LazyDBCallback CALLBACK = new LazyDBCallback(null);
+
+  // Null to keep the bytes in the heap.
+  private final SlabAllocator allocator;
+  private byte[] bytes;
+  private ByteBuffer region;
+  private int length;
+  // Reader of the bytes in the heap, built once.
+  private DBObject lazy;
+  // Not null after a modification.
+  private DBObject document;
+
+  /**
+   * @param document document to encode, "_id" is written first.
+   */
+  public EncodedDBObject(DBObject document) {
+    this(document, null);
+  }
+
+  /**
+   * @param document  document to encode, "_id" is written first.
+   * @param allocator allocator of the regions out of the heap, null to keep the bytes in the heap.
+   */
+  public EncodedDBObject(DBObject document, SlabAllocator allocator) {
+    this.allocator = allocator;
+    replaceWith(document);
+  }
+
+  /**
+   * Encode a new content.
+   */
+  public void replaceWith(DBObject document) {
+    final OutputBuffer buffer = new BasicOutputBuffer();
+    DefaultDBEncoder.FACTORY.create().writeObject(buffer, document);
+    release();
+    this.length = buffer.size();
+    if (allocator == null) {
+      this.bytes = buffer.toByteArray();
+      this.lazy = new LazyDBObject(bytes, CALLBACK);
+    } else {
+      this.region = allocator.allocate(length);
+      this.region.put(buffer.toByteArray());
+    }
+  }
+
+  /**
+   * Give back the region out of the heap : the document must not be read anymore.
+   */
+  public void release() {
+    if (region != null) {
+      allocator.free(region);
+      region = null;
+    }
+    bytes = null;
+    lazy = null;
+    document = null;
+  }
+
+  /**
+   * @return a decoded copy of the document.
+   */
+  public DBObject decode() {
+    if (document != null) {
+      return Util.clone(document);
+    }
+    return DefaultDBDecoder.FACTORY.create().decode(bytes(), null);
+  }
+
+  /**
+   * @return size of the encoded document, 0 if it has been decoded.
+   */
+  public int encodedSize() {
+    return document == null ? length : 0;
+  }
+
+  private byte[] bytes() {
+    if (region == null) {
+      if (bytes == null) {
+        throw new IllegalStateException("the document has been released");
+      }
+      return bytes;
+    }
+    final byte[] copy = new byte[length];
+    final ByteBuffer source = region.duplicate();
+    source.rewind();
+    source.get(copy);
+    return copy;
+  }
+
+  /**
+   * @return a read only view of the document, to read it many times in an operation : the bytes out of the heap are
+   * copied once.
+   */
+  public DBObject view() {
+    if (document != null) {
+      return document;
+    }
+    return lazy != null ? lazy : new LazyDBObject(bytes(), CALLBACK);
+  }
+
+  /**
+   * @return the object to read for a whole operation : the view of an encoded object, the object itself otherwise.
+   */
+  public static DBObject view(DBObject object) {
+    return object instanceof EncodedDBObject ? ((EncodedDBObject) object).view() : object;
+  }
+
+  private DBObject writer() {
+    if (document == null) {
+      final DBObject decoded = decode();
+      release();
+      document = decoded;
+    }
+    return document;
+  }
+
+  @Override
+  public Object get(String key) {
+    return view().get(key);
+  }
+
+  @Override
+  public boolean containsField(String s) {
+    return view().containsField(s);
+  }
+
+  @Override
+  @Deprecated
+  public boolean containsKey(String s) {
+    return containsField(s);
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return view().keySet();
+  }
+
+  @Override
+  public Map toMap() {
+    return decode().toMap();
+  }
+
+  @Override
+  public Object put(String key, Object v) {
+    return writer().put(key, v);
+  }
+
+  @Override
+  public void putAll(BSONObject o) {
+    writer().putAll(o);
+  }
+
+  @Override
+  public void putAll(Map m) {
+    writer().putAll(m);
+  }
+
+  @Override
+  public Object removeField(String key) {
+    return writer().removeField(key);
+  }
+
+  @Override
+  public void markAsPartialObject() {
+    throw new UnsupportedOperationException("a stored document can't be partial");
+  }
+
+  @Override
+  public boolean isPartialObject() {
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return decode().toString();
+  }
+}
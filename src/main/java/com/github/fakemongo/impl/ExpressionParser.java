@@ -6,7 +6,6 @@ import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 import com.mongodb.DBRef;
-import com.mongodb.FongoDBCollection;
 import com.mongodb.LazyDBObject;
 import com.mongodb.QueryOperators;
 import com.mongodb.util.FongoJSON;
@@ -21,6 +20,7 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -107,6 +107,15 @@ public class ExpressionParser {
     CLASS_TO_WEIGHT = Collections.unmodifiableMap(map);
   }
 
+  // Results of directValue() : no value at the path, values to read by getEmbeddedValues().
+  private static final Object MISSING = new Object();
+  private static final Object EMBEDDED_VALUES = new Object();
+
+  // Classes for which equals() gives the same result than compareObjects() == 0 : not Double, -0.0 equals 0.0 only
+  // for compareObjects().
+  private static final Set<Class<?>> EQUALS_IS_COMPARE = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+      String.class, Integer.class, Long.class, Boolean.class, ObjectId.class, Date.class));
+
   @SuppressWarnings("all")
   List<FilterFactory> filterFactories = Arrays.<FilterFactory>asList(
       new ConditionalOperatorFilterFactory(GTE) {
@@ -510,6 +519,29 @@ public class ExpressionParser {
     return false;
   }
 
+  /**
+   * Value at the path, read without allocation when the path crosses only embedded documents.
+   *
+   * @return the value, {@link #MISSING} if there is none, or {@link #EMBEDDED_VALUES} if the path crosses an array or a
+   * DBRef : the values must be read by {@link #getEmbeddedValues(List, DBObject)}.
+   */
+  static Object directValue(List<String> path, DBObject object) {
+    DBObject dbo = object;
+    final int last = path.size() - 1;
+    for (int i = 0; i < last; i++) {
+      final Object value = dbo.get(path.get(i));
+      if (value instanceof List || value instanceof DBRef || (value instanceof Map && !(value instanceof DBObject))) {
+        return EMBEDDED_VALUES;
+      }
+      if (!(value instanceof DBObject)) {
+        return MISSING;
+      }
+      dbo = (DBObject) value;
+    }
+    final Object value = dbo.get(path.get(last));
+    return value == null && !dbo.containsField(path.get(last)) ? MISSING : value;
+  }
+
   public List<Object> getEmbeddedValues(List<String> path, DBObject dbo) {
     return getEmbeddedValues(path, 0, dbo);
   }
@@ -528,9 +560,6 @@ public class ExpressionParser {
 
   public List<Object> getEmbeddedValues(List<String> path, int startIndex, DBObject dbo) {
     String subKey = path.get(startIndex);
-    if (path.size() > 1 && LOG.isDebugEnabled()) {
-      LOG.debug("getEmbeddedValue looking for {} in {}", path, dbo);
-    }
 
     for (int i = startIndex; i < path.size() - 1; i++) {
       Object value = dbo.get(subKey);
@@ -566,7 +595,7 @@ public class ExpressionParser {
     }
   }
 
-  private Filter buildExpressionFilter(final String key, final Object expression) {
+  Filter buildExpressionFilter(final String key, final Object expression) {
     return buildExpressionFilter(Util.split(key), expression);
   }
 
@@ -655,32 +684,47 @@ public class ExpressionParser {
   }
 
   public Filter simpleFilter(final List<String> path, final Object expression) {
+    // Prepared once for all the objects.
+    final List expressionList = expression instanceof Collection ? Util.toList((Collection) expression) : null;
+    final boolean equalsIsCompare = expression != null && EQUALS_IS_COMPARE.contains(expression.getClass());
     return new Filter() {
       @Override
       public boolean apply(DBObject o) {
+        final Object directValue = directValue(path, o);
+        if (directValue != EMBEDDED_VALUES) {
+          // Embedded documents only : no list of values.
+          return directValue == MISSING ? expression == null : matches(directValue);
+        }
         List<Object> storedOption = getEmbeddedValues(path, o);
         if (storedOption.isEmpty()) {
           return (expression == null);
         } else {
           for (Object storedValue : storedOption) {
             if (storedValue instanceof List) {
-              if (expression instanceof Collection) {
-                return compareLists((List) storedValue, Util.toList((Collection) expression)) == 0;
-              } else {
-                return contains((List) storedValue, expression);
-              }
-            } else {
-              if (expression == null) {
-                return (storedValue == null);
-              }
-              if (compareObjects(expression, storedValue) == 0L) {
-                return true;
-              }
+              return matches(storedValue);
+            } else if (matches(storedValue)) {
+              return true;
             }
           }
           return false;
         }
+      }
 
+      private boolean matches(Object storedValue) {
+        if (storedValue instanceof List) {
+          if (expressionList != null) {
+            return compareLists((List) storedValue, expressionList) == 0;
+          } else {
+            return contains((List) storedValue, expression);
+          }
+        }
+        if (expression == null) {
+          return (storedValue == null);
+        }
+        if (equalsIsCompare && storedValue != null && storedValue.getClass() == expression.getClass()) {
+          return expression.equals(storedValue);
+        }
+        return compareObjects(expression, storedValue) == 0L;
       }
     };
   }
@@ -689,7 +733,7 @@ public class ExpressionParser {
    * Compare objects between {@code queryValue} and {@code storedValue}.
    * Can return null if {@code comparableFilter} is true and {@code queryValue} and {@code storedValue} can't be compared.
    */
-  int compareObjects(Object queryValue, Object storedValue) {
+  public int compareObjects(Object queryValue, Object storedValue) {
     return compareObjects(queryValue, storedValue, false).intValue();
   }
 
@@ -704,8 +748,6 @@ public class ExpressionParser {
    */
   @SuppressWarnings("all")
   private Integer compareObjects(Object queryValue, Object storedValue, boolean comparableFilter) {
-    LOG.debug("comparing {} and {}", queryValue, storedValue);
-
     if (isDBObjectButNotDBList(queryValue) && isDBObjectButNotDBList(storedValue)) {
       return compareDBObjects(toDbObject(queryValue), toDbObject(storedValue));
     } else if (queryValue instanceof List && storedValue instanceof List) {
@@ -735,6 +777,13 @@ public class ExpressionParser {
    */
   //@VisibleForTesting
   protected Integer compareTo(Object c1, Object c2, boolean comparableFilter) { // Object to handle MinKey/MaxKey
+    if (c1 instanceof Number && c2 instanceof Number) {
+      // The same order for all the numbers, of the same class or not.
+      final int compare = compareNumbers((Number) c1, (Number) c2);
+      if (compare != NOT_PRIMITIVE) {
+        return compare;
+      }
+    }
     Object cc1 = c1;
     Object cc2 = c2;
     Class<?> clazz1 = c1 == null ? Null.class : c1.getClass();
@@ -744,6 +793,10 @@ public class ExpressionParser {
       boolean checkTypes = true;
       if (cc1 instanceof Number) {
         if (cc2 instanceof Number) {
+          final int compare = compareNumbers((Number) cc1, (Number) cc2);
+          if (compare != NOT_PRIMITIVE) {
+            return compare;
+          }
           cc1 = new BigDecimal(cc1.toString());
           cc2 = new BigDecimal(cc2.toString());
           checkTypes = false;
@@ -800,8 +853,8 @@ public class ExpressionParser {
         return 1;
       }
       if (checkTypes) {
-        Integer type1 = CLASS_TO_WEIGHT.get(clazz1);
-        Integer type2 = CLASS_TO_WEIGHT.get(clazz2);
+        Integer type1 = typeWeight(clazz1);
+        Integer type2 = typeWeight(clazz2);
         if (type1 != null && type2 != null) {
           cc1 = type1;
           cc2 = type2;
@@ -819,6 +872,93 @@ public class ExpressionParser {
     return ((Comparable) cc1).compareTo(cc2);
   }
 
+  /**
+   * Weight of the type in the sort order, also for the subclasses (LazyBSONObject, Timestamp...).
+   *
+   * @return null if the type can't be ordered.
+   */
+  static Integer typeWeight(Class<?> clazz) {
+    final Integer weight = CLASS_TO_WEIGHT.get(clazz);
+    if (weight != null) {
+      return weight;
+    }
+    if (Number.class.isAssignableFrom(clazz)) {
+      return 1;
+    } else if (List.class.isAssignableFrom(clazz)) {
+      return 5;
+    } else if (DBObject.class.isAssignableFrom(clazz) || Map.class.isAssignableFrom(clazz)) {
+      return 4;
+    } else if (Date.class.isAssignableFrom(clazz)) {
+      return 9;
+    }
+    return null;
+  }
+
+  private static final int NOT_PRIMITIVE = Integer.MIN_VALUE;
+
+  /**
+   * Compare numbers, of the same class or not, without conversion : integers as long, the others as double. NaN is
+   * before all the numbers, -0.0 is 0.
+   *
+   * @return {@link #NOT_PRIMITIVE} for BigDecimal, BigInteger...
+   */
+  static int compareNumbers(Number n1, Number n2) {
+    final boolean integral1 = isIntegral(n1);
+    final boolean integral2 = isIntegral(n2);
+    if (integral1 && integral2) {
+      return compareLongs(n1.longValue(), n2.longValue());
+    }
+    if ((!integral1 && !isFloating(n1)) || (!integral2 && !isFloating(n2))) {
+      return NOT_PRIMITIVE;
+    }
+    if (integral1) {
+      return compareLongDouble(n1.longValue(), n2.doubleValue());
+    }
+    if (integral2) {
+      return -compareLongDouble(n2.longValue(), n1.doubleValue());
+    }
+    return compareDoubles(n1.doubleValue(), n2.doubleValue());
+  }
+
+  private static boolean isIntegral(Number number) {
+    return number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte;
+  }
+
+  private static boolean isFloating(Number number) {
+    return number instanceof Double || number instanceof Float;
+  }
+
+  private static int compareLongs(long l1, long l2) {
+    return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+  }
+
+  private static int compareDoubles(double d1, double d2) {
+    if (Double.isNaN(d1) || Double.isNaN(d2)) {
+      return Double.isNaN(d1) ? (Double.isNaN(d2) ? 0 : -1) : 1;
+    }
+    return d1 < d2 ? -1 : (d1 > d2 ? 1 : 0);
+  }
+
+  private static int compareLongDouble(long l, double d) {
+    if (Double.isNaN(d)) {
+      return 1;
+    }
+    // 2^63 can't be a long.
+    if (d >= 0x1p63) {
+      return -1;
+    }
+    if (d < -0x1p63) {
+      return 1;
+    }
+    final long truncated = (long) d;
+    if (l != truncated) {
+      return compareLongs(l, truncated);
+    }
+    // Same integer part : the fraction decides.
+    final double fraction = d - truncated;
+    return fraction > 0 ? -1 : (fraction < 0 ? 1 : 0);
+  }
+
   private Comparable<String> convertFrom(Binary binary) {
     return new String(binary.getData()); // + binary.getType(); // Adding getType() to respect contract of "equals";
   }
@@ -973,16 +1113,71 @@ public class ExpressionParser {
 
   // Take care of : https://groups.google.com/forum/?fromgroups=#!topic/mongomapper/MfRDh2vtCFg
   public Filter createNearFilter(final List<String> path, final Number maxDistance, final Geometry geometry, final boolean sphere) {
-    return new Filter() {
-      @Override
-      public boolean apply(DBObject o) {
-        final Geometry objectGeometry = GeoUtil.toGeometry(toDbObject(Util.extractField(o, path)));
+    return new NearFilter(path, maxDistance, geometry, sphere);
+  }
+
+  /**
+   * Filter of a $near. The objects are not modified : the distance is computed again for the order of the results.
+   */
+  static final class NearFilter implements Filter {
+    private final List<String> path;
+    private final Number maxDistance;
+    private final Geometry geometry;
+    private final boolean sphere;
+
+    NearFilter(List<String> path, Number maxDistance, Geometry geometry, boolean sphere) {
+      this.path = path;
+      this.maxDistance = maxDistance;
+      this.geometry = geometry;
+      this.sphere = sphere;
+    }
 
-        double distance = GeoUtil.distanceInRadians(geometry, objectGeometry, sphere);
-        o.put(FongoDBCollection.FONGO_SPECIAL_ORDER_BY, distance);
-        return maxDistance == null || distance < maxDistance.doubleValue();
+    double distance(DBObject o) {
+      final Geometry objectGeometry = GeoUtil.toGeometry(toDbObject(Util.extractField(o, path)));
+      return GeoUtil.distanceInRadians(geometry, objectGeometry, sphere);
+    }
+
+    @Override
+    public boolean apply(DBObject o) {
+      return maxDistance == null || distance(o) < maxDistance.doubleValue();
+    }
+  }
+
+  /**
+   * Order of the results of a query with a $near (or $nearSphere) : nearest first.
+   *
+   * @return null if the query has no $near.
+   */
+  public Comparator<DBObject> nearComparator(DBObject query) {
+    for (String key : query.keySet()) {
+      final Object value = query.get(key);
+      if (isDbObject(value) && !(value instanceof List)) {
+        final DBObject refExpression = toDbObject(value);
+        for (FilterFactory filterFactory : filterFactories) {
+          if (filterFactory instanceof NearCommandFilterFactory && filterFactory.matchesCommand(refExpression)) {
+            final NearFilter nearFilter = (NearFilter) filterFactory.createFilter(Util.split(key), refExpression);
+            // Distances of the objects for this query only.
+            final Map<DBObject, Double> distances = new IdentityHashMap<DBObject, Double>();
+            return new Comparator<DBObject>() {
+              @Override
+              public int compare(DBObject o1, DBObject o2) {
+                return Double.compare(distance(o1), distance(o2));
+              }
+
+              private double distance(DBObject o) {
+                Double distance = distances.get(o);
+                if (distance == null) {
+                  distance = nearFilter.distance(o);
+                  distances.put(o, distance);
+                }
+                return distance;
+              }
+            };
+          }
+        }
       }
-    };
+    }
+    return null;
   }
 
   private Filter createGeowithinFilter(final List<String> path, final Geometry geometry) {
@@ -1109,6 +1304,9 @@ public class ExpressionParser {
 
     private final DBObject orderBy;
     private final Set<String> orderByKeySet;
+    // Split once, not by comparison.
+    private final List<List<String>> paths;
+    private final Object[] sortDirections;
 
     public SortSpecificationComparator(DBObject orderBy) {
       this.orderBy = orderBy;
@@ -1117,6 +1315,12 @@ public class ExpressionParser {
       if (this.orderByKeySet.isEmpty()) {
         throw new FongoException("The $sort pattern is empty when it should be a set of fields.");
       }
+      this.paths = new ArrayList<List<String>>(orderByKeySet.size());
+      this.sortDirections = new Object[orderByKeySet.size()];
+      for (String sortKey : orderByKeySet) {
+        sortDirections[paths.size()] = orderBy.get(sortKey);
+        paths.add(Util.split(sortKey));
+      }
     }
 
     @Override
@@ -1124,9 +1328,9 @@ public class ExpressionParser {
       if (isDBObjectButNotDBList(o1) && isDBObjectButNotDBList(o2)) {
         DBObject dbo1 = toDbObject(o1);
         DBObject dbo2 = toDbObject(o2);
-        for (String sortKey : orderByKeySet) {
-          final List<String> path = Util.split(sortKey);
-          int sortDirection = (Integer) orderBy.get(sortKey);
+        for (int i = 0; i < sortDirections.length; i++) {
+          final List<String> path = paths.get(i);
+          int sortDirection = (Integer) sortDirections[i];
 
           List<Object> o1list = getEmbeddedValues(path, dbo1);
           List<Object> o2list = getEmbeddedValues(path, dbo2);
@@ -1139,9 +1343,9 @@ public class ExpressionParser {
         return 0;
       } else if (isDBObjectButNotDBList(o1) || isDBObjectButNotDBList(o2)) {
         DBObject dbo = toDbObject(isDbObject(o1) ? o1 : o2);
-        for (String sortKey : orderByKeySet) {
-          final List<String> path = Util.split(sortKey);
-          int sortDirection = (Integer) orderBy.get(sortKey);
+        for (int i = 0; i < sortDirections.length; i++) {
+          final List<String> path = paths.get(i);
+          int sortDirection = (Integer) sortDirections[i];
 
           List<Object> foundValues = getEmbeddedValues(path, dbo);
 
@@ -1182,15 +1386,21 @@ public class ExpressionParser {
 
     @Override
     public Filter createFilter(final List<String> path, final DBObject refExpression) {
+      final Object queryValue = refExpression.get(command);
       return new Filter() {
         @Override
         public boolean apply(DBObject o) {
+          final Object directValue = directValue(path, o);
+          if (directValue != EMBEDDED_VALUES) {
+            // Embedded documents only : no list of values.
+            return directValue != MISSING && compare(queryValue, directValue);
+          }
           List<Object> storedList = getEmbeddedValues(path, o);
           if (storedList.isEmpty()) {
             return false;
           } else {
             for (Object storedValue : storedList) {
-              if (compare(refExpression.get(command), storedValue)) {
+              if (compare(queryValue, storedValue)) {
                 return true;
               }
             }
@@ -0,0 +1,233 @@
+package com.github.fakemongo.impl;
+
+import com.mongodb.DBObject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Filters of {@link ExpressionParser#buildFilter(DBObject)} prepared by query shape : the fields, the operators and the
+ * clauses of the query, not its values. A query of a known shape is not parsed again : its paths are split and its
+ * operators are matched once, the filter is built with the values of each query.
+ * <p/>
+ * Thread Safe : the concurrent reads of a collection share the cache.
+ */
+public class FilterCache {
+  private static final int MAX_SHAPES = 1000;
+  // Shape of a value compared as a whole.
+  private static final String VALUE = "value";
+  // Shape of an expression parsed for each query ($where, $not...).
+  private static final String PARSED = "parsed";
+
+  private final ExpressionParser expressionParser;
+  private final Map<Object, PreparedQuery> queries = new LinkedHashMap<Object, PreparedQuery>(16, 0.75F, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Object, PreparedQuery> eldest) {
+      return size() > MAX_SHAPES;
+    }
+  };
+
+  public FilterCache(ExpressionParser expressionParser) {
+    this.expressionParser = expressionParser;
+  }
+
+  /**
+   * @param query query to filter with.
+   * @return the filter of the query, prepared once for its shape.
+   */
+  public Filter get(DBObject query) {
+    if (query == null) {
+      return expressionParser.buildFilter(null);
+    }
+    final Object shape = shapeOf(query);
+    PreparedQuery preparedQuery;
+    synchronized (this) {
+      preparedQuery = queries.get(shape);
+      if (preparedQuery == null) {
+        preparedQuery = new PreparedQuery(query);
+        queries.put(shape, preparedQuery);
+      }
+    }
+    return preparedQuery.bind(query);
+  }
+
+  /**
+   * @return the number of shapes prepared.
+   */
+  synchronized int size() {
+    return queries.size();
+  }
+
+  public synchronized void clear() {
+    queries.clear();
+  }
+
+  /**
+   * Shape of a query : its fields in their order, with the shape of their expression.
+   */
+  static Object shapeOf(DBObject query) {
+    final List<Object> shape = new ArrayList<Object>();
+    for (String key : query.keySet()) {
+      shape.add(key);
+      shape.add(shapeOf(key, query.get(key)));
+    }
+    return shape;
+  }
+
+  private static Object shapeOf(String key, Object expression) {
+    if (isClauses(key)) {
+      final List<Object> clausesShape = clausesShape(expression);
+      return clausesShape == null ? PARSED : clausesShape;
+    }
+    if (key.startsWith("$")) {
+      return PARSED;
+    }
+    if (expression instanceof Pattern) {
+      return Pattern.class;
+    }
+    if (ExpressionParser.isDbObject(expression) && !(expression instanceof List)) {
+      final DBObject operators = ExpressionParser.toDbObject(expression);
+      if (operators.containsField(ExpressionParser.NOT)) {
+        return PARSED;
+      }
+      // The operators are matched by name.
+      final List<Object> shape = new ArrayList<Object>();
+      shape.add(DBObject.class);
+      shape.addAll(operators.keySet());
+      return shape;
+    }
+    return VALUE;
+  }
+
+  private static boolean isClauses(String key) {
+    return ExpressionParser.OR.equals(key) || ExpressionParser.NOR.equals(key) || ExpressionParser.AND.equals(key);
+  }
+
+  /**
+   * @return the shapes of the queries of a $or/$nor/$and, null if the clauses are not a non empty list of queries.
+   */
+  private static List<Object> clausesShape(Object expression) {
+    if (!(expression instanceof Collection) || ((Collection) expression).isEmpty()) {
+      return null;
+    }
+    final List<Object> shape = new ArrayList<Object>();
+    shape.add(Collection.class);
+    for (Object clause : (Collection) expression) {
+      if (!ExpressionParser.isDbObject(clause)) {
+        return null;
+      }
+      shape.add(shapeOf(ExpressionParser.toDbObject(clause)));
+    }
+    return shape;
+  }
+
+  /**
+   * Part of a query prepared for its shape.
+   */
+  private interface Prepared {
+    /**
+     * @param expression value of the part in a query of the same shape.
+     */
+    Filter bind(Object expression);
+  }
+
+  /**
+   * A query : all its fields must match.
+   */
+  private final class PreparedQuery implements Prepared {
+    private final List<Prepared> fields = new ArrayList<Prepared>();
+
+    PreparedQuery(DBObject query) {
+      for (String key : query.keySet()) {
+        fields.add(prepare(key, query.get(key)));
+      }
+    }
+
+    @Override
+    public Filter bind(Object expression) {
+      final ExpressionParser.AndFilter andFilter = new ExpressionParser.AndFilter();
+      // Same shape : the fields come in the same order.
+      final DBObject query = (DBObject) expression;
+      final Iterator<Prepared> prepared = fields.iterator();
+      for (String key : query.keySet()) {
+        andFilter.addFilter(prepared.next().bind(query.get(key)));
+      }
+      return andFilter;
+    }
+  }
+
+  private Prepared prepare(final String key, Object expression) {
+    final Object shape = shapeOf(key, expression);
+    if (shape == PARSED) {
+      return new Prepared() {
+        @Override
+        public Filter bind(Object expression) {
+          return expressionParser.buildExpressionFilter(key, expression);
+        }
+      };
+    }
+    if (isClauses(key)) {
+      return prepareClauses(key, (Collection) expression);
+    }
+    final List<String> path = Util.split(key);
+    if (shape == Pattern.class) {
+      return new Prepared() {
+        @Override
+        public Filter bind(Object expression) {
+          return expressionParser.createPatternFilter(path, (Pattern) expression);
+        }
+      };
+    }
+    final List<ExpressionParser.FilterFactory> factories = new ArrayList<ExpressionParser.FilterFactory>();
+    if (shape != VALUE) {
+      final DBObject operators = ExpressionParser.toDbObject(expression);
+      for (ExpressionParser.FilterFactory filterFactory : expressionParser.filterFactories) {
+        if (filterFactory.matchesCommand(operators)) {
+          factories.add(filterFactory);
+        }
+      }
+    }
+    if (factories.isEmpty()) {
+      return new Prepared() {
+        @Override
+        public Filter bind(Object expression) {
+          return expressionParser.simpleFilter(path, expression);
+        }
+      };
+    }
+    return new Prepared() {
+      @Override
+      public Filter bind(Object expression) {
+        final DBObject operators = ExpressionParser.toDbObject(expression);
+        final ExpressionParser.AndFilter andFilter = new ExpressionParser.AndFilter();
+        for (ExpressionParser.FilterFactory filterFactory : factories) {
+          andFilter.addFilter(filterFactory.createFilter(path, operators));
+        }
+        return andFilter;
+      }
+    };
+  }
+
+  private Prepared prepareClauses(final String key, Collection<?> clauses) {
+    final List<PreparedQuery> preparedClauses = new ArrayList<PreparedQuery>(clauses.size());
+    for (Object clause : clauses) {
+      preparedClauses.add(new PreparedQuery(ExpressionParser.toDbObject(clause)));
+    }
+    return new Prepared() {
+      @Override
+      public Filter bind(Object expression) {
+        final ExpressionParser.ConjunctionFilter filter = ExpressionParser.AND.equals(key)
+            ? new ExpressionParser.AndFilter() : new ExpressionParser.OrFilter();
+        final Iterator<PreparedQuery> prepared = preparedClauses.iterator();
+        for (Object clause : (Collection) expression) {
+          filter.addFilter(prepared.next().bind(ExpressionParser.toDbObject(clause)));
+        }
+        return ExpressionParser.NOR.equals(key) ? new ExpressionParser.NotFilter(filter) : filter;
+      }
+    };
+  }
+}
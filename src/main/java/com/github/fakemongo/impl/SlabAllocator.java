@@ -0,0 +1,117 @@
+package com.github.fakemongo.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Regions of memory out of the heap for the encoded documents : direct buffers ("slabs") are cut into regions of a
+ * power of 2 size, a freed region is reused by the next document of the same size class. A document bigger than a
+ * slab has its own direct buffer, given back to the system by the garbage collector.
+ * <p/>
+ * NOT Thread Safe. The ThreadSafety must be done by the caller.
+ */
+public class SlabAllocator {
+  public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+  private static final int MIN_REGION_SIZE = 64;
+
+  private final int slabSize;
+  // Free regions by size class : MIN_REGION_SIZE << class.
+  private final List<Deque<ByteBuffer>> freeRegions = new ArrayList<Deque<ByteBuffer>>();
+  private ByteBuffer slab;
+  private int slabCount = 0;
+
+  public SlabAllocator() {
+    this(DEFAULT_SLAB_SIZE);
+  }
+
+  /**
+   * @param slabSize size of the direct buffers, a power of 2.
+   */
+  public SlabAllocator(int slabSize) {
+    if (slabSize < MIN_REGION_SIZE || Integer.bitCount(slabSize) != 1) {
+      throw new IllegalArgumentException("slab size must be a power of 2 greater than " + MIN_REGION_SIZE + " : " + slabSize);
+    }
+    this.slabSize = slabSize;
+    for (int size = MIN_REGION_SIZE; size <= slabSize; size <<= 1) {
+      freeRegions.add(new ArrayDeque<ByteBuffer>());
+    }
+  }
+
+  /**
+   * @return a region of at least "size" bytes, its capacity is the size of its class.
+   */
+  public ByteBuffer allocate(int size) {
+    if (size > slabSize) {
+      return ByteBuffer.allocateDirect(size);
+    }
+    final int sizeClass = sizeClass(size);
+    final ByteBuffer free = freeRegions.get(sizeClass).poll();
+    if (free != null) {
+      free.clear();
+      return free;
+    }
+    final int regionSize = MIN_REGION_SIZE << sizeClass;
+    if (slab == null || slab.remaining() < regionSize) {
+      if (slab != null) {
+        freeRemainder();
+      }
+      slab = ByteBuffer.allocateDirect(slabSize);
+      slabCount++;
+    }
+    return cut(regionSize);
+  }
+
+  /**
+   * Give back a region from {@link #allocate(int)}, it must not be used anymore.
+   */
+  public void free(ByteBuffer region) {
+    if (region.capacity() <= slabSize) {
+      freeRegions.get(sizeClass(region.capacity())).push(region);
+    }
+  }
+
+  /**
+   * Forget all the slabs : the regions allocated before must not be used anymore.
+   */
+  public void clear() {
+    for (Deque<ByteBuffer> regions : freeRegions) {
+      regions.clear();
+    }
+    slab = null;
+    slabCount = 0;
+  }
+
+  /**
+   * @return number of slabs allocated.
+   */
+  public int getSlabCount() {
+    return slabCount;
+  }
+
+  private ByteBuffer cut(int regionSize) {
+    final ByteBuffer region = slab.duplicate();
+    region.limit(slab.position() + regionSize);
+    slab.position(slab.position() + regionSize);
+    return region.slice();
+  }
+
+  // The end of a slab too small for a region is cut into smaller free regions.
+  private void freeRemainder() {
+    for (int sizeClass = freeRegions.size() - 1; sizeClass >= 0; sizeClass--) {
+      final int regionSize = MIN_REGION_SIZE << sizeClass;
+      while (slab.remaining() >= regionSize) {
+        freeRegions.get(sizeClass).push(cut(regionSize));
+      }
+    }
+  }
+
+  private static int sizeClass(int size) {
+    if (size <= MIN_REGION_SIZE) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_REGION_SIZE);
+  }
+}
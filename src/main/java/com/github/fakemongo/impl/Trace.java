@@ -0,0 +1,43 @@
+package com.github.fakemongo.impl;
+
+import com.mongodb.DBObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One summary event by operation : query, index used, objects scanned and returned.
+ * <p/>
+ * Enabled at startup with the system property "fongo.trace", logged at debug level. The callers test the static final
+ * {@link #ENABLED} : when it's false the JIT removes the calls and nothing is counted nor logged.
+ */
+public final class Trace {
+  private static final Logger LOG = LoggerFactory.getLogger(Trace.class);
+
+  public static final boolean ENABLED = Boolean.getBoolean("fongo.trace");
+
+  private Trace() {
+  }
+
+  /**
+   * @param index    name of the index used, null for a scan of the collection.
+   * @param covered  true if the results have been built from the keys of the index.
+   * @param scanned  objects read.
+   * @param returned objects returned.
+   */
+  public static void find(String namespace, DBObject query, String index, boolean covered, long scanned, long returned) {
+    LOG.debug("find {} {} : index {}{}, {} scanned, {} returned",
+        new Object[]{namespace, query, index, covered ? " (covered)" : "", scanned, returned});
+  }
+
+  public static void sort(String namespace, DBObject orderBy, int count) {
+    LOG.debug("sort {} by {} : {} objects", new Object[]{namespace, orderBy, count});
+  }
+
+  /**
+   * @param operation update or remove.
+   * @param matched   objects matching the query.
+   */
+  public static void write(String operation, String namespace, DBObject query, String index, long matched) {
+    LOG.debug("{} {} {} : index {}, {} matched", new Object[]{operation, namespace, query, index, matched});
+  }
+}
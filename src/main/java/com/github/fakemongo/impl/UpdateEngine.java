@@ -583,6 +583,42 @@ public class UpdateEngine {
     return obj;
   }
 
+  /**
+   * Paths modified by an update, cut before the first positional operator or array index.
+   *
+   * @param update update operation.
+   * @return the modified paths, null if the update replaces the whole object.
+   */
+  public Set<String> modifiedPaths(final DBObject update) {
+    boolean updateDone = false;
+    Set<String> paths = new HashSet<String>();
+    for (String command : update.keySet()) {
+      if (commandMap.containsKey(command)) {
+        updateDone = true;
+        DBObject updateObject = ExpressionParser.toDbObject(update.get(command));
+        for (String updateKey : updateObject.keySet()) {
+          paths.add(modifiedPath(updateKey));
+          if ("$rename".equals(command)) {
+            paths.add(modifiedPath(String.valueOf(updateObject.get(updateKey))));
+          }
+        }
+      }
+    }
+    return updateDone ? paths : null;
+  }
+
+  private String modifiedPath(String updateKey) {
+    List<String> path = Util.split(updateKey);
+    int end = path.get(0).length();
+    for (int i = 1; i < path.size(); i++) {
+      if (path.get(i).startsWith("$") || Util.isPositiveInt(path.get(i))) {
+        return updateKey.substring(0, end);
+      }
+      end += 1 + path.get(i).length();
+    }
+    return updateKey;
+  }
+
   public void mergeEmbeddedValueFromQuery(BasicDBObject newObject, DBObject q) {
     basicUpdateForUpsert.doUpdate(newObject, new BasicDBObject(basicUpdateForUpsert.command, q), new HashSet<String>(), q, false);
   }
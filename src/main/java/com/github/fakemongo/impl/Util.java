@@ -180,6 +180,45 @@ public final class Util {
     }
   }
 
+  /**
+   * Key of a value in a hash table, equal for the values equal in a query : the numbers of the same value (1, 1L,
+   * 1.0) have the same key, the fields of the documents keep their order.
+   */
+  public static Object hashKey(Object value) {
+    if (value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long) {
+      return ((Number) value).longValue();
+    }
+    if (value instanceof Float || value instanceof Double) {
+      final double doubleValue = ((Number) value).doubleValue();
+      if (doubleValue == Math.rint(doubleValue) && Math.abs(doubleValue) < Long.MAX_VALUE) {
+        return (long) doubleValue;
+      }
+      return doubleValue;
+    }
+    if (value instanceof List) {
+      final List<Object> key = new ArrayList<Object>();
+      key.add(List.class);
+      for (Object element : (List) value) {
+        key.add(hashKey(element));
+      }
+      return key;
+    }
+    if (value instanceof DBObject) {
+      final DBObject dbObject = (DBObject) value;
+      final List<Object> key = new ArrayList<Object>();
+      key.add(DBObject.class);
+      for (String field : dbObject.keySet()) {
+        key.add(field);
+        key.add(hashKey(dbObject.get(field)));
+      }
+      return key;
+    }
+    if (value instanceof byte[]) {
+      return Arrays.asList(byte[].class, Arrays.toString((byte[]) value));
+    }
+    return value;
+  }
+
   /**
    * @see org.bson.BasicBSONEncoder#_putObjectField(String, Object)
    */
@@ -274,6 +313,12 @@ public final class Util {
       return clone;
     }
 
+    if (source instanceof EncodedDBObject) {
+      @SuppressWarnings("unchecked")
+      T clone = (T) ((EncodedDBObject) source).decode();
+      return clone;
+    }
+
     if (source instanceof LazyBSONObject) {
       @SuppressWarnings("unchecked")
       BasicDBObject clone = new BasicDBObject();
@@ -326,7 +371,7 @@ public final class Util {
     // copy field values into new object
     DBObject newobj = new BasicDBObject();
     if (source.containsField(FongoDBCollection.ID_FIELD_NAME)) {
-      newobj.put(FongoDBCollection.ID_FIELD_NAME, source.get(FongoDBCollection.ID_FIELD_NAME));
+      newobj.put(FongoDBCollection.ID_FIELD_NAME, clone(source.get(FongoDBCollection.ID_FIELD_NAME)));
     }
 
     Set<Map.Entry<String, Object>> entrySet;
@@ -0,0 +1,41 @@
+package com.github.fakemongo.impl.aggregation;
+
+import com.mongodb.DBObject;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Documents given by a stage of the pipeline to the next one : {@link #computeNext()} reads the documents of the
+ * previous stage only when the next stage asks for one.
+ */
+abstract class DocumentIterator implements Iterator<DBObject> {
+  private DBObject next;
+
+  /**
+   * @return the next document, null when there is no more document.
+   */
+  protected abstract DBObject computeNext();
+
+  @Override
+  public boolean hasNext() {
+    if (next == null) {
+      next = computeNext();
+    }
+    return next != null;
+  }
+
+  @Override
+  public DBObject next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    final DBObject result = next;
+    next = null;
+    return result;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -4,17 +4,17 @@ import com.github.fakemongo.impl.ExpressionParser;
 import com.github.fakemongo.impl.Util;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
-import com.mongodb.DB;
-import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.FongoDB;
 import com.mongodb.FongoDBCollection;
 import com.mongodb.MongoException;
 import com.mongodb.annotations.ThreadSafe;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -27,21 +27,23 @@ import org.slf4j.LoggerFactory;
  * {@see http://docs.mongodb.org/manual/reference/aggregation/group/}
  */
 @ThreadSafe
-public class Group extends PipelineKeyword {
+public class Group extends PipelineKeyword implements MergeableKeyword {
   private static final Logger LOG = LoggerFactory.getLogger(Group.class);
 
   public static final Group INSTANCE = new Group();
 
+  private static final ExpressionParser EXPRESSION_PARSER = new ExpressionParser();
+
   static class Mapping {
     private final DBObject key;
 
-    private final DBCollection collection;
+    // Accumulators of the group, in the order of the $group fields.
+    private final Map<String, Accumulator> accumulators = new LinkedHashMap<String, Accumulator>();
 
     private final DBObject result;
 
-    public Mapping(DBObject key, DBCollection collection, DBObject result) {
+    public Mapping(DBObject key, DBObject result) {
       this.key = key;
-      this.collection = collection;
       this.result = result;
     }
 
@@ -49,12 +51,26 @@ public class Group extends PipelineKeyword {
     public String toString() {
       return "Mapping{" +
           "keyword=" + key +
-          ", collection=" + collection +
+          ", accumulators=" + accumulators +
           ", result=" + result +
           '}';
     }
   }
 
+  /**
+   * State of a keyword for one group : the documents of the group are given one by one, in the order of the pipeline.
+   */
+  abstract static class Accumulator {
+    abstract void accumulate(DBObject object);
+
+    /**
+     * Add the state of the same keyword for the same group, fed with the documents following the ones of this one.
+     */
+    abstract void merge(Accumulator other);
+
+    abstract Object result();
+  }
+
   private Group() {
   }
 
@@ -62,50 +78,50 @@ public class Group extends PipelineKeyword {
   enum GroupKeyword {
     MIN("$min") {
       @Override
-      Object work(DBCollection coll, Object keywordParameter) {
-        return minmax(coll, keywordParameter, 1);
+      Accumulator accumulator(Object keywordParameter) {
+        return minmax(keywordParameter, 1);
       }
     },
     MAX("$max") {
       @Override
-      Object work(DBCollection coll, Object keywordParameter) {
-        return minmax(coll, keywordParameter, -1);
+      Accumulator accumulator(Object keywordParameter) {
+        return minmax(keywordParameter, -1);
       }
     },
     FIRST("$first", true) {
       @Override
-      Object work(DBCollection coll, Object keywordParameter) {
-        return firstlast(coll, keywordParameter, true);
+      Accumulator accumulator(Object keywordParameter) {
+        return firstlast(keywordParameter, true);
       }
     },
     LAST("$last", true) {
       @Override
-      Object work(DBCollection coll, Object keywordParameter) {
-        return firstlast(coll, keywordParameter, false);
+      Accumulator accumulator(Object keywordParameter) {
+        return firstlast(keywordParameter, false);
       }
     },
     AVG("$avg") {
       @Override
-      Object work(DBCollection coll, Object keywordParameter) {
-        return avg(coll, keywordParameter);
+      Accumulator accumulator(Object keywordParameter) {
+        return avg(keywordParameter);
       }
     },
     SUM("$sum") {
       @Override
-      Object work(DBCollection coll, Object keywordParameter) {
-        return sum(coll, keywordParameter);
+      Accumulator accumulator(Object keywordParameter) {
+        return sum(keywordParameter);
       }
     },
     PUSH("$push") {
       @Override
-      Object work(DBCollection coll, Object keywordParameter) {
-        return pushAddToSet(coll, keywordParameter, false);
+      Accumulator accumulator(Object keywordParameter) {
+        return pushAddToSet(keywordParameter, false);
       }
     },
     ADD_TO_SET("$addToSet") {
       @Override
-      Object work(DBCollection coll, Object keywordParameter) {
-        return pushAddToSet(coll, keywordParameter, true);
+      Accumulator accumulator(Object keywordParameter) {
+        return pushAddToSet(keywordParameter, true);
       }
     };
 
@@ -122,10 +138,10 @@ public class Group extends PipelineKeyword {
       this.canReturnNull = canReturnNull;
     }
 
-    abstract Object work(DBCollection coll, Object keywordParameter);
+    abstract Accumulator accumulator(Object keywordParameter);
 
-    public Object apply(DBCollection coll, DBObject parameter) {
-      return work(coll, parameter.get(keyword));
+    public Accumulator newAccumulator(DBObject parameter) {
+      return accumulator(parameter.get(keyword));
     }
 
     public boolean canApply(DBObject parameter) {
@@ -138,80 +154,124 @@ public class Group extends PipelineKeyword {
   }
 
   @Override
-  public DBCollection apply(DB originalDB, DBCollection coll, DBObject object) {
-    DBObject group = ExpressionParser.toDbObject(object.get(getKeyword()));
+  public Iterator<DBObject> apply(FongoDBCollection coll, Iterator<DBObject> objects, DBObject object) {
+    DBObject group = groupOf(coll, object);
+    // Group in the mapping, in one pass.
+    Map<Object, Mapping> mapping = createMapping(objects, group.get(FongoDBCollection.ID_FIELD_NAME), group, keywordsOf(group));
+    return results(object, group, mapping);
+  }
 
-    if (!group.containsField(FongoDBCollection.ID_FIELD_NAME)) {
-      fongo.errorResult(15955, "a group specification must include an _id").throwOnError();
-    }
-    Object id = group.removeField(FongoDBCollection.ID_FIELD_NAME);
-    LOG.debug("group() for _id : {}", id);
-    // Try to group in the mapping.
-    Map<DBObject, Mapping> mapping = createMapping(coll, id);
-
-    //noinspection unchecked
-    for (Map.Entry<String, Object> entry : ((Set<Map.Entry<String, Object>>) group.toMap().entrySet())) {
-      String key = entry.getKey();
-      Object value = entry.getValue();
-      if (ExpressionParser.isDbObject(value)) {
-        DBObject objectValue = ExpressionParser.toDbObject(value);
-        for (Map.Entry<DBObject, Mapping> entryMapping : mapping.entrySet()) {
-          DBCollection workColl = entryMapping.getValue().collection;
-          for (GroupKeyword keyword : GroupKeyword.values()) {
-            if (keyword.canApply(objectValue)) {
-              Object result = keyword.apply(workColl, objectValue);
-              if (result != null || keyword.isCanReturnNull()) {
-                LOG.debug("_id:{}, keyword:{}, result:{}", entryMapping.getKey(), key, result);
-                entryMapping.getValue().result.put(key, result);
-              } else {
-                LOG.warn("result is null for entry {}", entry);
-              }
-              break;
-            }
+  @Override
+  public Object applyPart(FongoDBCollection coll, Iterator<DBObject> objects, DBObject object) {
+    DBObject group = groupOf(coll, object);
+    return createMapping(objects, group.get(FongoDBCollection.ID_FIELD_NAME), group, keywordsOf(group));
+  }
+
+  @Override
+  public Iterator<DBObject> merge(FongoDBCollection coll, List<Object> parts, DBObject object) {
+    DBObject group = groupOf(coll, object);
+    Map<Object, Mapping> mapping = new LinkedHashMap<Object, Mapping>();
+    for (Object part : parts) {
+      //noinspection unchecked
+      for (Map.Entry<Object, Mapping> entry : ((Map<Object, Mapping>) part).entrySet()) {
+        Mapping groupMapping = mapping.get(entry.getKey());
+        if (groupMapping == null) {
+          mapping.put(entry.getKey(), entry.getValue());
+        } else {
+          for (Map.Entry<String, Accumulator> accumulator : groupMapping.accumulators.entrySet()) {
+            accumulator.getValue().merge(entry.getValue().accumulators.get(accumulator.getKey()));
           }
         }
       }
     }
+    return results(object, group, mapping);
+  }
 
-    coll = dropAndInsert(coll, new ArrayList<DBObject>());
+  private DBObject groupOf(FongoDBCollection coll, DBObject object) {
+    DBObject group = ExpressionParser.toDbObject(object.get(getKeyword()));
+
+    if (!group.containsField(FongoDBCollection.ID_FIELD_NAME)) {
+      ((FongoDB) coll.getDB()).errorResult(15955, "a group specification must include an _id").throwOnError();
+    }
+    LOG.debug("group() for _id : {}", group.get(FongoDBCollection.ID_FIELD_NAME));
+    return group;
+  }
 
-    // Extract from mapping to do the result.
-    for (Map.Entry<DBObject, Mapping> entry : mapping.entrySet()) {
-      coll.insert(entry.getValue().result);
-      entry.getValue().collection.drop();
+  /**
+   * Extract from mapping to do the result.
+   */
+  private Iterator<DBObject> results(DBObject object, DBObject group, Map<Object, Mapping> mapping) {
+    Map<String, GroupKeyword> keywords = keywordsOf(group);
+    List<DBObject> results = new ArrayList<DBObject>(mapping.size());
+    for (Map.Entry<Object, Mapping> entryMapping : mapping.entrySet()) {
+      Mapping groupMapping = entryMapping.getValue();
+      for (Map.Entry<String, Accumulator> entry : groupMapping.accumulators.entrySet()) {
+        String key = entry.getKey();
+        Object result = entry.getValue().result();
+        if (result != null || keywords.get(key).isCanReturnNull()) {
+          groupMapping.result.put(key, result);
+        } else {
+          LOG.warn("result is null for entry {}", key);
+        }
+      }
+      results.add(groupMapping.result);
     }
 
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("group() : {} result : {}", object, coll.find().toArray());
+    LOG.debug("group() : {} result : {}", object, results);
+    return results.iterator();
+  }
+
+  /**
+   * @return the keyword of each field of the group (but the _id), in the order of the group.
+   */
+  private Map<String, GroupKeyword> keywordsOf(DBObject group) {
+    Map<String, GroupKeyword> keywords = new LinkedHashMap<String, GroupKeyword>();
+    for (String key : group.keySet()) {
+      Object value = group.get(key);
+      if (!FongoDBCollection.ID_FIELD_NAME.equals(key) && ExpressionParser.isDbObject(value)) {
+        DBObject objectValue = ExpressionParser.toDbObject(value);
+        for (GroupKeyword keyword : GroupKeyword.values()) {
+          if (keyword.canApply(objectValue)) {
+            keywords.put(key, keyword);
+            break;
+          }
+        }
+      }
     }
-    return coll;
+    return keywords;
   }
 
   /**
-   * Create mapping. Group result with a 'keyword'.
+   * Create mapping. Group result with a 'keyword', and give each object to the accumulators of its group.
    *
-   * @param coll collection to be mapped
-   * @param id   id of the group
-   * @return a (Criteria, Mapping) for the id.
+   * @param objects  objects to be mapped
+   * @param id       id of the group
+   * @param group    the group specification.
+   * @param keywords keyword of the fields of the group.
+   * @return a (Criteria, Mapping) for the id, in the order of the first object of each group.
    */
-  private Map<DBObject, Mapping> createMapping(DBCollection coll, Object id) {
-    Map<DBObject, Mapping> mapping = new HashMap<DBObject, Mapping>();
-    List<DBObject> objects = coll.find().toArray();
-    for (DBObject dbObject : objects) {
-      DBObject criteria = criteriaForId(id, dbObject);
-      if (!mapping.containsKey(criteria)) {
-        // Return all object we can group
-        List<DBObject> newCollection = coll.find(criteria).toArray();
-        // Delete them from collection (optim for laaaaaarge collection)
-        for (DBObject o : newCollection) {
-          coll.remove(new BasicDBObject(FongoDBCollection.ID_FIELD_NAME, o.get(FongoDBCollection.ID_FIELD_NAME)));
-        }
+  private Map<Object, Mapping> createMapping(Iterator<DBObject> objects, Object id, DBObject group, Map<String, GroupKeyword> keywords) {
+    Map<Object, Mapping> mapping = new LinkedHashMap<Object, Mapping>();
+    while (objects.hasNext()) {
+      DBObject dbObject = objects.next();
+      // Equal like in a query : 1, 1L and 1.0 are in the same group.
+      Object criteria = Util.hashKey(criteriaForId(id, dbObject));
+      Mapping groupMapping = mapping.get(criteria);
+      if (groupMapping == null) {
         // Generate keyword
         DBObject key = keyForId(id, dbObject);
         // Save into mapping
-        mapping.put(criteria, new Mapping(key, createAndInsert(newCollection), Util.clone(key)));
+        groupMapping = new Mapping(key, Util.clone(key));
+        for (Map.Entry<String, GroupKeyword> entry : keywords.entrySet()) {
+          DBObject parameter = ExpressionParser.toDbObject(group.get(entry.getKey()));
+          groupMapping.accumulators.put(entry.getKey(), entry.getValue().newAccumulator(parameter));
+        }
+        mapping.put(criteria, groupMapping);
         LOG.trace("createMapping() new criteria : {}", criteria);
       }
+      for (Accumulator accumulator : groupMapping.accumulators.values()) {
+        accumulator.accumulate(dbObject);
+      }
     }
     return mapping;
   }
@@ -238,7 +298,6 @@ public class Group extends PipelineKeyword {
     } else {
       result.put(FongoDBCollection.ID_FIELD_NAME, null);
     }
-    LOG.debug("keyForId() id:{}, dbObject:{}, result:{}", id, dbObject, result);
     return result;
   }
 
@@ -318,7 +377,6 @@ public class Group extends PipelineKeyword {
       String field = fieldName(id);
       result.put(field, Util.extractField(dbObject, field));
     }
-    LOG.debug("criteriaForId() id:{}, dbObject:{}, result:{}", id, dbObject, result);
     return result;
   }
 
@@ -332,38 +390,107 @@ public class Group extends PipelineKeyword {
     return field;
   }
 
+  /**
+   * Accumulator for a keyword it doesn't know what to do with : no result.
+   */
+  private static final Accumulator NO_RESULT = new Accumulator() {
+    @Override
+    void accumulate(DBObject object) {
+    }
+
+    @Override
+    void merge(Accumulator other) {
+    }
+
+    @Override
+    Object result() {
+      return null;
+    }
+  };
+
   /**
    * {@see http://docs.mongodb.org/manual/reference/aggregation/sum/#grp._S_sum}
    */
-  private static Object sum(DBCollection coll, Object value) {
-    Number result = null;
+  private static Accumulator sum(final Object value) {
     if (value.toString().startsWith("$")) {
-      String field = value.toString().substring(1);
-      List<DBObject> objects = coll.find(null, new BasicDBObject(field, 1).append(FongoDBCollection.ID_FIELD_NAME, 0)).toArray();
-      for (DBObject object : objects) {
-        if (Util.containsField(object, field)) {
-          if (result == null) {
-            result = Util.extractField(object, field);
-          } else {
-            Number other = Util.extractField(object, field);
-            result = addWithSameType(result, other);
-          }
+      return new SumAccumulator(value.toString().substring(1));
+    }
+    return new CountAccumulator((Number) value);
+  }
+
+  private static class SumAccumulator extends Accumulator {
+    private final String field;
+    Number result;
+    long count;
+
+    SumAccumulator(String field) {
+      this.field = field;
+    }
+
+    @Override
+    void accumulate(DBObject object) {
+      if (Util.containsField(object, field)) {
+        count++;
+        if (result == null) {
+          result = Util.extractField(object, field);
+        } else {
+          Number other = Util.extractField(object, field);
+          result = addWidened(result, other);
         }
       }
-    } else {
-      Number iValue = (Number) value;
+    }
+
+    @Override
+    void merge(Accumulator other) {
+      final SumAccumulator sum = (SumAccumulator) other;
+      count += sum.count;
+      if (result == null) {
+        result = sum.result;
+      } else if (sum.result != null) {
+        result = addWidened(result, sum.result);
+      }
+    }
+
+    @Override
+    Object result() {
+      return result;
+    }
+  }
+
+  /**
+   * $sum of a constant : the count of documents times the constant.
+   */
+  private static class CountAccumulator extends Accumulator {
+    private final Number value;
+    private long count;
+
+    CountAccumulator(Number value) {
+      this.value = value;
+    }
+
+    @Override
+    void accumulate(DBObject object) {
+      count++;
+    }
+
+    @Override
+    void merge(Accumulator other) {
+      count += ((CountAccumulator) other).count;
+    }
+
+    @Override
+    Object result() {
       // TODO : handle null value ?
-      if (iValue instanceof Float || iValue instanceof Double) {
-        result = coll.count() * iValue.doubleValue();
-      } else if (iValue instanceof Byte || iValue instanceof Short || iValue instanceof Integer) {
-        result = intOrLong(coll.count() * iValue.longValue());
-      } else if (iValue instanceof Long) {
-        result = coll.count() * iValue.longValue();
-      } else {
-        LOG.warn("type of field not handled for sum:{}", result == null ? null : result.getClass());
+      if (value instanceof Float || value instanceof Double) {
+        return count * value.doubleValue();
+      } else if (value instanceof Byte || value instanceof Short || value instanceof Integer) {
+        return intOrLong(count * value.longValue());
+      } else if (value instanceof Long) {
+        return count * value.longValue();
       }
+      LOG.warn("type of field not handled for sum:{}", value == null ? null : value.getClass());
+      return null;
     }
-    return result;
   }
 
   /**
@@ -380,147 +507,208 @@ public class Group extends PipelineKeyword {
   /**
    * {@see http://docs.mongodb.org/manual/reference/aggregation/avg/#grp._S_avg}
    *
-   * @param coll  grouped collection to make the avg
    * @param value field to be averaged.
-   * @return the average of the collection.
+   * @return the accumulator of the average of the objects.
    */
-  private static Double avg(DBCollection coll, Object value) {
-    Number result = null;
-    long count = 1;
-    if (value.toString().startsWith("$")) {
-      String field = value.toString().substring(1);
-      List<DBObject> objects = coll.find(null, new BasicDBObject(field, 1).append(FongoDBCollection.ID_FIELD_NAME, 0)).toArray();
-      for (DBObject object : objects) {
-        LOG.debug("avg object {} ", object);
-
-        if (Util.containsField(object, field)) {
-          if (result == null) {
-            result = Util.extractField(object, field);
-          } else {
-            count++;
-            Number other = Util.extractField(object, field);
-            result = addWithSameType(result, other);
-          }
-        }
-      }
-    } else {
+  private static Accumulator avg(Object value) {
+    if (!value.toString().startsWith("$")) {
       LOG.error("Sorry, doesn't know what to do...");
-      return null;
+      return NO_RESULT;
     }
-    // Always return double.
-    return result == null ? null : (result.doubleValue() / (double) count);
+    return new SumAccumulator(value.toString().substring(1)) {
+      @Override
+      Object result() {
+        // Always return double.
+        return result == null ? null : (result.doubleValue() / (double) count);
+      }
+    };
   }
 
   /**
    * Return the first or the last of a collection.
    *
-   * @param coll  collection who contains data.
    * @param value fieldname for searching.
-   * @return
+   * @return the accumulator keeping the first or the last value.
    */
-  private static Object firstlast(DBCollection coll, Object value, boolean first) {
+  private static Accumulator firstlast(Object value, boolean first) {
     LOG.debug("first({})/last({}) on {}", first, !first, value);
-    Object result = null;
-    if (value.toString().startsWith("$")) {
-      String field = value.toString().substring(1);
-      DBCursor cursor = coll.find();
-      while (cursor.hasNext()) {
-        result = Util.extractField(cursor.next(), field);
-        if (first) {
-          break;
-        }
-      }
-    } else {
+    if (!value.toString().startsWith("$")) {
       LOG.error("Sorry, doesn't know what to do...");
+      return NO_RESULT;
     }
+    return new FirstLastAccumulator(value.toString().substring(1), first);
+  }
 
-    LOG.debug("first({})/last({}) on {}, result : {}", first, !first, value, result);
-    return result;
+  private static class FirstLastAccumulator extends Accumulator {
+    private final String field;
+    private final boolean first;
+    private boolean empty = true;
+    private Object result;
+
+    FirstLastAccumulator(String field, boolean first) {
+      this.field = field;
+      this.first = first;
+    }
+
+    @Override
+    void accumulate(DBObject object) {
+      if (empty || !first) {
+        result = Util.extractField(object, field);
+        empty = false;
+      }
+    }
+
+    @Override
+    void merge(Accumulator other) {
+      final FirstLastAccumulator firstLast = (FirstLastAccumulator) other;
+      if (!firstLast.empty && (empty || !first)) {
+        result = firstLast.result;
+        empty = false;
+      }
+    }
+
+    @Override
+    Object result() {
+      LOG.debug("first({})/last({}) on {}, result : {}", first, !first, field, result);
+      return result;
+    }
   }
 
   /**
-   * Return the first or the last of a collection.
+   * Return all the values, or the distinct values, of a collection.
    *
-   * @param coll
    * @param value fieldname for searching.
-   * @return
+   * @return the accumulator of the values.
    */
-  private static BasicDBList pushAddToSet(DBCollection coll, Object value, boolean uniqueness) {
+  private static Accumulator pushAddToSet(Object value, boolean uniqueness) {
     LOG.debug("pushAddToSet() on {}", value);
-    BasicDBList result = null;
-    if (value.toString().startsWith("$")) {
-      result = new BasicDBList();
-      String field = value.toString().substring(1);
-      DBCursor cursor = coll.find();
-      while (cursor.hasNext()) {
-        Object fieldValue = Util.extractField(cursor.next(), field);
-        if (!uniqueness || !result.contains(fieldValue)) {
-          result.add(fieldValue);
-        }
-      }
-    } else {
+    if (!value.toString().startsWith("$")) {
       LOG.error("Sorry, doesn't know what to do...");
+      return NO_RESULT;
     }
+    return new PushAddToSetAccumulator(value.toString().substring(1), uniqueness);
+  }
 
-    LOG.debug("pushAddToSet() on {}, result : {}", value, result);
-    return result;
+  private static class PushAddToSetAccumulator extends Accumulator {
+    private final String field;
+    private final boolean uniqueness;
+    private final BasicDBList result = new BasicDBList();
+    // Keys of the values already in the result, for $addToSet : 1, 1L and 1.0 are the same value, the first one is kept.
+    private final Set<Object> values = new HashSet<Object>();
+
+    PushAddToSetAccumulator(String field, boolean uniqueness) {
+      this.field = field;
+      this.uniqueness = uniqueness;
+    }
+
+    @Override
+    void accumulate(DBObject object) {
+      add(Util.extractField(object, field));
+    }
+
+    private void add(Object fieldValue) {
+      if (!uniqueness || values.add(Util.hashKey(fieldValue))) {
+        result.add(fieldValue);
+      }
+    }
+
+    @Override
+    void merge(Accumulator other) {
+      for (Object fieldValue : ((PushAddToSetAccumulator) other).result) {
+        add(fieldValue);
+      }
+    }
+
+    @Override
+    Object result() {
+      LOG.debug("pushAddToSet() on {}, result : {}", field, result);
+      return result;
+    }
   }
 
   /**
    * Return the min or the max of a collection.
    *
-   * @param coll
    * @param value
    * @param valueComparable 0 for equals, -1 for min, +1 for max
    * @return
    */
-  private static Object minmax(DBCollection coll, Object value, int valueComparable) {
-    if (value.toString().startsWith("$")) {
-      String field = value.toString().substring(1);
-      DBCursor cursor = coll.find();
-      Comparable comparable = null;
-      while (cursor.hasNext()) {
-        DBObject object = cursor.next();
-        if (Util.containsField(object, field)) {
-          if (comparable == null) {
-            comparable = Util.extractField(object, field);
-          } else {
-            Comparable other = Util.extractField(object, field);
-            if (comparable.compareTo(other) == valueComparable) {
-              comparable = other;
-            }
-          }
-        }
+  private static Accumulator minmax(Object value, int valueComparable) {
+    if (!value.toString().startsWith("$")) {
+      LOG.error("Sorry, doesn't know what to do...");
+      return NO_RESULT;
+    }
+    return new MinMaxAccumulator(value.toString().substring(1), valueComparable);
+  }
+
+  private static class MinMaxAccumulator extends Accumulator {
+    private final String field;
+    private final int valueComparable;
+    private Object comparable;
+
+    MinMaxAccumulator(String field, int valueComparable) {
+      this.field = field;
+      this.valueComparable = valueComparable;
+    }
+
+    @Override
+    void accumulate(DBObject object) {
+      if (Util.containsField(object, field)) {
+        add(Util.extractField(object, field));
+      }
+    }
+
+    private void add(Object other) {
+      if (comparable == null) {
+        comparable = other;
+      } else if (Integer.signum(EXPRESSION_PARSER.compareObjects(comparable, other)) == valueComparable) {
+        comparable = other;
       }
+    }
+
+    @Override
+    void merge(Accumulator other) {
+      final Object otherComparable = ((MinMaxAccumulator) other).comparable;
+      if (otherComparable != null) {
+        add(otherComparable);
+      }
+    }
+
+    @Override
+    Object result() {
       return comparable;
-    } else {
-      LOG.error("Sorry, doesn't know what to do...");
     }
-    return null;
   }
 
   /**
-   * Add two number in the same type.
+   * Add two numbers in the largest type of both : int, long, then double. An int overflowing becomes a long, so the sum
+   * doesn't depend on the order of the numbers, nor on how they are split between the parts of a merge.
    *
-   * @param result
-   * @param other
-   * @return
+   * @param result sum so far.
+   * @param other  number to add.
+   * @return the sum.
    */
-  private static Number addWithSameType(Number result, Number other) {
-    if (result instanceof Float) {
-      result = Float.valueOf(result.floatValue() + other.floatValue());
-    } else if (result instanceof Double) {
-      result = Double.valueOf(result.doubleValue() + other.doubleValue());
-    } else if (result instanceof Integer) {
-      result = Integer.valueOf(result.intValue() + other.intValue());
-    } else if (result instanceof Long) {
-      result = Long.valueOf(result.longValue() + other.longValue());
-    } else {
-      LOG.warn("type of field not handled for sum : {}", result.getClass());
+  private static Number addWidened(Number result, Number other) {
+    if (result instanceof Float && other instanceof Float) {
+      return Float.valueOf(result.floatValue() + other.floatValue());
+    } else if (isFloating(result) || isFloating(other)) {
+      return Double.valueOf(result.doubleValue() + other.doubleValue());
+    } else if (isIntegral(result) && isIntegral(other)) {
+      final long sum = result.longValue() + other.longValue();
+      return result instanceof Long || other instanceof Long ? (Number) Long.valueOf(sum) : intOrLong(sum);
     }
+    LOG.warn("type of field not handled for sum : {}", (isIntegral(result) ? other : result).getClass());
     return result;
   }
 
+  private static boolean isFloating(Number number) {
+    return number instanceof Double || number instanceof Float;
+  }
+
+  private static boolean isIntegral(Number number) {
+    return number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte;
+  }
+
 // --Commented out by Inspection START (05/11/13 12:10):
 //  private static Number returnSameType(Number type, Number other) {
 //    if (type instanceof Float) {
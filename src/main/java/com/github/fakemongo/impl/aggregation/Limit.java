@@ -1,10 +1,9 @@
 package com.github.fakemongo.impl.aggregation;
 
-import com.mongodb.DB;
-import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import com.mongodb.FongoDBCollection;
 import com.mongodb.annotations.ThreadSafe;
-import java.util.List;
+import java.util.Iterator;
 
 /**
  * User: william
@@ -20,9 +19,24 @@ public class Limit extends PipelineKeyword {
   /**
    */
   @Override
-  public DBCollection apply(DB originalDB, DBCollection coll, DBObject object) {
-    List<DBObject> objects = coll.find().limit(((Number) object.get(getKeyword())).intValue()).toArray();
-    return dropAndInsert(coll, objects);
+  public Iterator<DBObject> apply(FongoDBCollection coll, final Iterator<DBObject> objects, DBObject object) {
+    final int limit = ((Number) object.get(getKeyword())).intValue();
+    if (limit <= 0) {
+      return objects;
+    }
+    // The previous stages stop at the limit.
+    return new DocumentIterator() {
+      private int count = 0;
+
+      @Override
+      protected DBObject computeNext() {
+        if (count >= limit || !objects.hasNext()) {
+          return null;
+        }
+        count++;
+        return objects.next();
+      }
+    };
   }
 
   @Override
@@ -1,32 +1,72 @@
 package com.github.fakemongo.impl.aggregation;
 
 import com.github.fakemongo.impl.ExpressionParser;
-import com.mongodb.DB;
-import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
+import com.github.fakemongo.impl.Util;
+import com.github.fakemongo.impl.index.IndexAbstract;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
-import org.junit.Assert;
+import com.mongodb.FongoDBCollection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.regex.Pattern;
 
 /**
+ * {@see https://docs.mongodb.org/manual/reference/operator/aggregation/lookup/}
+ * <p/>
+ * Each document gets the documents of the "from" collection with "foreignField" equal to its "localField", in the
+ * order of the pipeline. The "from" collection is queried by its index on "foreignField" when it has one, elsewhere
+ * its documents are read once into a hash table by "foreignField".
+ *
  * @author Kollivakkam Raghavan
  * @created 4/22/2016
  */
 public class Lookup extends PipelineKeyword {
 
-  private static final Logger LOG = LoggerFactory.getLogger(Group.class);
+  private static final Logger LOG = LoggerFactory.getLogger(Lookup.class);
 
   public static final Lookup INSTANCE = new Lookup();
   public static final String ID = "_id";
 
+  private final ExpressionParser expressionParser = new ExpressionParser();
+
   @Override
-  public DBCollection apply(DB originalDB, DBCollection parentColl, DBObject object) {
+  public Iterator<DBObject> apply(FongoDBCollection coll, final Iterator<DBObject> objects, DBObject object) {
     DBObject lookup = ExpressionParser.toDbObject(object.get(getKeyword()));
-    List<DBObject> parentItems = performLookup(parentColl, lookup);
-    return dropAndInsert(parentColl, parentItems);
+    final String from = (String) lookup.get("from");
+    final String localField = (String) lookup.get("localField");
+    final String foreignField = (String) lookup.get("foreignField");
+    final String as = (String) lookup.get("as");
+    LOG.debug("Value {} will be returned from {} in parent collection {}.  Local field {} will be joined with {}",
+              as, from, coll.getName(), localField, foreignField);
+
+    final FongoDBCollection childColl = (FongoDBCollection) coll.getDB().getCollection(from);
+    final Map<Object, List<DBObject>> childrenByKey = hasIndex(childColl, foreignField) ? null : childrenByKey(childColl, foreignField);
+    return new DocumentIterator() {
+      @Override
+      protected DBObject computeNext() {
+        if (!objects.hasNext()) {
+          return null;
+        }
+        DBObject parentItem = objects.next();
+        Object localFieldValue = Util.extractField(parentItem, localField);
+        BasicDBList childItems = new BasicDBList();
+        if (childrenByKey == null) {
+          childItems.addAll(childColl.find(new BasicDBObject(foreignField, equalTo(localFieldValue))).toArray());
+        } else {
+          List<DBObject> children = childrenByKey.get(Util.hashKey(localFieldValue));
+          if (children != null) {
+            for (DBObject child : children) {
+              childItems.add(Util.clone(child));
+            }
+          }
+        }
+        parentItem.put(as, childItems);
+        return parentItem;
+      }
+    };
   }
 
   @Override
@@ -34,59 +74,62 @@ public class Lookup extends PipelineKeyword {
     return "$lookup";
   }
 
-  private List<DBObject> performLookup(DBCollection parentColl, DBObject lookup) {
-    String from = (String) lookup.get("from");
-    String localField = (String) lookup.get("localField");
-    String foreignField = (String) lookup.get("foreignField");
-    String as = (String) lookup.get("as");
-    LOG.debug("Value {} will be returned from {} in parent collection {}.  Local field {} will be joined with {}",
-              as, from, parentColl.getName(), localField, foreignField);
-
-    DBCursor parentItems = parentColl.find();
-    // can't use lambdas
-    Iterator<DBObject> iterator = parentItems.iterator();
-    Map<String, DBObject> parentMap = new HashMap<String, DBObject>();
-    // go through all parent items - put a list of DBObjects for the children
-    while (iterator.hasNext()) {
-      DBObject parentItem = iterator.next();
-      String localFieldValue = (String) parentItem.get(localField);
-      if (localFieldValue == null || "".equals(localField.trim())) {
-        LOG.warn("Ignoring blank or null local field value");
+  /**
+   * @return true if an index on the field, or starting with the field, is found.
+   */
+  private static boolean hasIndex(FongoDBCollection coll, String field) {
+    for (IndexAbstract index : coll.getIndexes()) {
+      if (index.isGeoIndex()) {
+        continue;
       }
-      else {
-        List<DBObject> childItems = (List<DBObject>) parentItem.get(as);
-        if (childItems == null) {
-          childItems = new ArrayList<DBObject>();
-          parentItem.put(as, childItems);
-        }
-        parentMap.put(localFieldValue, parentItem);
+      final Set<String> fields = index.getFields();
+      if (fields.equals(Collections.singleton(field)) || (index.isPrefixUsable() && field.equals(fields.iterator().next()))) {
+        return true;
       }
     }
-    // now loop through the children item and add them to the parent
-    DBCollection childColl = parentColl.getDB().getCollection(from);
-    DBCursor childItems = childColl.find();
-    Iterator<DBObject> childIterator = childItems.iterator();
-    while (childIterator.hasNext()) {
-      DBObject childItem = childIterator.next();
-      String parentOid = (String) childItem.get(foreignField);
-      if (parentOid == null) {
-        LOG.warn("Ignoring null parent id");
+    return false;
+  }
+
+  /**
+   * @return the condition of a query for the value : the value, or an $eq when the value would be read as an operator.
+   */
+  private static Object equalTo(Object value) {
+    if (value instanceof Pattern || (ExpressionParser.isDbObject(value) && !(value instanceof List))) {
+      return new BasicDBObject(ExpressionParser.EQ, value);
+    }
+    return value;
+  }
+
+  /**
+   * Hash table of the documents of the collection by the values of the field : a document with an array is found by
+   * the array and by each of its values, a document without the field is found by null.
+   */
+  private Map<Object, List<DBObject>> childrenByKey(FongoDBCollection coll, String field) {
+    final List<String> path = Util.split(field);
+    final Map<Object, List<DBObject>> childrenByKey = new HashMap<Object, List<DBObject>>();
+    for (DBObject child : coll.find().toArray()) {
+      final Set<Object> keys = new HashSet<Object>();
+      final List<Object> values = expressionParser.getEmbeddedValues(path, child);
+      if (values.isEmpty()) {
+        keys.add(null);
       }
-      else {
-        DBObject parent = parentMap.get(parentOid);
-        if (parent == null) {
-          LOG.warn("Ignoring missing parent with id {}", parentOid);
+      for (Object value : values) {
+        keys.add(Util.hashKey(value));
+        if (value instanceof List) {
+          for (Object element : (List) value) {
+            keys.add(Util.hashKey(element));
+          }
         }
-        else {
-          LOG.debug("Adding child with id {} to parent wth id {}", childItem.get(ID), parentOid);
-          List<DBObject> childObjects = (List<DBObject>) parent.get(as);
-          Assert.assertNotNull("Unexpected null value", childObjects);
-          childObjects.add(childItem);
+      }
+      for (Object key : keys) {
+        List<DBObject> children = childrenByKey.get(key);
+        if (children == null) {
+          children = new ArrayList<DBObject>();
+          childrenByKey.put(key, children);
         }
+        children.add(child);
       }
     }
-    List<DBObject> retval = new ArrayList<DBObject>();
-    retval.addAll(parentMap.values());
-    return retval;
+    return childrenByKey;
   }
 }
@@ -1,11 +1,11 @@
 package com.github.fakemongo.impl.aggregation;
 
 import com.github.fakemongo.impl.ExpressionParser;
-import com.mongodb.DB;
-import com.mongodb.DBCollection;
+import com.github.fakemongo.impl.Filter;
 import com.mongodb.DBObject;
+import com.mongodb.FongoDBCollection;
 import com.mongodb.annotations.ThreadSafe;
-import java.util.List;
+import java.util.Iterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,13 +26,27 @@ public class Match extends PipelineKeyword {
    * {@see http://docs.mongodb.org/manual/reference/aggregation/match/#pipe._S_match}
    */
   @Override
-  public DBCollection apply(DB originalDB, DBCollection coll, DBObject object) {
+  public Iterator<DBObject> apply(FongoDBCollection coll, final Iterator<DBObject> objects, DBObject object) {
     LOG.debug("computeResult() match : {}", object);
 
-    List<DBObject> objects = coll.find(ExpressionParser.toDbObject(object.get(getKeyword()))).toArray();
-    coll = dropAndInsert(coll, objects);
-    LOG.debug("computeResult() match : {}, result : {}", object, objects);
-    return coll;
+    final Filter filter = coll.buildFilter(coll.filterLists(ExpressionParser.toDbObject(object.get(getKeyword()))));
+    return new DocumentIterator() {
+      @Override
+      protected DBObject computeNext() {
+        while (objects.hasNext()) {
+          final DBObject candidate = objects.next();
+          if (filter.apply(candidate)) {
+            return candidate;
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  @Override
+  public boolean isPartitionable() {
+    return true;
   }
 
   @Override
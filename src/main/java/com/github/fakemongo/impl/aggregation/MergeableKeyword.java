@@ -0,0 +1,24 @@
+package com.github.fakemongo.impl.aggregation;
+
+import com.mongodb.DBObject;
+import com.mongodb.FongoDBCollection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A keyword applying on parts of the documents with {@link #applyPart}, in parallel, then merging the results of the
+ * parts with {@link #merge} : the result is the one of {@link PipelineKeyword#apply} on all the documents.
+ */
+public interface MergeableKeyword {
+
+  /**
+   * @return the partial result of the keyword for a part of the documents.
+   */
+  Object applyPart(FongoDBCollection coll, Iterator<DBObject> objects, DBObject object);
+
+  /**
+   * @param parts partial results of {@link #applyPart}, in the order of the documents.
+   * @return the documents for the next stage, like {@link PipelineKeyword#apply}.
+   */
+  Iterator<DBObject> merge(FongoDBCollection coll, List<Object> parts, DBObject object);
+}
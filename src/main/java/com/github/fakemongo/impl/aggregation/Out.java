@@ -1,9 +1,10 @@
 package com.github.fakemongo.impl.aggregation;
 
 import com.mongodb.BasicDBObject;
-import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import com.mongodb.FongoDBCollection;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -15,13 +16,13 @@ public class Out extends PipelineKeyword {
   public static final Out INSTANCE = new Out();
 
   @Override
-  public DBCollection apply(DB originalDB, DBCollection coll, DBObject object) {
-    final List<DBObject> objects = coll.find().toArray();
-    DBCollection newCollection = originalDB.getCollection(object.get(getKeyword()).toString());
+  public Iterator<DBObject> apply(FongoDBCollection coll, Iterator<DBObject> objects, DBObject object) {
+    final List<DBObject> list = toList(objects);
+    DBCollection newCollection = coll.getDB().getCollection(object.get(getKeyword()).toString());
     // By default, remove all in the collection without dropping indexes.
     newCollection.remove(new BasicDBObject());
-    newCollection.insert(objects);
-    return coll;
+    newCollection.insert(list);
+    return list.iterator();
   }
 
   @Override
@@ -1,60 +1,57 @@
 package com.github.fakemongo.impl.aggregation;
 
-import com.github.fakemongo.Fongo;
-import com.mongodb.BasicDBObject;
-import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.FongoDB;
+import com.mongodb.FongoDBCollection;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * User: william Date: 24/07/13
  */
 public abstract class PipelineKeyword {
 
-  protected static final FongoDB fongo = new Fongo("aggregation_pipeline").getDB("pipeline");
-
-
   /**
-   * Apply the keyword on the collection
+   * Apply the keyword on the documents of the pipeline. The documents are copies, the keyword can modify them.
    *
-   * @param originalDB original DB from collection.
-   * @param coll       collection to be processed (will be destroyed).
-   * @param object     parameters for keyword.
-   * @return a new collection in result.
+   * @param coll    aggregated collection (for the database and the queries).
+   * @param objects documents from the previous stage, read once.
+   * @param object  parameters for keyword.
+   * @return the documents for the next stage, read by the next stage when it needs them.
    */
-  public abstract DBCollection apply(DB originalDB, DBCollection coll, DBObject object);
+  public abstract Iterator<DBObject> apply(FongoDBCollection coll, Iterator<DBObject> objects, DBObject object);
 
   /**
    * Return the keyword in the pipeline (like $sort, $group...).
    */
   public abstract String getKeyword();
 
-  /**
-   * Drop collection and create new one with objects.
-   *
-   * @param coll
-   * @param objects
-   * @return the new collection.
-   */
-  protected DBCollection dropAndInsert(DBCollection coll, List<DBObject> objects) {
-    coll.drop();
-    return createAndInsert(objects);
-  }
-
   static void errorResult(DBCollection coll, int code, String err) {
     ((FongoDB) coll.getDB()).notOkErrorResult(code, err).throwOnError();
   }
 
-  protected DBCollection createAndInsert(List<DBObject> objects) {
-    DBCollection coll = fongo.doGetCollection(UUID.randomUUID().toString(), true);
-    coll.insert(objects);
-    return coll;
+  /**
+   * Read all the documents, for the stages needing all of them ($sort, $group...).
+   */
+  protected static List<DBObject> toList(Iterator<DBObject> objects) {
+    final List<DBObject> list = new ArrayList<DBObject>();
+    while (objects.hasNext()) {
+      list.add(objects.next());
+    }
+    return list;
   }
 
   public boolean canApply(DBObject object) {
     return object.containsField(getKeyword());
   }
+
+  /**
+   * @return true if the keyword works on each document alone : the documents can be split in parts applied in
+   * parallel, the results of the parts being read one after the other.
+   */
+  public boolean isPartitionable() {
+    return false;
+  }
 }
@@ -3,7 +3,6 @@ package com.github.fakemongo.impl.aggregation;
 import com.github.fakemongo.impl.ExpressionParser;
 import com.github.fakemongo.impl.Util;
 import com.mongodb.BasicDBObject;
-import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.FongoDB;
@@ -16,6 +15,7 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -24,7 +24,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * TODO : { project : { _id : 0} } must remove the _id field. If a $sort exist after...
+ * {@see http://docs.mongodb.org/manual/reference/aggregation/project/}
+ * <p/>
+ * Each document is reshaped alone : the fields kept, renamed or computed by the operators ($concat, $substr...).
  */
 @ThreadSafe
 public class Project extends PipelineKeyword {
@@ -687,14 +689,14 @@ public class Project extends PipelineKeyword {
    * Simple {@see http://docs.mongodb.org/manual/reference/aggregation/project/#pipe._S_project}
    */
   @Override
-  public DBCollection apply(DB originalDB, DBCollection coll, DBObject object) {
+  public Iterator<DBObject> apply(FongoDBCollection coll, final Iterator<DBObject> objects, DBObject object) {
     LOG.debug("project() : {}", object);
 
     DBObject project = ExpressionParser.toDbObject(object.get(getKeyword()));
-    DBObject projectResult = Util.clone(project);
+    final DBObject projectResult = Util.clone(project);
 
     // Extract fields who will be renamed.
-    Map<String, List<ProjectedAbstract>> projectedFields = new HashMap<String, List<ProjectedAbstract>>();
+    final Map<String, List<ProjectedAbstract>> projectedFields = new HashMap<String, List<ProjectedAbstract>>();
     for (Map.Entry<String, Object> entry : Util.entrySet(project)) {
       if (entry.getValue() != null) {
         ProjectedAbstract.createMapping(coll, projectResult, projectedFields, entry.getKey(), entry.getValue(), "", ProjectedRename.newInstance(entry.getKey(), coll, null));
@@ -702,36 +704,52 @@ public class Project extends PipelineKeyword {
     }
 
     LOG.debug("project() of {} renamed {}", projectResult, projectedFields);
-    List<DBObject> objects = coll.find(null, projectResult).toArray();
-
-    // Rename or transform fields
-    List<DBObject> objectsResults = new ArrayList<DBObject>(objects.size());
-    for (DBObject result : objects) {
-      DBObject renamed = new BasicDBObject(FongoDBCollection.ID_FIELD_NAME, result.get(FongoDBCollection.ID_FIELD_NAME));
-      for (Map.Entry<String, List<ProjectedAbstract>> entry : projectedFields.entrySet()) {
-        if (Util.containsField(result, entry.getKey())) {
-          for (ProjectedAbstract projected : entry.getValue()) {
-            projected.unapply(renamed, result, entry.getKey());
+    return new DocumentIterator() {
+      @Override
+      protected DBObject computeNext() {
+        while (objects.hasNext()) {
+          // Like find(null, projectResult).
+          DBObject result = Util.isDBObjectEmpty(projectResult) ? objects.next() : FongoDBCollection.applyProjections(objects.next(), projectResult);
+          if (result != null) {
+            return project(result, projectedFields);
           }
         }
+        return null;
       }
+    };
+  }
 
-      // TODO REFACTOR
-      // Handle special case like ifNull who can doesn't have field in list.
-      for (List<ProjectedAbstract> projecteds : projectedFields.values()) {
-        for (ProjectedAbstract projected : projecteds) {
-//        if (!projected.isDone() && (projected.keyword.recallIfNotFound)) {
-          projected.unapply(renamed, result, null);
-//        }
-//        projected.setDone(false);
+  // Rename or transform fields
+  private static DBObject project(DBObject result, Map<String, List<ProjectedAbstract>> projectedFields) {
+    DBObject renamed = new BasicDBObject();
+    if (result.containsField(FongoDBCollection.ID_FIELD_NAME)) {
+      renamed.put(FongoDBCollection.ID_FIELD_NAME, result.get(FongoDBCollection.ID_FIELD_NAME));
+    }
+    for (Map.Entry<String, List<ProjectedAbstract>> entry : projectedFields.entrySet()) {
+      if (Util.containsField(result, entry.getKey())) {
+        for (ProjectedAbstract projected : entry.getValue()) {
+          projected.unapply(renamed, result, entry.getKey());
         }
       }
+    }
 
-      objectsResults.add(renamed);
+    // TODO REFACTOR
+    // Handle special case like ifNull who can doesn't have field in list.
+    for (List<ProjectedAbstract> projecteds : projectedFields.values()) {
+      for (ProjectedAbstract projected : projecteds) {
+//      if (!projected.isDone() && (projected.keyword.recallIfNotFound)) {
+        projected.unapply(renamed, result, null);
+//      }
+//      projected.setDone(false);
+      }
     }
-    coll = dropAndInsert(coll, objectsResults);
-    LOG.debug("project() : {}, result : {}", object, objects);
-    return coll;
+
+    return renamed;
+  }
+
+  @Override
+  public boolean isPartitionable() {
+    return true;
   }
 
   @Override
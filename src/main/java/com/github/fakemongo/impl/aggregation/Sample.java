@@ -1,11 +1,11 @@
 package com.github.fakemongo.impl.aggregation;
 
-import com.mongodb.DB;
-import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import com.mongodb.FongoDBCollection;
 import com.mongodb.annotations.ThreadSafe;
 
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Random;
@@ -36,25 +36,25 @@ public class Sample extends PipelineKeyword {
   /**
    */
   @Override
-  public DBCollection apply(DB originalDB, DBCollection coll, DBObject object) {
+  public Iterator<DBObject> apply(FongoDBCollection coll, Iterator<DBObject> objects, DBObject object) {
     DBObject dbObject = (DBObject) object.get(getKeyword());
     int size = ((Number) dbObject.get("size")).intValue();
 
-    List<DBObject> objects = new ArrayList<DBObject>(size);
-    int count = (int) coll.count();
+    List<DBObject> collAsArray = toList(objects);
+    int count = collAsArray.size();
     if (count <= size) {  // no need to sample, collection has less elements than we want to sample
-      return coll;
+      return collAsArray.iterator();
     }
 
+    List<DBObject> sampled = new ArrayList<DBObject>(size);
     if (count != 0) {
       Set<Integer> samples = randomSample(count - 1, size);
-      List<DBObject> collAsArray = coll.find().toArray();
       for (Integer sample : samples) {
-        objects.add(collAsArray.get(sample));
+        sampled.add(collAsArray.get(sample));
       }
     }
 
-    return dropAndInsert(coll, objects);
+    return sampled.iterator();
   }
 
   @Override
@@ -1,10 +1,9 @@
 package com.github.fakemongo.impl.aggregation;
 
-import com.mongodb.DB;
-import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import com.mongodb.FongoDBCollection;
 import com.mongodb.annotations.ThreadSafe;
-import java.util.List;
+import java.util.Iterator;
 
 /**
  * User: william
@@ -20,9 +19,19 @@ public class Skip extends PipelineKeyword {
   /**
    */
   @Override
-  public DBCollection apply(DB originalDB, DBCollection coll, DBObject object) {
-    List<DBObject> objects = coll.find().skip(((Number) object.get(getKeyword())).intValue()).toArray();
-    return dropAndInsert(coll, objects);
+  public Iterator<DBObject> apply(FongoDBCollection coll, final Iterator<DBObject> objects, DBObject object) {
+    final int skip = ((Number) object.get(getKeyword())).intValue();
+    return new DocumentIterator() {
+      private int skipped = 0;
+
+      @Override
+      protected DBObject computeNext() {
+        for (; skipped < skip && objects.hasNext(); skipped++) {
+          objects.next();
+        }
+        return objects.hasNext() ? objects.next() : null;
+      }
+    };
   }
 
   @Override
@@ -1,28 +1,91 @@
 package com.github.fakemongo.impl.aggregation;
 
 import com.github.fakemongo.impl.ExpressionParser;
-import com.mongodb.DB;
-import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import com.mongodb.FongoDBCollection;
 import com.mongodb.annotations.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 /**
  *
  */
 @ThreadSafe
-public class Sort extends PipelineKeyword {
+public class Sort extends PipelineKeyword implements MergeableKeyword {
   public static final Sort INSTANCE = new Sort();
 
   private Sort() {
   }
 
   /**
+   * A $sort followed by a $limit is given as one stage holding both ("$sort" and "$limit") : only the first objects are
+   * kept while sorting.
    */
   @Override
-  public DBCollection apply(DB originalDB, DBCollection coll, DBObject object) {
-    final List<DBObject> objects = coll.find().sort(ExpressionParser.toDbObject(object.get(getKeyword()))).toArray();
-    return dropAndInsert(coll, objects);
+  public Iterator<DBObject> apply(FongoDBCollection coll, Iterator<DBObject> objects, DBObject object) {
+    final DBObject orderby = ExpressionParser.toDbObject(object.get(getKeyword()));
+    if (object.containsField(Limit.INSTANCE.getKeyword())) {
+      final int limit = ((Number) object.get(Limit.INSTANCE.getKeyword())).intValue();
+      return coll.topObjects(orderby, toList(objects), ExpressionParser.AllFilter, limit).iterator();
+    }
+    // Sorted like find().sort().
+    return coll.sortObjects(orderby, toList(objects)).iterator();
+  }
+
+  /**
+   * @return the sorted documents of the part.
+   */
+  @Override
+  public Object applyPart(FongoDBCollection coll, Iterator<DBObject> objects, DBObject object) {
+    return toList(apply(coll, objects, object));
+  }
+
+  /**
+   * Merge the sorted parts : the next document is the first of the heads of the parts.
+   */
+  @Override
+  public Iterator<DBObject> merge(FongoDBCollection coll, List<Object> parts, DBObject object) {
+    final Comparator<DBObject> comparator = coll.sortComparator(ExpressionParser.toDbObject(object.get(getKeyword())));
+    final int limit = object.containsField(Limit.INSTANCE.getKeyword()) ? ((Number) object.get(Limit.INSTANCE.getKeyword())).intValue() : Integer.MAX_VALUE;
+    final List<List<DBObject>> sortedParts = new ArrayList<List<DBObject>>(parts.size());
+    for (Object part : parts) {
+      //noinspection unchecked
+      sortedParts.add((List<DBObject>) part);
+    }
+    final int[] positions = new int[sortedParts.size()];
+    // Equal documents are read in the order of the parts, like a stable sort.
+    final PriorityQueue<Integer> heads = new PriorityQueue<Integer>(sortedParts.size() + 1, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer part1, Integer part2) {
+        final int compareValue = comparator.compare(sortedParts.get(part1).get(positions[part1]), sortedParts.get(part2).get(positions[part2]));
+        return compareValue != 0 ? compareValue : part1.compareTo(part2);
+      }
+    });
+    for (int part = 0; part < sortedParts.size(); part++) {
+      if (!sortedParts.get(part).isEmpty()) {
+        heads.add(part);
+      }
+    }
+    return new DocumentIterator() {
+      private int count = 0;
+
+      @Override
+      protected DBObject computeNext() {
+        if (count >= limit || heads.isEmpty()) {
+          return null;
+        }
+        final int part = heads.poll();
+        final DBObject result = sortedParts.get(part).get(positions[part]++);
+        if (positions[part] < sortedParts.get(part).size()) {
+          heads.add(part);
+        }
+        count++;
+        return result;
+      }
+    };
   }
 
   @Override
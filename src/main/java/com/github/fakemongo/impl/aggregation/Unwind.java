@@ -2,13 +2,12 @@ package com.github.fakemongo.impl.aggregation;
 
 import com.github.fakemongo.impl.Util;
 import com.mongodb.BasicDBList;
-import com.mongodb.DB;
-import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import com.mongodb.FongoDBCollection;
 import com.mongodb.MongoException;
 import com.mongodb.annotations.ThreadSafe;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.Iterator;
 
 /**
  *
@@ -33,38 +32,51 @@ public class Unwind extends PipelineKeyword {
    * </pre>
    *
    * @param coll
+   * @param objects
    * @param object
    * @return
    */
   @Override
-  public DBCollection apply(DB originalDB, DBCollection coll, DBObject object) {
-    String fieldName = object.get(getKeyword()).toString();
-    if (!fieldName.startsWith("$")) {
+  public Iterator<DBObject> apply(FongoDBCollection coll, final Iterator<DBObject> objects, DBObject object) {
+    String name = object.get(getKeyword()).toString();
+    if (!name.startsWith("$")) {
       throw new MongoException(""); // TODO
     }
-    fieldName = fieldName.substring(1);
+    final String fieldName = name.substring(1);
 
-    List<DBObject> result = new ArrayList<DBObject>();
-    for (DBObject dbObject : coll.find().toArray()) {
-      if (Util.containsField(dbObject, fieldName)) {
-        Object oValue = Util.extractField(dbObject, fieldName);
-        if (!(oValue instanceof BasicDBList)) {
-//          throw fongoDB..errorResult(15978, "$unwind:  value at end of field path must be an array").getException;
-//          throw new MongoException(15978, "exception: $unwind:  value at end of field path must be an array");
-          DBObject newValue = Util.clone(dbObject);
-          result.add(newValue);
-        } else {
-          BasicDBList list = (BasicDBList) oValue;
-          for (Object sublist : list) {
-            DBObject newValue = Util.clone(dbObject);
-            Util.putValue(newValue, fieldName, sublist);
-//          newValue.removeField("_id"); // TODO _id must be the same (but Fongo doesn't handle)
-            result.add(newValue);
+    return new DocumentIterator() {
+      // Elements of the array being unwound.
+      private DBObject dbObject;
+      private Iterator<Object> elements = Collections.emptyList().iterator();
+
+      @Override
+      protected DBObject computeNext() {
+        while (!elements.hasNext()) {
+          if (!objects.hasNext()) {
+            return null;
+          }
+          dbObject = objects.next();
+          if (Util.containsField(dbObject, fieldName)) {
+            Object oValue = Util.extractField(dbObject, fieldName);
+            if (!(oValue instanceof BasicDBList)) {
+//              throw fongoDB..errorResult(15978, "$unwind:  value at end of field path must be an array").getException;
+//              throw new MongoException(15978, "exception: $unwind:  value at end of field path must be an array");
+              return dbObject;
+            }
+            elements = ((BasicDBList) oValue).iterator();
           }
         }
+        DBObject newValue = Util.clone(dbObject);
+        Util.putValue(newValue, fieldName, elements.next());
+//        newValue.removeField("_id"); // TODO _id must be the same (but Fongo doesn't handle)
+        return newValue;
       }
-    }
-    return dropAndInsert(coll, result);
+    };
+  }
+
+  @Override
+  public boolean isPartitionable() {
+    return true;
   }
 
   @Override
@@ -5,7 +5,6 @@ import com.github.fakemongo.impl.Util;
 import com.github.fakemongo.impl.geo.GeoUtil;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
-import com.mongodb.FongoDBCollection;
 import com.vividsolutions.jts.geom.Geometry;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -44,8 +43,13 @@ public class GeoIndex extends IndexAbstract<GeoUtil.GeoDBObject> {
     return new GeoUtil.GeoDBObject(object, geoIndex); // Important : do not clone, indexes share objects between them.
   }
 
+  @Override
+  public boolean isSharingObjects() {
+    return false;
+  }
+
   public List<DBObject> geoNear(DBObject query, Geometry geometry, int limit, boolean spherical) {
-    lookupCount++;
+    lookupCount.incrementAndGet();
 
     LOG.info("geoNear() query:{}, geometry:{}, limit:{}, spherical:{} (mapValues size:{})", query, geometry, limit, spherical, mapValues.size());
     // Filter values
@@ -90,7 +94,6 @@ public class GeoIndex extends IndexAbstract<GeoUtil.GeoDBObject> {
       // Test against the query filter.
       if (geoDBObject.getGeometry() != null && filterValue.apply(geoDBObject)) {
         double radians = GeoUtil.distanceInRadians(geoDBObject.getGeometry(), near, spherical);
-        geoDBObject.removeField(FongoDBCollection.FONGO_SPECIAL_ORDER_BY);
         result.add(new BasicDBObject("dis", radians).append("obj", Util.clone(geoDBObject)));
       }
     }
@@ -1,31 +1,68 @@
 package com.github.fakemongo.impl.index;
 
+import com.github.fakemongo.impl.EncodedDBObject;
+import com.github.fakemongo.impl.ExpressionParser;
+import com.github.fakemongo.impl.Filter;
+import com.github.fakemongo.impl.Util;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 import com.mongodb.MongoException;
+import com.mongodb.QueryOperators;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import org.bson.types.BSONTimestamp;
+import org.bson.types.Binary;
+import org.bson.types.MaxKey;
+import org.bson.types.MinKey;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * An index for the MongoDB.
+ * An index for the MongoDB : the objects are stored by the 64 bits hash of the value of the field, like the
+ * BSONElementHasher of mongod (md5 of the canonical type and of the value, numbers squashed to a long).
+ * An equality is a lookup of the bucket of the hash, the objects must be checked after.
  */
 public class HashedIndex extends IndexAbstract<DBObject> {
   private static final Logger LOG = LoggerFactory.getLogger(HashedIndex.class);
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  // A digest by thread : MessageDigest.getInstance looks up the security providers for each call.
+  private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance("MD5");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  };
 
   HashedIndex(String name, DBObject keys, boolean unique, String hashed) {
     super(name, keys, unique, new LinkedHashMap<DBObject, IndexedList<DBObject>>(), hashed);
   }
 
   /**
-   * Create the key for the hashmap.
+   * Create the key for the hashmap : the hash of the value of the field.
    *
    * @param object
    * @return
    */
   @Override
   protected DBObject getKeyFor(DBObject object) {
-    return object;
+    return new BasicDBObject(geoIndex, hash64(keyValue(object, geoIndex)));
   }
 
   @Override
@@ -40,4 +77,274 @@ public class HashedIndex extends IndexAbstract<DBObject> {
     }
     return super.addOrUpdate(object, oldObject);
   }
-}
\ No newline at end of file
+
+  /**
+   * The entry of a hash holds the objects of all the values of this hash (1 and 1.5) : compare the values.
+   */
+  @Override
+  boolean containsSameKey(IndexedList<DBObject> values, DBObject object, DBObject oldObject) {
+    if (values == null) {
+      return false;
+    }
+    final Object key = Util.hashKey(keyValue(object, geoIndex));
+    for (DBObject other : values) {
+      final Object otherKey = Util.hashKey(keyValue(other, geoIndex));
+      if (other != oldObject && (key == null ? otherKey == null : key.equals(otherKey))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Collection<DBObject> retrieveObjects(DBObject query) {
+    lookupCount.incrementAndGet();
+
+    final Filter filter = expressionParser.buildFilter(query);
+    final Collection<?> values = equalityValues(query.get(geoIndex));
+    final List<DBObject> result = new ArrayList<DBObject>();
+    if (values == null) {
+      // The order of the values is lost.
+      for (IndexedList<DBObject> objects : mapValues.values()) {
+        for (DBObject object : objects) {
+          if (filter.apply(EncodedDBObject.view(object))) {
+            result.add(object); // DO NOT CLONE ! need for update.
+          }
+        }
+      }
+      return result;
+    }
+
+    // Different values may have the same hash (1 and 1.5).
+    final Set<DBObject> seen = Collections.newSetFromMap(new IdentityHashMap<DBObject, Boolean>());
+    final Set<DBObject> keys = new LinkedHashSet<DBObject>();
+    for (Object value : values) {
+      keys.add(new BasicDBObject(geoIndex, hash64(value)));
+    }
+    for (DBObject key : keys) {
+      final IndexedList<DBObject> objects = mapValues.get(key);
+      if (objects != null) {
+        for (DBObject object : objects) {
+          if (seen.add(object) && filter.apply(EncodedDBObject.view(object))) {
+            result.add(object); // DO NOT CLONE ! need for update.
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public List<DBObject> get(DBObject query) {
+    if (!isUnique()) {
+      throw new IllegalStateException("get is only for unique index");
+    }
+    lookupCount.incrementAndGet();
+
+    final IndexedList<DBObject> objects = mapValues.get(getKeyFor(query));
+    if (objects == null) {
+      return null;
+    }
+    // Check the value, not the hash.
+    final Filter filter = expressionParser.buildFilter(query);
+    final List<DBObject> result = new ArrayList<DBObject>();
+    for (DBObject object : objects) {
+      if (filter.apply(EncodedDBObject.view(object))) {
+        result.add(object);
+      }
+    }
+    return result.isEmpty() ? null : result;
+  }
+
+  @Override
+  public double estimateScanned(DBObject query) {
+    final Collection<?> values = equalityValues(query.get(geoIndex));
+    if (values == null || mapValues.isEmpty()) {
+      return size();
+    }
+    return Math.min(size(), Math.ceil((double) values.size() * size() / mapValues.size()));
+  }
+
+  @Override
+  public boolean canCover(DBObject query, DBObject projection) {
+    return false;
+  }
+
+  /**
+   * @return the values compared by equality (value or $in), null if the hash can't be used.
+   */
+  private static Collection<?> equalityValues(Object expression) {
+    if (expression == null || expression instanceof Pattern || expression instanceof List) {
+      return null;
+    }
+    if (!ExpressionParser.isDbObject(expression)) {
+      return Collections.singletonList(expression);
+    }
+    final DBObject operators = ExpressionParser.toDbObject(expression);
+    if (operators.keySet().size() != 1) {
+      return null;
+    }
+    final Object value;
+    if (operators.containsField(ExpressionParser.EQ)) {
+      value = operators.get(ExpressionParser.EQ);
+      return value == null || value instanceof Pattern || ExpressionParser.isDbObject(value) ? null : Collections.singletonList(value);
+    }
+    value = operators.get(QueryOperators.IN);
+    if (!(value instanceof Collection)) {
+      return null;
+    }
+    for (Object inValue : (Collection<?>) value) {
+      if (inValue == null || inValue instanceof Pattern || ExpressionParser.isDbObject(inValue)) {
+        return null;
+      }
+    }
+    return (Collection<?>) value;
+  }
+
+  /**
+   * 64 bits hash of a value : first 8 bytes (little endian) of the md5 of the seed (0), the canonical type and the
+   * value.
+   */
+  static long hash64(Object value) {
+    final MessageDigest md5 = MD5.get();
+    // Reset after a value which failed to hash.
+    md5.reset();
+    addInt(md5, 0);
+    addElement(md5, null, value);
+    final byte[] digest = md5.digest();
+    long hash = 0;
+    for (int i = 7; i >= 0; i--) {
+      hash = (hash << 8) | (digest[i] & 0xFF);
+    }
+    return hash;
+  }
+
+  /**
+   * Canonical type, name of the field (only in a document or an array), then the value.
+   */
+  private static void addElement(MessageDigest md5, String field, Object value) {
+    addInt(md5, canonicalType(value));
+    if (field != null) {
+      addCString(md5, field);
+    }
+    if (value == null || value instanceof MinKey || value instanceof MaxKey) {
+      return;
+    }
+    if (value instanceof Number) {
+      // Squashed to a long : 1 and 1.0 have the same hash.
+      addLong(md5, ((Number) value).longValue());
+    } else if (value instanceof String) {
+      addString(md5, (String) value);
+    } else if (value instanceof byte[]) {
+      addBinary(md5, (byte) 0, (byte[]) value);
+    } else if (value instanceof Binary) {
+      addBinary(md5, ((Binary) value).getType(), ((Binary) value).getData());
+    } else if (value instanceof UUID) {
+      // Legacy java representation.
+      final byte[] data = new byte[16];
+      putLong(data, 0, ((UUID) value).getMostSignificantBits());
+      putLong(data, 8, ((UUID) value).getLeastSignificantBits());
+      addBinary(md5, (byte) 3, data);
+    } else if (value instanceof List || value.getClass().isArray()) {
+      int i = 0;
+      for (Object element : Util.toCollection(value)) {
+        addElement(md5, String.valueOf(i++), element);
+      }
+      addEndOfObject(md5);
+    } else if (ExpressionParser.isDbObject(value)) {
+      final DBObject dbObject = ExpressionParser.toDbObject(value);
+      for (String key : dbObject.keySet()) {
+        addElement(md5, key, dbObject.get(key));
+      }
+      addEndOfObject(md5);
+    } else if (value instanceof ObjectId) {
+      md5.update(((ObjectId) value).toByteArray());
+    } else if (value instanceof Boolean) {
+      md5.update((byte) ((Boolean) value ? 1 : 0));
+    } else if (value instanceof Date) {
+      addLong(md5, ((Date) value).getTime());
+    } else if (value instanceof BSONTimestamp) {
+      addInt(md5, ((BSONTimestamp) value).getInc());
+      addInt(md5, ((BSONTimestamp) value).getTime());
+    } else if (value instanceof Pattern) {
+      addCString(md5, ((Pattern) value).pattern());
+      addCString(md5, "");
+    } else {
+      LOG.debug("hash64() unknown type {}, hashed as a string", value.getClass());
+      addString(md5, value.toString());
+    }
+  }
+
+  private static int canonicalType(Object value) {
+    if (value == null) {
+      return 5;
+    } else if (value instanceof Number) {
+      return 10;
+    } else if (value instanceof byte[] || value instanceof Binary || value instanceof UUID) {
+      return 30;
+    } else if (value instanceof List || value.getClass().isArray()) {
+      return 25;
+    } else if (ExpressionParser.isDbObject(value)) {
+      return 20;
+    } else if (value instanceof ObjectId) {
+      return 35;
+    } else if (value instanceof Boolean) {
+      return 40;
+    } else if (value instanceof Date) {
+      return 45;
+    } else if (value instanceof BSONTimestamp) {
+      return 47;
+    } else if (value instanceof Pattern) {
+      return 50;
+    } else if (value instanceof MinKey) {
+      return -1;
+    } else if (value instanceof MaxKey) {
+      return 127;
+    }
+    return 15;
+  }
+
+  // The EOO element closing a document : type 0, empty name.
+  private static void addEndOfObject(MessageDigest md5) {
+    addInt(md5, 0);
+    addCString(md5, "");
+  }
+
+  private static void addBinary(MessageDigest md5, byte type, byte[] data) {
+    addInt(md5, data.length);
+    md5.update(type);
+    md5.update(data);
+  }
+
+  private static void addString(MessageDigest md5, String value) {
+    final byte[] bytes = value.getBytes(UTF8);
+    addInt(md5, bytes.length + 1);
+    md5.update(bytes);
+    md5.update((byte) 0);
+  }
+
+  private static void addCString(MessageDigest md5, String value) {
+    md5.update(value.getBytes(UTF8));
+    md5.update((byte) 0);
+  }
+
+  private static void addInt(MessageDigest md5, int value) {
+    md5.update((byte) value);
+    md5.update((byte) (value >> 8));
+    md5.update((byte) (value >> 16));
+    md5.update((byte) (value >> 24));
+  }
+
+  private static void addLong(MessageDigest md5, long value) {
+    final byte[] bytes = new byte[8];
+    putLong(bytes, 0, value);
+    md5.update(bytes);
+  }
+
+  // Little endian.
+  private static void putLong(byte[] bytes, int offset, long value) {
+    for (int i = 0; i < 8; i++) {
+      bytes[offset + i] = (byte) (value >> (8 * i));
+    }
+  }
+}
@@ -17,7 +17,14 @@ import java.util.TreeMap;
 public class Index extends IndexAbstract<DBObject> {
 
   Index(String name, DBObject keys, boolean unique) {
-    super(name, keys, unique, createMap(keys, unique), null);
+    this(name, keys, unique, createMap(keys, unique));
+  }
+
+  /**
+   * @param mapValues map of the keys to the objects, for a subclass storing its objects elsewhere.
+   */
+  Index(String name, DBObject keys, boolean unique, Map<DBObject, IndexedList<DBObject>> mapValues) {
+    super(name, keys, unique, mapValues, null);
   }
 
   private static Map<DBObject, IndexedList<DBObject>> createMap(DBObject keys, boolean unique) {
@@ -30,6 +37,30 @@ public class Index extends IndexAbstract<DBObject> {
     }
   }
 
+  /**
+   * A non unique index stores all objects with the leading field : a query on a prefix of the fields can use it.
+   */
+  @Override
+  public boolean canIndex(DBObject object) {
+    if (isUnique()) {
+      return canHandle(object) && isSelected(object);
+    }
+    return object != null && hasField(getFields().iterator().next(), object) && isSelected(object);
+  }
+
+  /**
+   * Only the leading field is needed to store an object.
+   */
+  @Override
+  boolean storesMissing(String field) {
+    return !isUnique() && !isSparse() && !field.equals(getFields().iterator().next());
+  }
+
+  @Override
+  public boolean isPrefixUsable() {
+    return !isUnique();
+  }
+
   @Override
   public DBObject embedded(DBObject object) {
     return expandObject(object); // Important : do not clone, indexes share objects between them.
@@ -1,21 +1,36 @@
 package com.github.fakemongo.impl.index;
 
+import com.github.fakemongo.FongoException;
+import com.github.fakemongo.impl.EncodedDBObject;
 import com.github.fakemongo.impl.ExpressionParser;
 import com.github.fakemongo.impl.Filter;
 import com.github.fakemongo.impl.Util;
 import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 import com.mongodb.FongoDBCollection;
 import static com.mongodb.FongoDBCollection.ID_FIELD_NAME;
 import com.mongodb.MongoException;
 import com.mongodb.QueryOperators;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import org.bson.types.Binary;
+import org.bson.types.MaxKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * An index for the MongoDB.
@@ -23,21 +38,49 @@ import org.bson.types.Binary;
  * NOT Thread Safe. The ThreadSafety must be done by the caller.
  */
 public abstract class IndexAbstract<T extends DBObject> {
+  private static final Logger LOG = LoggerFactory.getLogger(IndexAbstract.class);
+  // Greater than any field name in a key.
+  private static final String AFTER_ALL_FIELDS = "\uffff";
+  // Limit the number of intervals built from the combinations of $in.
+  private static final int MAX_INTERVALS = 1000;
+
   final String geoIndex;
   final ExpressionParser expressionParser = new ExpressionParser();
+  private final ExpressionParser.ObjectComparator objectComparator = expressionParser.buildObjectComparator(true);
   // Contains all dbObject than field value can have
   final Map<T, IndexedList<T>> mapValues;
   private final String name;
   private final DBObject keys;
   private final Set<String> fields;
   private final boolean unique;
-  int lookupCount = 0;
+  private final boolean asc;
+  // True when a key of the index has been built from an array : there is one entry by element of the array.
+  boolean multiKey = false;
+  // Fields with an array in at least one object.
+  private final Set<String> multiKeyFields = new HashSet<String>();
+  // True when an array can't be split into entries (parallel arrays, arrays of documents) : the order of the map doesn't
+  // match the query anymore.
+  private boolean unseekable = false;
+  // True when a key misses a field (or holds null) : the keys are compared on the field names, not like a sort.
+  private boolean missingFields = false;
+  // Incremented by the concurrent reads.
+  final AtomicInteger lookupCount = new AtomicInteger();
+  // Keys read by the lookups : less than the keys of the index when the lookup seeks a range.
+  private final AtomicInteger scannedKeyCount = new AtomicInteger();
+  // Number of objects in the index, statistics for the planner.
+  private int documentCount = 0;
+  // Options of a sparse or partial index : the objects not selected are never stored.
+  private boolean sparse = false;
+  private DBObject partialFilterExpression = null;
+  private Filter partialFilter = null;
+  private List<DBObject> partialFilterConditions = Collections.emptyList();
 
   IndexAbstract(String name, DBObject keys, boolean unique, Map<T, IndexedList<T>> mapValues, String geoIndex) throws MongoException {
     this.name = name;
     this.fields = Collections.unmodifiableSet(keys.keySet()); // Setup BEFORE keys.
     this.keys = prepareKeys(keys);
     this.unique = unique;
+    this.asc = isAsc(keys);
     this.mapValues = mapValues;
     this.geoIndex = geoIndex;
 
@@ -113,29 +156,109 @@ public abstract class IndexAbstract<T extends DBObject> {
     }
 
     T key = getKeyFor(object);
+    if (containsList(key)) {
+      multiKey = true;
+      final String arrayField = arrayField(key);
+      if (arrayField == null) {
+        unseekable = true;
+      } else {
+        multiKeyFields.add(arrayField);
+      }
+    }
+    if (!missingFields && !containsAllFields(key)) {
+      missingFields = true;
+    }
+    final List<T> entryKeys = entryKeys(key);
 
     if (unique) {
       // Unique must check if he's really unique.
-      if (mapValues.containsKey(key)) {
-        return extractFields(object, key.keySet());
+      for (T entryKey : entryKeys) {
+        if (containsSameKey(mapValues.get(entryKey), object, null)) {
+          return extractFields(object, key.keySet());
+        }
       }
-      mapValues.put(key, new IndexedList<T>(Collections.singletonList(embedded(object)))); // DO NOT CLONE !
-    } else {
-      // Extract previous values
-      IndexedList<T> values = mapValues.get(key);
-      if (values == null) {
-        // Create if absent.
-        values = new IndexedList<T>(new ArrayList<T>());
-        mapValues.put(key, values);
+      final T toAdd = embedded(object); // DO NOT CLONE !
+      for (T entryKey : entryKeys) {
+        final IndexedList<T> values = mapValues.get(entryKey);
+        if (values == null) {
+          mapValues.put(entryKey, new IndexedList<T>(Collections.singletonList(toAdd)));
+        } else {
+          values.add(toAdd);
+        }
       }
-
+    } else {
       // Add to values.
       T toAdd = embedded(object); // DO NOT CLONE ! Indexes must share the same object.
-      values.add(toAdd);
+      for (T entryKey : entryKeys) {
+        // Extract previous values
+        IndexedList<T> values = mapValues.get(entryKey);
+        if (values == null) {
+          // Create if absent.
+          values = new IndexedList<T>(new ArrayList<T>());
+          mapValues.put(entryKey, values);
+        }
+        values.add(toAdd);
+      }
     }
+    documentCount++;
     return Collections.emptyList();
   }
 
+  /**
+   * Keys of the entries of an object : one by distinct element of its array (multikey), or the key itself.
+   *
+   * @param key key of the object (see {@link #getKeyFor(DBObject)}).
+   */
+  private List<T> entryKeys(T key) {
+    final String arrayField = multiKey ? arrayField(key) : null;
+    if (arrayField == null) {
+      return Collections.singletonList(key);
+    }
+    final List<?> elements = (List<?>) keyValue(key, arrayField);
+    if (elements.isEmpty()) {
+      return Collections.singletonList(key);
+    }
+    final Set<Object> distinctElements = new LinkedHashSet<Object>(elements);
+    final List<T> entryKeys = new ArrayList<T>(distinctElements.size());
+    for (Object element : distinctElements) {
+      final DBObject entryKey = Util.clone(key);
+      Util.putValue(entryKey, arrayField, element);
+      entryKeys.add((T) entryKey);
+    }
+    return entryKeys;
+  }
+
+  /**
+   * @return the field of the key holding an array which can be split into entries, null if there is none.
+   */
+  private String arrayField(T key) {
+    if (!(mapValues instanceof NavigableMap)) {
+      return null;
+    }
+    String arrayField = null;
+    for (String field : fields) {
+      if (keyValue(key, field) instanceof List) {
+        if (arrayField != null || !isArrayAtPath(key, field)) {
+          // Parallel arrays or array of documents.
+          return null;
+        }
+        arrayField = field;
+      }
+    }
+    return arrayField;
+  }
+
+  private static boolean isArrayAtPath(DBObject key, String field) {
+    Object value = key;
+    for (String path : Util.split(field)) {
+      if (value instanceof List || !ExpressionParser.isDbObject(value)) {
+        return false;
+      }
+      value = ExpressionParser.toDbObject(value).get(path);
+    }
+    return value instanceof List;
+  }
+
   public abstract T embedded(DBObject object);
 
   /**
@@ -147,33 +270,120 @@ public abstract class IndexAbstract<T extends DBObject> {
    */
   public List<List<Object>> checkAddOrUpdate(T object, T oldObject) {
     if (unique) {
-      DBObject key = getKeyFor(object);
-      IndexedList<T> objects = mapValues.get(key);
-      if (objects != null && !objects.contains(oldObject)) {
-        List<List<Object>> fieldsForIndex = extractFields(object, getFields());
-        return fieldsForIndex;
+      for (T key : entryKeys(getKeyFor(object))) {
+        if (containsSameKey(mapValues.get(key), object, oldObject)) {
+          List<List<Object>> fieldsForIndex = extractFields(object, getFields());
+          return fieldsForIndex;
+        }
       }
     }
     return Collections.emptyList();
   }
 
+  /**
+   * For a unique index : true if the objects of the entry of "object" hold the key of "object".
+   *
+   * @param values    objects of the entry, null if none.
+   * @param oldObject object replaced by "object", null for an insert.
+   */
+  boolean containsSameKey(IndexedList<T> values, T object, T oldObject) {
+    return values != null && !values.contains(oldObject);
+  }
+
   /**
    * Remove an object from the index.
    *
    * @param object to remove from the index.
    */
   public void remove(T object) {
-    T key = getKeyFor(object);
-    // Extract previous values
-    IndexedList<T> values = mapValues.get(key);
-    if (values != null) {
-      // Last entry ? or uniqueness ?
-      if (values.size() == 1) {
-        mapValues.remove(key);
-      } else {
-        values.remove(object);
+    remove(getKeyFor(object), object);
+  }
+
+  private void remove(T key, T object) {
+    boolean removed = false;
+    for (T entryKey : entryKeys(key)) {
+      // Extract previous values
+      IndexedList<T> values = mapValues.get(entryKey);
+      if (values != null) {
+        // Last entry ? or uniqueness ?
+        final int size = values.size();
+        if (size == 1) {
+          mapValues.remove(entryKey);
+          removed = true;
+        } else {
+          values.remove(object);
+          removed |= size != values.size();
+        }
+      }
+    }
+    if (removed) {
+      documentCount--;
+    }
+  }
+
+  /**
+   * Key of an object before its update in place, see {@link #updateInPlace(DBObject, DBObject)}.
+   *
+   * @param object object of the index.
+   * @return the key of the object, null if the object is not in the index.
+   */
+  public T keyBeforeUpdate(T object) {
+    return canIndex(object) ? getKeyFor(object) : null;
+  }
+
+  /**
+   * Move an object updated in place to its new key. Nothing is done if the key didn't change.
+   * Uniqueness must be checked before the update with {@link #checkAddOrUpdate(DBObject, DBObject)}.
+   *
+   * @param object updated object.
+   * @param oldKey key of the object before the update (from {@link #keyBeforeUpdate(DBObject)}).
+   */
+  public void updateInPlace(T object, T oldKey) {
+    final T key = canIndex(object) ? getKeyFor(object) : null;
+    if (oldKey != null && isSharingObjects() && oldKey.equals(key)) {
+      return;
+    }
+    if (oldKey != null) {
+      remove(oldKey, object);
+    }
+    if (key != null) {
+      addOrUpdate(object, null);
+    }
+  }
+
+  /**
+   * @param paths paths modified by an update.
+   * @return true if one of the paths is a field of the index, a parent or a child of a field.
+   */
+  public boolean isModifiedBy(Collection<String> paths) {
+    if (isModifiedBy(fields, paths)) {
+      return true;
+    }
+    // The object may enter or leave a partial index.
+    for (DBObject condition : partialFilterConditions) {
+      if (isModifiedBy(condition.keySet(), paths)) {
+        return true;
       }
     }
+    return false;
+  }
+
+  private static boolean isModifiedBy(Collection<String> fields, Collection<String> paths) {
+    for (String field : fields) {
+      for (String path : paths) {
+        if (field.equals(path) || field.startsWith(path + ".") || path.startsWith(field + ".")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the index stores the objects themselves (see {@link #embedded(DBObject)}), false for copies.
+   */
+  public boolean isSharingObjects() {
+    return true;
   }
 
   /**
@@ -184,7 +394,7 @@ public abstract class IndexAbstract<T extends DBObject> {
    */
   public List<List<Object>> addAll(Iterable<T> objects) {
     for (T object : objects) {
-      if (canHandle(object)) {
+      if (canIndex(object)) {
         List<List<Object>> nonUnique = addOrUpdate(object, null);
         // TODO(twillouer) : must handle writeConcern.
         if (!nonUnique.isEmpty()) {
@@ -200,7 +410,7 @@ public abstract class IndexAbstract<T extends DBObject> {
     if (!unique) {
       throw new IllegalStateException("get is only for unique index");
     }
-    lookupCount++;
+    lookupCount.incrementAndGet();
 
     T key = getKeyFor(query);
     IndexedList<T> result = mapValues.get(key);
@@ -213,28 +423,30 @@ public abstract class IndexAbstract<T extends DBObject> {
   // @Nonnull
   public Collection<T> retrieveObjects(DBObject query) {
     // Optimization
-    if (unique && query.keySet().size() == 1) {
-      Object key = query.toMap().values().iterator().next();
-      if (!(ExpressionParser.isDbObject(key) || key instanceof Binary || key instanceof byte[])) {
-        List<T> result = get(query);
-        if (result != null) {
-          return result;
-        }
+    if (isUniqueGet(query)) {
+      List<T> result = get(query);
+      if (result != null) {
+        return result;
       }
     }
 
-    lookupCount++;
+    lookupCount.incrementAndGet();
 
-    // Filter for the key.
-    Filter filterKey = expressionParser.buildFilter(query, getFields());
+    // Filter for the key : an entry of a multikey index holds only one element of the array ($all, $size...).
+    Filter filterKey = multiKey ? null : expressionParser.buildFilter(query, getFields());
     // Filter for the data.
     Filter filter = expressionParser.buildFilter(query);
+    // An object is in the entries of each element of its array.
+    Set<T> seen = multiKey ? Collections.newSetFromMap(new IdentityHashMap<T, Boolean>()) : null;
     List<T> result = new ArrayList<T>();
-    for (Map.Entry<T, IndexedList<T>> entry : mapValues.entrySet()) {
-      if (filterKey.apply(entry.getKey())) {
-        for (T object : entry.getValue().getElements()) {
-          if (filter.apply(object)) {
-            result.add(object); // DO NOT CLONE ! need for update.
+    for (Map<T, IndexedList<T>> range : seek(query)) {
+      for (Map.Entry<T, IndexedList<T>> entry : range.entrySet()) {
+        scannedKeyCount.incrementAndGet();
+        if (filterKey == null || filterKey.apply(entry.getKey())) {
+          for (T object : entry.getValue()) {
+            if ((seen == null || seen.add(object)) && filter.apply(EncodedDBObject.view(object))) {
+              result.add(object); // DO NOT CLONE ! need for update.
+            }
           }
         }
       }
@@ -242,32 +454,644 @@ public abstract class IndexAbstract<T extends DBObject> {
     return result;
   }
 
-  public long getLookupCount() {
-    return lookupCount;
+  private boolean isUniqueGet(DBObject query) {
+    if (unique && query.keySet().size() == 1) {
+      Object key = query.toMap().values().iterator().next();
+      return !(ExpressionParser.isDbObject(key) || key instanceof Binary || key instanceof byte[]);
+    }
+    return false;
   }
 
-  public int size() {
-    int size = 0;
-    if (unique) {
-      size = mapValues.size();
+  /**
+   * Return true if the query and the projection only use fields of the index : the results can be built from the keys.
+   *
+   * @param query      query for restriction.
+   * @param projection fields to return.
+   */
+  public boolean canCover(DBObject query, DBObject projection) {
+    if (multiKey || geoIndex != null) {
+      return false;
+    }
+    for (String field : query.keySet()) {
+      if (!fields.contains(field)) {
+        return false;
+      }
+      // Null values are not in the keys.
+      final Object value = query.get(field);
+      if (ExpressionParser.isDbObject(value) && !(value instanceof List)) {
+        final DBObject operators = ExpressionParser.toDbObject(value);
+        if (operators.containsField(QueryOperators.EXISTS) || operators.containsField(ExpressionParser.TYPE)) {
+          return false;
+        }
+      }
+    }
+    boolean included = false;
+    boolean idExcluded = fields.contains(ID_FIELD_NAME);
+    for (String field : projection.keySet()) {
+      final Object value = projection.get(field);
+      final boolean include;
+      if (value instanceof Number) {
+        include = ((Number) value).intValue() > 0;
+      } else if (value instanceof Boolean) {
+        include = (Boolean) value;
+      } else {
+        // $slice, $elemMatch...
+        return false;
+      }
+      if (include) {
+        if (!fields.contains(field)) {
+          return false;
+        }
+        included = true;
+      } else if (ID_FIELD_NAME.equals(field)) {
+        idExcluded = true;
+      } else {
+        return false;
+      }
+    }
+    return included && idExcluded;
+  }
+
+  /**
+   * Results of a query covered by the index (see {@link #canCover(DBObject, DBObject)}), in the order of the index.
+   * The results are projected from the keys, the objects are read only if a key misses a field.
+   *
+   * @param query      query for restriction.
+   * @param projection fields to return.
+   * @param numToSkip  number of results to skip.
+   * @param limit      max number of results.
+   * @return the projected results.
+   */
+  public List<DBObject> retrieveCovered(DBObject query, DBObject projection, int numToSkip, int limit) {
+    lookupCount.incrementAndGet();
+
+    List<Map<T, IndexedList<T>>> ranges = null;
+    if (isUniqueGet(query)) {
+      final T key = getKeyFor(query);
+      final IndexedList<T> objects = mapValues.get(key);
+      if (objects != null) {
+        ranges = Collections.<Map<T, IndexedList<T>>>singletonList(Collections.singletonMap(key, objects));
+      }
+    }
+    if (ranges == null) {
+      ranges = seek(query);
+    }
+
+    final Filter filterKey = expressionParser.buildFilter(query, getFields());
+    final List<DBObject> result = new ArrayList<DBObject>();
+    int seen = 0;
+    int found = 0;
+    for (Map<T, IndexedList<T>> range : ranges) {
+      for (Map.Entry<T, IndexedList<T>> entry : range.entrySet()) {
+        scannedKeyCount.incrementAndGet();
+        if (filterKey.apply(entry.getKey())) {
+          final boolean complete = containsAllFields(entry.getKey());
+          for (T object : entry.getValue()) {
+            if (seen++ < numToSkip) {
+              continue;
+            }
+            // The projection is a copy : the result shares nothing with the key nor the stored object.
+            final DBObject projected = FongoDBCollection.applyProjections(complete ? entry.getKey() : EncodedDBObject.view(object), projection);
+            if (projected != null) {
+              result.add(projected);
+            }
+            if (++found >= limit) {
+              return result;
+            }
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Estimate the number of objects read by {@link #retrieveObjects(DBObject)}, from the count of objects and of
+   * distinct keys : the fields are supposed independent and a range keeps a third of the keys.
+   *
+   * @param query query for restriction.
+   * @return estimated number of objects read.
+   */
+  public double estimateScanned(DBObject query) {
+    if (documentCount == 0) {
+      return 0;
+    }
+    if (isUniqueGet(query)) {
+      return 1;
+    }
+    if (!isOrdered()) {
+      return documentCount;
+    }
+    double intervals = 1;
+    int pointFields = 0;
+    boolean range = false;
+    for (String field : fields) {
+      final FieldBounds bounds = fieldBounds(query, field);
+      if (bounds == null) {
+        break;
+      }
+      if (bounds.isEmpty()) {
+        return 0;
+      }
+      if (bounds.points == null) {
+        range = true;
+        break;
+      }
+      intervals *= bounds.points.size();
+      pointFields++;
+    }
+    final double selectivity = Math.min(1D, intervals * Math.pow(mapValues.size(), -(double) pointFields / fields.size()));
+    return Math.ceil(documentCount * selectivity / (range ? 3 : 1));
+  }
+
+  /**
+   * Number of leading fields of the index bounded by the query : compared by equality, with $in or with a range
+   * ($gt/$gte/$lt/$lte/$eq). Only the last bounded field can be a range.
+   *
+   * @param query query for restriction.
+   * @return 0 if the leading field isn't bounded.
+   */
+  public int boundedPrefixLength(DBObject query) {
+    int length = 0;
+    for (String field : fields) {
+      final FieldBounds bounds = fieldBounds(query, field);
+      if (bounds == null) {
+        break;
+      }
+      length++;
+      if (bounds.points == null) {
+        break;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Restrict the entries to scan using the bounds of the query on the leading fields of the index : one interval per
+   * combination of the values compared by equality/$in, with the range of the last bounded field.
+   * The returned ranges are in index order and may still contain non matching keys : the caller must filter them.
+   *
+   * @param query query for restriction.
+   * @return ranges of the index to scan, the whole index if the query can't be bounded.
+   */
+  List<Map<T, IndexedList<T>>> seek(DBObject query) {
+    final List<Map<T, IndexedList<T>>> all = Collections.<Map<T, IndexedList<T>>>singletonList(mapValues);
+    if (!isOrdered()) {
+      return all;
+    }
+    List<List<Object>> prefixes = Collections.<List<Object>>singletonList(Collections.emptyList());
+    FieldBounds range = null;
+    for (String field : fields) {
+      final FieldBounds bounds = fieldBounds(query, field);
+      if (bounds == null) {
+        break;
+      }
+      if (bounds.isEmpty()) {
+        return Collections.emptyList();
+      }
+      if (bounds.points == null) {
+        range = bounds;
+        break;
+      }
+      if (prefixes.size() * bounds.points.size() > MAX_INTERVALS) {
+        break;
+      }
+      final List<List<Object>> newPrefixes = new ArrayList<List<Object>>(prefixes.size() * bounds.points.size());
+      for (List<Object> prefix : prefixes) {
+        for (Object point : bounds.points) {
+          newPrefixes.add(append(prefix, point));
+        }
+      }
+      prefixes = newPrefixes;
+    }
+    if (range == null && prefixes.get(0).isEmpty()) {
+      return all;
+    }
+
+    final NavigableMap<T, IndexedList<T>> navigableMap = (NavigableMap<T, IndexedList<T>>) mapValues;
+    try {
+      final List<Map<T, IndexedList<T>>> ranges = new ArrayList<Map<T, IndexedList<T>>>(prefixes.size());
+      for (List<Object> prefix : prefixes) {
+        ranges.add(subMap(navigableMap, prefix, range));
+      }
+      return ranges;
+    } catch (FongoException e) {
+      // Keys can't be compared with the bounds, keep the full scan.
+      LOG.debug("seek() can't restrict index {} with {}", name, query);
+      return all;
+    }
+  }
+
+  /**
+   * Objects of the index matching the bounds of the query, in the order of "orderby" : the keys are already sorted when
+   * the fields of "orderby" are the leading fields of the index, all in the direction of the index or all in the
+   * opposite one. No copy : the index must not be modified during the iteration.
+   *
+   * @return null if the order of the keys is not the order of "orderby", or if the query needs several ranges.
+   */
+  public Iterable<T> sortedValues(DBObject query, DBObject orderby) {
+    final Boolean ascending = sortAscending(orderby);
+    if (ascending == null) {
+      return null;
+    }
+    final List<Map<T, IndexedList<T>>> ranges = seek(query);
+    if (ranges.size() > 1) {
+      return null;
+    }
+    lookupCount.incrementAndGet();
+    if (ranges.isEmpty()) {
+      return Collections.emptyList();
+    }
+    final NavigableMap<T, IndexedList<T>> range = (NavigableMap<T, IndexedList<T>>) ranges.get(0);
+    return flatten((ascending == asc ? range : range.descendingMap()).values(), false);
+  }
+
+  /**
+   * @return true if "orderby" is ascending on leading fields of the index, false if descending, null otherwise.
+   */
+  private Boolean sortAscending(DBObject orderby) {
+    // An array is sorted by its min or max element, a missing field like null.
+    if (!isOrdered() || multiKey || missingFields || partialFilter != null) {
+      return null;
+    }
+    final Iterator<String> fieldIterator = fields.iterator();
+    Boolean ascending = null;
+    for (String sortField : orderby.keySet()) {
+      final Object direction = orderby.get(sortField);
+      if (!fieldIterator.hasNext() || !fieldIterator.next().equals(sortField) || !(direction instanceof Integer)
+          || (Integer) direction == 0) {
+        return null;
+      }
+      if (ascending != null && ascending != (Integer) direction > 0) {
+        return null;
+      }
+      ascending = (Integer) direction > 0;
+    }
+    return ascending;
+  }
+
+  /**
+   * @return true if the keys are ordered like the values of the fields.
+   */
+  private boolean isOrdered() {
+    if (!(mapValues instanceof NavigableMap) || unseekable) {
+      return false;
+    }
+    // The key begins with the whole "_id" if the index contains it (see prepareKeys and applyProjections).
+    return fields.iterator().next().equals(ID_FIELD_NAME) || Integer.valueOf(0).equals(keys.get(ID_FIELD_NAME));
+  }
+
+  /**
+   * Bounds of the query for one field of the index. With an array, each bound of a range can be matched by a different
+   * element ({a: {$gt: 5, $lt: 8}} matches [1, 10]) : only the lower bound is kept.
+   *
+   * @return null if the query can't bound the field.
+   */
+  private FieldBounds fieldBounds(DBObject query, String field) {
+    final FieldBounds bounds = fieldBounds(query.get(field));
+    if (bounds == null || bounds.points != null || !multiKeyFields.contains(field)) {
+      return bounds;
+    }
+    final FieldBounds halfBounds = new FieldBounds(null);
+    if (bounds.lower != null) {
+      halfBounds.lower = bounds.lower;
+      halfBounds.lowerInclusive = bounds.lowerInclusive;
     } else {
-      for (Map.Entry<T, IndexedList<T>> entry : mapValues.entrySet()) {
-        size += entry.getValue().size();
+      halfBounds.upper = bounds.upper;
+      halfBounds.upperInclusive = bounds.upperInclusive;
+    }
+    return halfBounds;
+  }
+
+  /**
+   * Bounds of the query for one field of the index.
+   *
+   * @return null if the expression can't bound the field.
+   */
+  private FieldBounds fieldBounds(Object expression) {
+    if (isSeekable(expression)) {
+      return new FieldBounds(Collections.singletonList(expression));
+    }
+    if (!ExpressionParser.isDbObject(expression)) {
+      return null;
+    }
+    final DBObject operators = ExpressionParser.toDbObject(expression);
+    if (operators.containsField(QueryOperators.NOT)) {
+      return null;
+    }
+    try {
+      if (operators.containsField(QueryOperators.IN)) {
+        final List<Object> points = inPoints(operators.get(QueryOperators.IN));
+        if (points != null) {
+          return new FieldBounds(points);
+        }
+      }
+      return rangeBounds(operators);
+    } catch (FongoException e) {
+      // Values can't be compared.
+      return null;
+    }
+  }
+
+  private List<Object> inPoints(Object inValues) {
+    final Collection<?> values;
+    if (inValues instanceof Collection) {
+      values = (Collection<?>) inValues;
+    } else if (inValues != null && inValues.getClass().isArray()) {
+      values = Util.toCollection(inValues);
+    } else {
+      return null;
+    }
+    final Object[] sortedValues = values.toArray(new Object[values.size()]);
+    for (Object value : sortedValues) {
+      if (!isSeekable(value)) {
+        return null;
+      }
+    }
+    // Follow the order of the index, and avoid to scan twice the same key.
+    Arrays.sort(sortedValues, expressionParser.buildObjectComparator(asc));
+    final List<Object> points = new ArrayList<Object>(sortedValues.length);
+    for (Object value : sortedValues) {
+      if (points.isEmpty() || objectComparator.compare(points.get(points.size() - 1), value) != 0) {
+        points.add(value);
+      }
+    }
+    return points;
+  }
+
+  private FieldBounds rangeBounds(DBObject operators) {
+    final FieldBounds bounds = new FieldBounds(null);
+    for (String operator : operators.keySet()) {
+      final Object value = operators.get(operator);
+      if (!isSeekable(value)) {
+        continue;
+      }
+      final boolean isLower = ExpressionParser.GT.equals(operator) || ExpressionParser.GTE.equals(operator) || ExpressionParser.EQ.equals(operator);
+      final boolean isUpper = ExpressionParser.LT.equals(operator) || ExpressionParser.LTE.equals(operator) || ExpressionParser.EQ.equals(operator);
+      final boolean inclusive = !ExpressionParser.GT.equals(operator) && !ExpressionParser.LT.equals(operator);
+      if (isLower) {
+        final int compare = bounds.lower == null ? 1 : objectComparator.compare(value, bounds.lower);
+        if (compare > 0 || (compare == 0 && !inclusive)) {
+          bounds.lower = value;
+          bounds.lowerInclusive = inclusive;
+        }
+      }
+      if (isUpper) {
+        final int compare = bounds.upper == null ? -1 : objectComparator.compare(value, bounds.upper);
+        if (compare < 0 || (compare == 0 && !inclusive)) {
+          bounds.upper = value;
+          bounds.upperInclusive = inclusive;
+        }
+      }
+    }
+    if (bounds.lower == null && bounds.upper == null) {
+      return null;
+    }
+    if (bounds.lower != null && bounds.upper != null) {
+      final int compare = objectComparator.compare(bounds.lower, bounds.upper);
+      bounds.empty = compare > 0 || (compare == 0 && !(bounds.lowerInclusive && bounds.upperInclusive));
+    }
+    return bounds;
+  }
+
+  /**
+   * Extract the part of the index for the values of the leading fields, and the range of the next one (can be null).
+   */
+  private NavigableMap<T, IndexedList<T>> subMap(NavigableMap<T, IndexedList<T>> navigableMap, List<Object> prefix, FieldBounds range) {
+    // {a:v} is before all {a:v, ...} keys and {a:v, "￿":MaxKey} is after them.
+    final T lowerKey;
+    boolean lowerInclusive = true;
+    if (range == null || range.lower == null) {
+      lowerKey = prefix.isEmpty() ? null : boundKey(prefix, false);
+    } else {
+      lowerKey = boundKey(append(prefix, range.lower), !range.lowerInclusive);
+      lowerInclusive = range.lowerInclusive;
+    }
+    final T upperKey;
+    boolean upperInclusive = true;
+    if (range == null || range.upper == null) {
+      upperKey = prefix.isEmpty() ? null : boundKey(prefix, true);
+    } else {
+      upperKey = boundKey(append(prefix, range.upper), range.upperInclusive);
+      upperInclusive = range.upperInclusive;
+    }
+    // A descending index has the upper bound first.
+    final T fromKey = asc ? lowerKey : upperKey;
+    final boolean fromInclusive = asc ? lowerInclusive : upperInclusive;
+    final T toKey = asc ? upperKey : lowerKey;
+    final boolean toInclusive = asc ? upperInclusive : lowerInclusive;
+    if (fromKey == null) {
+      return navigableMap.headMap(toKey, toInclusive);
+    }
+    if (toKey == null) {
+      return navigableMap.tailMap(fromKey, fromInclusive);
+    }
+    return navigableMap.subMap(fromKey, fromInclusive, toKey, toInclusive);
+  }
+
+  private T boundKey(List<Object> values, boolean afterAllKeys) {
+    final DBObject bound = new BasicDBObject();
+    final Iterator<String> fieldIterator = fields.iterator();
+    String field = null;
+    for (Object value : values) {
+      field = fieldIterator.next();
+      Util.putValue(bound, field, value);
+    }
+    if (afterAllKeys) {
+      // Beside the last value : the keys are compared field name first.
+      final int indexDot = field.lastIndexOf('.');
+      Util.putValue(bound, indexDot < 0 ? AFTER_ALL_FIELDS : field.substring(0, indexDot + 1) + AFTER_ALL_FIELDS, new MaxKey());
+    }
+    return (T) bound;
+  }
+
+  private static List<Object> append(List<Object> prefix, Object value) {
+    final List<Object> values = new ArrayList<Object>(prefix.size() + 1);
+    values.addAll(prefix);
+    values.add(value);
+    return values;
+  }
+
+  // A range only matches the values of the type of its bound.
+  private static boolean isSameType(Object value1, Object value2) {
+    return (value1 instanceof Number && value2 instanceof Number) || value1.getClass().equals(value2.getClass());
+  }
+
+  /**
+   * @return true if the value can be used as a bound for the ordered keys.
+   */
+  private static boolean isSeekable(Object value) {
+    return value != null && !ExpressionParser.isDbObject(value) && !(value instanceof Collection)
+        && !(value instanceof Pattern) && !(value instanceof Binary) && !value.getClass().isArray();
+  }
+
+  /**
+   * Values of the leading fields compared by equality ({@code points}), or range of the field.
+   */
+  private static final class FieldBounds {
+    final List<Object> points;
+    Object lower;
+    boolean lowerInclusive;
+    Object upper;
+    boolean upperInclusive;
+    boolean empty;
+
+    FieldBounds(List<Object> points) {
+      this.points = points;
+    }
+
+    boolean isEmpty() {
+      return empty || (points != null && points.isEmpty());
+    }
+  }
+
+  private boolean containsList(DBObject key) {
+    for (String field : fields) {
+      if (keyValue(key, field) instanceof List) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean containsAllFields(DBObject key) {
+    for (String field : fields) {
+      if (keyValue(key, field) == null) {
+        return false;
       }
     }
-    return size;
+    return true;
+  }
+
+  /**
+   * @return value of the field in the key, the first list found in the path or null if missing.
+   */
+  static Object keyValue(DBObject key, String field) {
+    Object value = key;
+    for (String path : Util.split(field)) {
+      if (value instanceof List) {
+        return value;
+      }
+      if (!ExpressionParser.isDbObject(value)) {
+        return null;
+      }
+      value = ExpressionParser.toDbObject(value).get(path);
+    }
+    return value;
+  }
+
+  public long getLookupCount() {
+    return lookupCount.get();
+  }
+
+  /**
+   * @return the number of keys read by {@link #retrieveObjects(DBObject)} and
+   * {@link #retrieveCovered(DBObject, DBObject, int, int)}.
+   */
+  public long getScannedKeyCount() {
+    return scannedKeyCount.get();
+  }
+
+  public int size() {
+    return documentCount;
+  }
+
+  /**
+   * @return number of distinct keys.
+   */
+  public int getKeyCount() {
+    return mapValues.size();
   }
 
   public List<DBObject> values() {
     List<DBObject> values = new ArrayList<DBObject>(mapValues.size() * 10);
+    Set<T> seen = multiKey ? Collections.newSetFromMap(new IdentityHashMap<T, Boolean>()) : null;
     for (IndexedList<T> objects : mapValues.values()) {
-      values.addAll(objects.getElements());
+      for (T object : objects) {
+        if (seen == null || seen.add(object)) {
+          values.add(object);
+        }
+      }
     }
     return values;
   }
 
+  /**
+   * @return true if the object itself (same instance) is in the index.
+   */
+  public boolean contains(T object) {
+    for (T entryKey : entryKeys(getKeyFor(object))) {
+      final IndexedList<T> values = mapValues.get(entryKey);
+      if (values != null && values.contains(object)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Objects of the index in the order of the keys, without copy : the index must not be modified during the iteration.
+   */
+  public Iterable<T> liveValues() {
+    return flatten(mapValues.values(), multiKey);
+  }
+
+  /**
+   * @param distinct true to skip the objects already returned (same instance).
+   */
+  static <E> Iterable<E> flatten(final Iterable<IndexedList<E>> lists, final boolean distinct) {
+    return new Iterable<E>() {
+      @Override
+      public Iterator<E> iterator() {
+        final Iterator<IndexedList<E>> listIterator = lists.iterator();
+        final Set<E> seen = distinct ? Collections.newSetFromMap(new IdentityHashMap<E, Boolean>()) : null;
+        return new Iterator<E>() {
+          private Iterator<E> current = Collections.<E>emptyList().iterator();
+          private E next;
+
+          @Override
+          public boolean hasNext() {
+            while (next == null) {
+              while (!current.hasNext()) {
+                if (!listIterator.hasNext()) {
+                  return false;
+                }
+                current = listIterator.next().iterator();
+              }
+              final E candidate = current.next();
+              if (seen == null || seen.add(candidate)) {
+                next = candidate;
+              }
+            }
+            return true;
+          }
+
+          @Override
+          public E next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            final E result = next;
+            next = null;
+            return result;
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
   public void clear() {
     mapValues.clear();
+    documentCount = 0;
+    multiKey = false;
+    multiKeyFields.clear();
+    unseekable = false;
+    missingFields = false;
   }
 
   /**
@@ -283,10 +1107,10 @@ public abstract class IndexAbstract<T extends DBObject> {
 
     //get keys including embedded indexes
     for (String field : fields) {
-      final Object o = queryFields.get(field);
-      if (o == null && !keyEmbeddedFieldMatch(field, queryFields)) {
+      if (!hasField(field, queryFields)) {
         return false;
       }
+      final Object o = queryFields.get(field);
       if (ExpressionParser.isDbObject(o) && ExpressionParser.toDbObject(o).containsField(QueryOperators.EXISTS)) {
         return false;
       }
@@ -294,6 +1118,190 @@ public abstract class IndexAbstract<T extends DBObject> {
     return true;
   }
 
+  /**
+   * @param object object to insert/remove.
+   * @return true if the object must be stored into this index.
+   */
+  public boolean canIndex(final DBObject object) {
+    return canHandle(object) && isSelected(object);
+  }
+
+  /**
+   * @return false if the object is excluded by the partialFilterExpression of the index.
+   */
+  final boolean isSelected(final DBObject object) {
+    return partialFilter == null || partialFilter.apply(object);
+  }
+
+  public boolean isSparse() {
+    return sparse;
+  }
+
+  void setSparse(boolean sparse) {
+    this.sparse = sparse;
+  }
+
+  public DBObject getPartialFilterExpression() {
+    return partialFilterExpression;
+  }
+
+  void setPartialFilterExpression(DBObject partialFilterExpression) {
+    this.partialFilterExpression = partialFilterExpression;
+    this.partialFilter = expressionParser.buildFilter(partialFilterExpression);
+    final List<DBObject> conditions = new ArrayList<DBObject>();
+    addConditions(conditions, partialFilterExpression);
+    this.partialFilterConditions = conditions;
+  }
+
+  private static void addConditions(List<DBObject> conditions, DBObject expression) {
+    final Object and = expression.get(ExpressionParser.AND);
+    if (and instanceof Collection) {
+      for (Object condition : (Collection<?>) and) {
+        addConditions(conditions, ExpressionParser.toDbObject(condition));
+      }
+    } else {
+      conditions.add(expression);
+    }
+  }
+
+  /**
+   * The index doesn't contain all the objects : it can answer the query only if the query can't match the objects
+   * missing from the index (without the fields, or outside of the partialFilterExpression).
+   *
+   * @return true if the result of the query from this index is complete.
+   */
+  public boolean isUsableFor(DBObject query) {
+    for (String field : fields) {
+      if (query.containsField(field) && !storesMissing(field) && matchesMissing(query.get(field))) {
+        return false;
+      }
+    }
+    for (DBObject condition : partialFilterConditions) {
+      for (String field : condition.keySet()) {
+        if (!query.containsField(field) || !implies(query.get(field), condition.get(field))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the objects without this field are stored into the index.
+   */
+  boolean storesMissing(String field) {
+    return false;
+  }
+
+  /**
+   * @return true if the condition matches an object without the field ({$exists: false}, null, $ne, $nin...).
+   */
+  private boolean matchesMissing(Object condition) {
+    if (isSeekable(condition)) {
+      return false;
+    }
+    if (isBoundedRange(condition)) {
+      return false;
+    }
+    return expressionParser.buildFilter(new BasicDBObject("v", condition)).apply(new BasicDBObject());
+  }
+
+  // Avoid to build a filter for the common ranges.
+  private static boolean isBoundedRange(Object condition) {
+    if (!ExpressionParser.isDbObject(condition)) {
+      return false;
+    }
+    final DBObject operators = ExpressionParser.toDbObject(condition);
+    for (String operator : operators.keySet()) {
+      if (!ExpressionParser.GT.equals(operator) && !ExpressionParser.GTE.equals(operator)
+          && !ExpressionParser.LT.equals(operator) && !ExpressionParser.LTE.equals(operator)) {
+        return false;
+      }
+      if (!isSeekable(operators.get(operator))) {
+        return false;
+      }
+    }
+    return !operators.keySet().isEmpty();
+  }
+
+  /**
+   * @return true if all the values matched by the condition of the query are matched by the condition of the filter.
+   */
+  private boolean implies(Object queryCondition, Object filterCondition) {
+    if (queryCondition == null) {
+      return false;
+    }
+    if (queryCondition.equals(filterCondition)) {
+      return true;
+    }
+    if (isSeekable(queryCondition)) {
+      return expressionParser.buildFilter(new BasicDBObject("v", filterCondition)).apply(new BasicDBObject("v", queryCondition));
+    }
+    if (!ExpressionParser.isDbObject(filterCondition)) {
+      return false;
+    }
+    final DBObject filterOperators = ExpressionParser.toDbObject(filterCondition);
+    final Object exists = filterOperators.get(QueryOperators.EXISTS);
+    if (filterOperators.keySet().size() == 1 && (Boolean.TRUE.equals(exists) || Integer.valueOf(1).equals(exists))) {
+      return !matchesMissing(queryCondition);
+    }
+    for (String operator : filterOperators.keySet()) {
+      if (!ExpressionParser.GT.equals(operator) && !ExpressionParser.GTE.equals(operator)
+          && !ExpressionParser.LT.equals(operator) && !ExpressionParser.LTE.equals(operator)) {
+        return false;
+      }
+    }
+    final FieldBounds queryBounds = fieldBounds(queryCondition);
+    final FieldBounds filterBounds = fieldBounds(filterCondition);
+    if (queryBounds == null || filterBounds == null) {
+      return false;
+    }
+    if (queryBounds.points != null) {
+      final Filter filter = expressionParser.buildFilter(new BasicDBObject("v", filterCondition));
+      for (Object point : queryBounds.points) {
+        if (!filter.apply(new BasicDBObject("v", point))) {
+          return false;
+        }
+      }
+      return true;
+    }
+    try {
+      if (filterBounds.lower != null) {
+        if (queryBounds.lower == null || !isSameType(queryBounds.lower, filterBounds.lower)) {
+          return false;
+        }
+        final int compare = objectComparator.compare(queryBounds.lower, filterBounds.lower);
+        if (compare < 0 || (compare == 0 && queryBounds.lowerInclusive && !filterBounds.lowerInclusive)) {
+          return false;
+        }
+      }
+      if (filterBounds.upper != null) {
+        if (queryBounds.upper == null || !isSameType(queryBounds.upper, filterBounds.upper)) {
+          return false;
+        }
+        final int compare = objectComparator.compare(queryBounds.upper, filterBounds.upper);
+        if (compare > 0 || (compare == 0 && queryBounds.upperInclusive && !filterBounds.upperInclusive)) {
+          return false;
+        }
+      }
+    } catch (FongoException e) {
+      // Values can't be compared.
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return true if this index can be used for a query on its leading fields only (see {@link #boundedPrefixLength(DBObject)}).
+   */
+  public boolean isPrefixUsable() {
+    return false;
+  }
+
+  boolean hasField(String field, DBObject queryFields) {
+    return queryFields.get(field) != null || keyEmbeddedFieldMatch(field, queryFields);
+  }
+
   private boolean keyEmbeddedFieldMatch(String field, DBObject queryFields) {
     //if field embedded field type
     String[] fieldParts = field.split("\\.");
@@ -333,7 +1341,7 @@ public abstract class IndexAbstract<T extends DBObject> {
     return (T) applyProjections;
   }
 
-  private List<List<Object>> extractFields(DBObject dbObject, Collection<String> fields) {
+  List<List<Object>> extractFields(DBObject dbObject, Collection<String> fields) {
     List<List<Object>> fieldValue = new ArrayList<List<Object>>();
     for (String field : fields) {
       List<Object> embeddedValues = expressionParser.getEmbeddedValues(field, dbObject);
@@ -12,6 +12,22 @@ public final class IndexFactory {
   private IndexFactory() {
   }
 
+  /**
+   * @param sparse                  true if the objects without the fields are not stored.
+   * @param partialFilterExpression only the objects matching this filter are stored (can be null).
+   */
+  public static IndexAbstract create(String name, DBObject keys, boolean unique, boolean sparse, DBObject partialFilterExpression) throws MongoException {
+    if (sparse && partialFilterExpression != null) {
+      throw new MongoException(67, "cannot mix \"partialFilterExpression\" and \"sparse\" options");
+    }
+    final IndexAbstract index = create(name, keys, unique);
+    index.setSparse(sparse);
+    if (partialFilterExpression != null) {
+      index.setPartialFilterExpression(partialFilterExpression);
+    }
+    return index;
+  }
+
   public static IndexAbstract create(String name, DBObject keys, boolean unique) throws MongoException {
     String geoIndex = getGeoKey(keys);
     if (geoIndex != null) {
@@ -21,6 +37,9 @@ public final class IndexFactory {
       if (hashed != null) {
         return new HashedIndex(name, keys, unique, hashed);
       }
+      if (PrimaryKeyIndex.isPrimaryKey(keys)) {
+        return new PrimaryKeyIndex(name, keys, unique);
+      }
       return new Index(name, keys, unique);
     }
   }
@@ -3,101 +3,188 @@ package com.github.fakemongo.impl.index;
 import java.util.*;
 
 
-public class IndexedList<Е> {
-  private Map<Е, List<Integer>> indexes;
+/**
+ * Objects of an index key, in insertion order.
+ * <p/>
+ * The objects are found by identity in O(1) (by equality in O(n) if the identity is unknown), a removed object leaves a
+ * hole compacted later : add, remove and contains don't shift the others.
+ */
+public class IndexedList<Е> implements Iterable<Е> {
+  // Compact when the holes are more than the elements.
+  private static final int MIN_HOLES_TO_COMPACT = 16;
 
-  private final List<Е> elements;
+  // Position of the first occurrence of the elements, created on the first add.
+  private Map<Е, Integer> indexes;
 
-  private boolean isSingle = true;
+  // Removed elements are null.
+  private List<Е> elements;
+
+  private int holes = 0;
+
+  // Same element added twice.
+  private boolean duplicates = false;
 
   public IndexedList(List<Е> elements) {
     this.elements = elements;
 
     if (elements.size() > 1) {
-      initIndex(elements);
+      initIndex();
     }
   }
 
-  private void initIndex(List<Е> newElements) {
-    indexes = new HashMap<Е, List<Integer>>();
-
-    isSingle = false;
+  private void initIndex() {
+    if (!(elements instanceof ArrayList)) {
+      elements = new ArrayList<Е>(elements);
+    }
+    indexes = new IdentityHashMap<Е, Integer>(elements.size() * 2);
+    duplicates = false;
 
-    int count = 0;
-    for (Е el : newElements) {
-      addIndex(el, count);
-      count += 1;
+    for (int i = 0; i < elements.size(); i++) {
+      Е el = elements.get(i);
+      if (el != null) {
+        addIndex(el, i);
+      }
     }
   }
 
+  /**
+   * @return the elements, the list must not be modified. A copy if there are holes : the reads don't modify the list.
+   */
   public List<Е> getElements() {
+    if (holes > 0) {
+      List<Е> copy = new ArrayList<Е>(elements.size() - holes);
+      for (Е el : this) {
+        copy.add(el);
+      }
+      return copy;
+    }
     return elements;
   }
 
+  @Override
+  public Iterator<Е> iterator() {
+    if (holes == 0) {
+      return elements.iterator();
+    }
+    return new Iterator<Е>() {
+      private int position = nextPosition(0);
+
+      @Override
+      public boolean hasNext() {
+        return position < elements.size();
+      }
+
+      @Override
+      public Е next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Е element = elements.get(position);
+        position = nextPosition(position + 1);
+        return element;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private int nextPosition(int from) {
+    int position = from;
+    while (position < elements.size() && elements.get(position) == null) {
+      position++;
+    }
+    return position;
+  }
+
   public int size() {
-    return elements.size();
+    return elements.size() - holes;
   }
 
   public boolean contains(Е element) {
-    if (isSingle)
-      return elements.contains(element);
-
-    return indexes.containsKey(element);
+    return position(element) >= 0;
   }
 
   public void add(Е element) {
-    if (elements.size() == 1) {
-      initIndex(elements);
+    if (indexes == null) {
+      initIndex();
     }
 
     elements.add(element);
-
-    if (elements.size() > 1)
-      addIndex(element, elements.size()-1);
+    addIndex(element, elements.size() - 1);
   }
 
   private void addIndex(Е element, int position) {
-    final List<Integer> list;
-    if (!indexes.containsKey(element)) {
-      list = new ArrayList<Integer>();
-      indexes.put(element, list);
+    if (indexes.containsKey(element)) {
+      duplicates = true;
+    } else {
+      indexes.put(element, position);
     }
-    else
-      list = indexes.get(element);
-
-    list.add(position);
   }
 
   public void remove(Е element) {
-    if (isSingle) {
-      elements.remove(element);
+    int position = position(element);
+    if (position < 0) {
       return;
     }
+    if (indexes == null) {
+      initIndex();
+    }
 
-    List<Integer> index = indexes.get(element);
-
-    if (index == null)
-      return;
+    Е removed = elements.set(position, null);
+    holes++;
+    indexes.remove(removed);
+    if (duplicates) {
+      // Next occurrence of the same object.
+      for (int i = position + 1; i < elements.size(); i++) {
+        if (elements.get(i) == removed) {
+          indexes.put(removed, i);
+          break;
+        }
+      }
+    }
 
-    if (index.size() != 0) {
-      int pos = index.get(0);
-      elements.remove(pos);
-      index.remove(0);
+    if (holes == elements.size()) {
+      elements.clear();
+      indexes.clear();
+      holes = 0;
+      duplicates = false;
+    } else if (holes >= MIN_HOLES_TO_COMPACT && holes * 2 > elements.size()) {
+      compact();
+    }
+  }
 
-      for(int i=pos; i<elements.size(); i++) {
-        Е key = elements.get(i);
-        decrementIndexes(indexes.get(key));
+  /**
+   * @return position of the first occurrence of the element, -1 if absent.
+   */
+  private int position(Е element) {
+    if (indexes != null) {
+      Integer position = indexes.get(element);
+      if (position != null) {
+        return position;
       }
     }
-
-    if (index.size() == 0) {
-      indexes.remove(element);
+    // Not the same object, but may be equal.
+    for (int i = 0; i < elements.size(); i++) {
+      Е el = elements.get(i);
+      if (el != null && el.equals(element)) {
+        return i;
+      }
     }
+    return -1;
   }
 
-  private void decrementIndexes(List<Integer> index) {
-    for (int i = 0; i < index.size(); i++) {
-      index.set(i, index.get(i) - 1);
+  private void compact() {
+    List<Е> newElements = new ArrayList<Е>(elements.size() - holes);
+    for (Е el : elements) {
+      if (el != null) {
+        newElements.add(el);
+      }
     }
+    elements = newElements;
+    holes = 0;
+    initIndex();
   }
 }
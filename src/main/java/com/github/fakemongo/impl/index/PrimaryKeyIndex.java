@@ -0,0 +1,272 @@
+package com.github.fakemongo.impl.index;
+
+import com.github.fakemongo.impl.EncodedDBObject;
+import com.github.fakemongo.impl.ExpressionParser;
+import com.github.fakemongo.impl.Filter;
+import com.mongodb.DBObject;
+import static com.mongodb.FongoDBCollection.ID_FIELD_NAME;
+import com.mongodb.QueryOperators;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+/**
+ * The index on "_id" : the objects are stored by the value of their "_id" (numbers are normalized, 1 and 1.0 are the
+ * same key), in insertion order. A lookup by "_id" doesn't build any key object.
+ */
+public class PrimaryKeyIndex extends Index {
+
+  private final Map<Object, IndexedList<DBObject>> objects = new LinkedHashMap<Object, IndexedList<DBObject>>();
+  private int count = 0;
+
+  /**
+   * The objects are stored by "_id" in "objects" : the map of the keys of {@link IndexAbstract} stays empty, the
+   * methods reading it are overridden.
+   */
+  PrimaryKeyIndex(String name, DBObject keys, boolean unique) {
+    super(name, keys, unique, Collections.<DBObject, IndexedList<DBObject>>emptyMap());
+  }
+
+  /**
+   * @return true if the keys are exactly {"_id": 1}.
+   */
+  static boolean isPrimaryKey(DBObject keys) {
+    final Object value = keys.get(ID_FIELD_NAME);
+    return keys.keySet().size() == 1 && value instanceof Number && ((Number) value).doubleValue() == 1D;
+  }
+
+  /**
+   * Normalized value of an "_id" : numbers with the same value have the same key.
+   */
+  static Object idKey(Object id) {
+    if (id instanceof Number) {
+      if (id instanceof Integer || id instanceof Long || id instanceof Short || id instanceof Byte) {
+        return ((Number) id).longValue();
+      }
+      final double value = ((Number) id).doubleValue();
+      final long longValue = (long) value;
+      return longValue == value ? (Object) Long.valueOf(longValue) : (Object) Double.valueOf(value);
+    }
+    if (id instanceof byte[]) {
+      return new Binary((byte[]) id);
+    }
+    return id;
+  }
+
+  /**
+   * @return true if an object with this "_id" is found by its key only.
+   */
+  private static boolean isKeyValue(Object id) {
+    return id instanceof Number || id instanceof String || id instanceof ObjectId || id instanceof Date
+        || id instanceof Boolean || id instanceof UUID;
+  }
+
+  @Override
+  public List<List<Object>> addOrUpdate(DBObject object, DBObject oldObject) {
+    if (oldObject != null) {
+      remove(oldObject);
+    }
+
+    final Object key = idKey(object.get(ID_FIELD_NAME));
+    IndexedList<DBObject> values = objects.get(key);
+    if (isUnique()) {
+      if (values != null) {
+        return extractFields(object, getFields());
+      }
+      objects.put(key, new IndexedList<DBObject>(Collections.singletonList(embedded(object)))); // DO NOT CLONE !
+    } else {
+      if (values == null) {
+        values = new IndexedList<DBObject>(new ArrayList<DBObject>());
+        objects.put(key, values);
+      }
+      values.add(embedded(object)); // DO NOT CLONE ! Indexes must share the same object.
+    }
+    count++;
+    return Collections.emptyList();
+  }
+
+  @Override
+  public List<List<Object>> checkAddOrUpdate(DBObject object, DBObject oldObject) {
+    if (isUnique()) {
+      final IndexedList<DBObject> values = objects.get(idKey(object.get(ID_FIELD_NAME)));
+      if (values != null && !values.contains(oldObject)) {
+        return extractFields(object, getFields());
+      }
+    }
+    return Collections.emptyList();
+  }
+
+  @Override
+  public void remove(DBObject object) {
+    final Object key = idKey(object.get(ID_FIELD_NAME));
+    final IndexedList<DBObject> values = objects.get(key);
+    if (values != null) {
+      final int size = values.size();
+      if (size == 1) {
+        objects.remove(key);
+        count--;
+      } else {
+        values.remove(object);
+        count -= size - values.size();
+      }
+    }
+  }
+
+  /**
+   * The "_id" can't be modified : the object itself is the key.
+   */
+  @Override
+  public DBObject keyBeforeUpdate(DBObject object) {
+    return canIndex(object) ? object : null;
+  }
+
+  @Override
+  public void updateInPlace(DBObject object, DBObject oldKey) {
+    final boolean indexed = canIndex(object);
+    if (oldKey == null && indexed) {
+      addOrUpdate(object, null);
+    } else if (oldKey != null && !indexed) {
+      remove(object);
+    }
+  }
+
+  @Override
+  public List<DBObject> get(DBObject query) {
+    if (!isUnique()) {
+      throw new IllegalStateException("get is only for unique index");
+    }
+    lookupCount.incrementAndGet();
+
+    final IndexedList<DBObject> result = objects.get(idKey(query.get(ID_FIELD_NAME)));
+    return result == null ? null : result.getElements();
+  }
+
+  @Override
+  public Collection<DBObject> retrieveObjects(DBObject query) {
+    lookupCount.incrementAndGet();
+
+    final Object id = query.get(ID_FIELD_NAME);
+    if (query.keySet().size() == 1 && id != null) {
+      if (isKeyValue(id)) {
+        final IndexedList<DBObject> result = objects.get(idKey(id));
+        return result == null ? Collections.<DBObject>emptyList() : result.getElements();
+      }
+      final Collection<?> inValues = inValues(id);
+      if (inValues != null) {
+        final List<DBObject> result = new ArrayList<DBObject>();
+        final Set<Object> seen = new HashSet<Object>();
+        for (Object value : inValues) {
+          final Object key = idKey(value);
+          final IndexedList<DBObject> values = seen.add(key) ? objects.get(key) : null;
+          if (values != null) {
+            for (DBObject object : values) {
+              result.add(object);
+            }
+          }
+        }
+        return result;
+      }
+    }
+
+    final Filter filter = expressionParser.buildFilter(query);
+    final List<DBObject> result = new ArrayList<DBObject>();
+    for (IndexedList<DBObject> values : objects.values()) {
+      for (DBObject object : values) {
+        if (filter.apply(EncodedDBObject.view(object))) {
+          result.add(object); // DO NOT CLONE ! need for update.
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the values of a {$in: [...]} made only of key values, null otherwise.
+   */
+  private static Collection<?> inValues(Object id) {
+    if (!ExpressionParser.isDbObject(id)) {
+      return null;
+    }
+    final DBObject operators = ExpressionParser.toDbObject(id);
+    if (operators.keySet().size() != 1 || !(operators.get(QueryOperators.IN) instanceof Collection)) {
+      return null;
+    }
+    final Collection<?> values = (Collection<?>) operators.get(QueryOperators.IN);
+    for (Object value : values) {
+      if (!isKeyValue(value)) {
+        return null;
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public double estimateScanned(DBObject query) {
+    final Object id = query.get(ID_FIELD_NAME);
+    if (query.keySet().size() == 1 && isKeyValue(id)) {
+      return Math.min(1, count);
+    }
+    final Collection<?> inValues = query.keySet().size() == 1 ? inValues(id) : null;
+    if (inValues != null) {
+      return Math.min(inValues.size(), count);
+    }
+    return count;
+  }
+
+  @Override
+  public boolean canCover(DBObject query, DBObject projection) {
+    return false;
+  }
+
+  @Override
+  public boolean isPrefixUsable() {
+    return false;
+  }
+
+  @Override
+  public int size() {
+    return count;
+  }
+
+  @Override
+  public int getKeyCount() {
+    return objects.size();
+  }
+
+  @Override
+  public List<DBObject> values() {
+    final List<DBObject> values = new ArrayList<DBObject>(count);
+    for (IndexedList<DBObject> objectList : objects.values()) {
+      for (DBObject object : objectList) {
+        values.add(object);
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public boolean contains(DBObject object) {
+    final IndexedList<DBObject> values = objects.get(idKey(object.get(ID_FIELD_NAME)));
+    return values != null && values.contains(object);
+  }
+
+  @Override
+  public Iterable<DBObject> liveValues() {
+    return flatten(objects.values(), false);
+  }
+
+  @Override
+  public void clear() {
+    objects.clear();
+    count = 0;
+  }
+}
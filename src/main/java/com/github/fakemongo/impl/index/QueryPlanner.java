@@ -0,0 +1,132 @@
+package com.github.fakemongo.impl.index;
+
+import com.github.fakemongo.impl.ExpressionParser;
+import com.github.fakemongo.impl.Util;
+import com.mongodb.DBObject;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Choose the index for a query, with the estimation of each index, and cache the choice by shape of query.
+ * <p/>
+ * Thread Safe : the concurrent reads of a collection share the plans. The indexes must be modified by the caller only
+ * when no query is planned.
+ */
+public class QueryPlanner {
+  private static final Logger LOG = LoggerFactory.getLogger(QueryPlanner.class);
+  private static final int MAX_PLANS = 1000;
+
+  private final List<IndexAbstract> indexes;
+  private final Map<String, Plan> plans = new LinkedHashMap<String, Plan>(16, 0.75F, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+      return size() > MAX_PLANS;
+    }
+  };
+
+  /**
+   * @param indexes indexes of the collection, {@link #invalidate()} must be called when they change.
+   */
+  public QueryPlanner(List<IndexAbstract> indexes) {
+    this.indexes = indexes;
+  }
+
+  /**
+   * Search the index to read for the query, with the cached plan if the size of the collection didn't change too much.
+   *
+   * @param query          query for restriction.
+   * @param collectionSize number of objects in the collection.
+   * @return the cheapest index, or null.
+   */
+  public synchronized IndexAbstract plan(DBObject query, int collectionSize) {
+    final String shape = shape(query);
+    Plan plan = plans.get(shape);
+    if (plan == null || collectionSize > plan.collectionSize * 2 || collectionSize < plan.collectionSize / 2) {
+      plan = new Plan(searchIndex(query), collectionSize);
+      plans.put(shape, plan);
+    }
+    if (plan.index != null && !plan.index.isUsableFor(query)) {
+      // The values of the query are outside of a partial index.
+      return searchIndex(query);
+    }
+    return plan.index;
+  }
+
+  /**
+   * Forget the plans, the indexes have changed.
+   */
+  public synchronized void invalidate() {
+    plans.clear();
+  }
+
+  private IndexAbstract searchIndex(DBObject query) {
+    IndexAbstract result = null;
+    double resultCost = Double.MAX_VALUE;
+    for (IndexAbstract index : indexes) {
+      if ((index.canHandle(query) || (index.isPrefixUsable() && index.boundedPrefixLength(query) > 0)) && index.isUsableFor(query)) {
+        final double cost = index.estimateScanned(query);
+        // The cheapest first, then the most restrictive.
+        if (result == null || cost < resultCost || (cost == resultCost
+            && (index.getFields().size() > result.getFields().size() || (!result.isUnique() && index.isUnique())))) {
+          result = index;
+          resultCost = cost;
+        }
+      }
+    }
+    LOG.debug("searchIndex() found index {} for query {}, estimated to {} objects", result, query, resultCost);
+    return result;
+  }
+
+  /**
+   * Shape of the query : the fields and operators, with the type of the values.
+   */
+  static String shape(DBObject query) {
+    final StringBuilder sb = new StringBuilder();
+    appendShape(sb, query);
+    return sb.toString();
+  }
+
+  private static void appendShape(StringBuilder sb, Object value) {
+    if (value instanceof Collection || (value != null && value.getClass().isArray())) {
+      final Collection<?> values = value instanceof Collection ? (Collection<?>) value : Util.toCollection(value);
+      // Types of the values, not their count.
+      final TreeSet<String> shapes = new TreeSet<String>();
+      for (Object element : values) {
+        final StringBuilder elementShape = new StringBuilder();
+        appendShape(elementShape, element);
+        shapes.add(elementShape.toString());
+      }
+      sb.append('[');
+      for (String elementShape : shapes) {
+        sb.append(elementShape).append(',');
+      }
+      sb.append(']');
+    } else if (ExpressionParser.isDbObject(value)) {
+      final DBObject dbObject = ExpressionParser.toDbObject(value);
+      sb.append('{');
+      for (String key : dbObject.keySet()) {
+        sb.append(key).append(':');
+        appendShape(sb, dbObject.get(key));
+        sb.append(',');
+      }
+      sb.append('}');
+    } else {
+      sb.append(value == null ? "null" : value.getClass().getName());
+    }
+  }
+
+  private static final class Plan {
+    final IndexAbstract index;
+    final int collectionSize;
+
+    Plan(IndexAbstract index, int collectionSize) {
+      this.index = index;
+      this.collectionSize = collectionSize;
+    }
+  }
+}
@@ -1,9 +1,14 @@
 package com.mongodb;
 
 import com.github.fakemongo.FongoException;
+import com.github.fakemongo.StorageMode;
 import com.github.fakemongo.impl.Aggregator;
+import com.github.fakemongo.impl.EncodedDBObject;
 import com.github.fakemongo.impl.ExpressionParser;
 import com.github.fakemongo.impl.Filter;
+import com.github.fakemongo.impl.FilterCache;
+import com.github.fakemongo.impl.SlabAllocator;
+import com.github.fakemongo.impl.Trace;
 import com.github.fakemongo.impl.MapReduce;
 import com.github.fakemongo.impl.Tuple2;
 import com.github.fakemongo.impl.UpdateEngine;
@@ -12,6 +17,7 @@ import com.github.fakemongo.impl.geo.GeoUtil;
 import com.github.fakemongo.impl.index.GeoIndex;
 import com.github.fakemongo.impl.index.IndexAbstract;
 import com.github.fakemongo.impl.index.IndexFactory;
+import com.github.fakemongo.impl.index.QueryPlanner;
 import com.github.fakemongo.impl.text.TextSearch;
 import static com.mongodb.assertions.Assertions.isTrueArgument;
 import com.vividsolutions.jts.geom.Coordinate;
@@ -20,15 +26,19 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import static java.util.Collections.emptyList;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.bson.BSON;
 import org.bson.BsonArray;
 import org.bson.BsonDocument;
@@ -57,17 +67,26 @@ import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 public class FongoDBCollection extends DBCollection {
   private final static Logger LOG = LoggerFactory.getLogger(FongoDBCollection.class);
 
-  public static final String FONGO_SPECIAL_ORDER_BY = "$$$$$FONGO_ORDER_BY$$$$$";
 
   private static final String ID_NAME_INDEX = "_id_";
   private final FongoDB fongoDb;
   private final ExpressionParser expressionParser;
   private final UpdateEngine updateEngine;
   private final boolean nonIdCollection;
+  // Documents stored encoded in BSON (see EncodedDBObject), out of the heap if there is an allocator.
+  private final boolean encodedStorage;
+  private final SlabAllocator slabAllocator;
   private final ExpressionParser.ObjectComparator objectComparator;
+  private final FilterCache filterCache;
   // Fields/Index
   private final List<IndexAbstract> indexes = new ArrayList<IndexAbstract>();
+  private final QueryPlanner queryPlanner = new QueryPlanner(indexes);
   private final IndexAbstract _idIndex;
+  // The reads share the lock, the writes are alone : the indexes and the stored objects are modified only under the
+  // write lock.
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  // Number of times the write lock was taken : a find read by batches searches again after a write.
+  private int writeCount;
 
   public FongoDBCollection(FongoDB db, String name) {
     this(db, name, false);
@@ -77,9 +96,13 @@ public class FongoDBCollection extends DBCollection {
     super(db, name);
     this.fongoDb = db;
     this.nonIdCollection = name.startsWith("system");
+    final StorageMode storageMode = db.fongo.getStorageMode();
+    this.encodedStorage = storageMode == StorageMode.ENCODED || storageMode == StorageMode.OFF_HEAP;
+    this.slabAllocator = storageMode == StorageMode.OFF_HEAP ? new SlabAllocator() : null;
     this.expressionParser = new ExpressionParser();
     this.updateEngine = new UpdateEngine();
     this.objectComparator = expressionParser.buildObjectComparator(true);
+    this.filterCache = new FilterCache(expressionParser);
     this._idIndex = IndexFactory.create(ID_FIELD_NAME, new BasicDBObject(ID_FIELD_NAME, 1), !idIsNotUniq);
     this.indexes.add(_idIndex);
     if (!this.nonIdCollection) {
@@ -87,7 +110,7 @@ public class FongoDBCollection extends DBCollection {
     }
   }
 
-  private synchronized WriteResult updateResult(int updateCount, boolean updatedExisting, final Object upsertedId) {
+  private WriteResult updateResult(int updateCount, boolean updatedExisting, final Object upsertedId) {
     return new WriteResult(updateCount, updatedExisting, upsertedId);
   }
 
@@ -104,27 +127,32 @@ public class FongoDBCollection extends DBCollection {
   }
 
   @Override
-  public synchronized WriteResult insert(final List<? extends DBObject> documents, final InsertOptions insertOptions) {
-    WriteConcern writeConcern = insertOptions.getWriteConcern() != null ? insertOptions.getWriteConcern() : getWriteConcern();
-    for (final DBObject obj : documents) {
-      DBObject cloned = filterLists(Util.cloneIdFirst(encodeDecode(obj, insertOptions.getDbEncoder())));
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("insert: " + cloned);
+  public WriteResult insert(final List<? extends DBObject> documents, final InsertOptions insertOptions) {
+    lockForWrite();
+    try {
+      WriteConcern writeConcern = insertOptions.getWriteConcern() != null ? insertOptions.getWriteConcern() : getWriteConcern();
+      for (final DBObject obj : documents) {
+        DBObject cloned = replaceLists(Util.cloneIdFirst(encodeDecode(obj, insertOptions.getDbEncoder())));
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("insert: " + cloned);
+        }
+        ObjectId id = putIdIfNotPresent(cloned);
+        // Save the id field in the caller.
+        if (!(obj instanceof LazyDBObject) && obj.get(ID_FIELD_NAME) == null) {
+          obj.put(ID_FIELD_NAME, Util.clone(id));
+        }
+
+        putSizeCheck(cloned, writeConcern);
       }
-      ObjectId id = putIdIfNotPresent(cloned);
-      // Save the id field in the caller.
-      if (!(obj instanceof LazyDBObject) && obj.get(ID_FIELD_NAME) == null) {
-        obj.put(ID_FIELD_NAME, Util.clone(id));
+  //    Don't know why, but there is not more number of inserted results...
+  //    return new WriteResult(insertResult(0), concern);
+      if (!writeConcern.isAcknowledged()) {
+        return WriteResult.unacknowledged();
       }
-
-      putSizeCheck(cloned, writeConcern);
-    }
-//    Don't know why, but there is not more number of inserted results...
-//    return new WriteResult(insertResult(0), concern);
-    if (!writeConcern.isAcknowledged()) {
-      return WriteResult.unacknowledged();
+      return new WriteResult(documents.size(), false, null);
+    } finally {
+      lock.writeLock().unlock();
     }
-    return new WriteResult(documents.size(), false, null);
   }
 
   boolean enforceDuplicates(WriteConcern concern) {
@@ -147,7 +175,8 @@ public class FongoDBCollection extends DBCollection {
   }
 
   public void putSizeCheck(DBObject obj, WriteConcern concern) {
-    if (_idIndex.size() > 100000) {
+    // The encoded documents take less memory than the objects.
+    if (!encodedStorage && _idIndex.size() > 100000) {
       throw new FongoException("Whoa, hold up there.  Fongo's designed for lightweight testing.  100,000 items per collection max");
     }
 
@@ -158,12 +187,23 @@ public class FongoDBCollection extends DBCollection {
     if (dbo == null) {
       return null;
     }
-    dbo = Util.clone(dbo);
-    for (Map.Entry<String, Object> entry : Util.entrySet(dbo)) {
-      Object replacementValue = replaceListAndMap(entry.getValue());
-      dbo.put(entry.getKey(), replacementValue);
+    return replaceLists(Util.clone(dbo));
+  }
+
+  /**
+   * Same as {@link #filterLists(DBObject)} on a copy, in place : the copy holds its own {@link BasicDBObject}s and
+   * {@link BasicDBList}s (see {@link Util#clone(DBObject)}), they are not copied again.
+   */
+  private DBObject replaceLists(DBObject copy) {
+    for (Map.Entry<String, Object> entry : Util.entrySet(copy)) {
+      final Object value = entry.getValue();
+      if (value instanceof BasicDBObject || value instanceof BasicDBList) {
+        copy.put(entry.getKey(), replaceLists((DBObject) value));
+      } else {
+        copy.put(entry.getKey(), replaceListAndMap(value));
+      }
     }
-    return dbo;
+    return copy;
   }
 
   public Object replaceListAndMap(Object value) {
@@ -222,101 +262,117 @@ public class FongoDBCollection extends DBCollection {
       }
       replacementValue = newDbo;
     } else if (replacementValue instanceof Binary) {
-      replacementValue = ((Binary) replacementValue).getData();
+      replacementValue = Util.clone(((Binary) replacementValue).getData());
+    } else {
+      // The documents and lists built above already hold copies.
+      replacementValue = Util.clone(replacementValue);
     }
-    return Util.clone(replacementValue);
+    return replacementValue;
   }
 
 
-  protected synchronized void fInsert(DBObject obj, WriteConcern concern) {
-    putIdIfNotPresent(obj);
-    putSizeCheck(obj, concern);
+  protected void fInsert(DBObject obj, WriteConcern concern) {
+    lockForWrite();
+    try {
+      putIdIfNotPresent(obj);
+      putSizeCheck(obj, concern);
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
 
   @Override
-  public synchronized WriteResult update(DBObject q, DBObject o, boolean upsert, boolean multi, WriteConcern concern,
-                                         DBEncoder encoder) throws MongoException {
-
-    q = filterLists(q);
-    o = filterLists(o);
-
-    if (o == null) {
-      throw new IllegalArgumentException("update can not be null");
-    }
-
-    if (concern == null) {
-      throw new IllegalArgumentException("Write concern can not be null");
-    }
+  public WriteResult update(DBObject q, DBObject o, boolean upsert, boolean multi, WriteConcern concern,
+                            DBEncoder encoder) throws MongoException {
+    lockForWrite();
+    try {
+      q = filterLists(q);
+      o = filterLists(o);
 
-    if (!o.keySet().isEmpty()) {
-      // if 1st key doesn't start with $, then object will be inserted as is, need to check it
-      String key = o.keySet().iterator().next();
-      if (!key.startsWith("$")) {
-        _checkObject(o, false, false);
+      if (o == null) {
+        throw new IllegalArgumentException("update can not be null");
       }
-    }
 
-//    if (multi) {
-//      try {
-//        checkMultiUpdateDocument(o);
-//      } catch (final IllegalArgumentException e) {
-//        this.fongoDb.notOkErrorResult(9, e.getMessage()).throwOnError();
-//      }
-//    }
-
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("update(" + q + ", " + o + ", " + upsert + ", " + multi + ")");
-    }
+      if (concern == null) {
+        throw new IllegalArgumentException("Write concern can not be null");
+      }
 
-    if (o.containsField(ID_FIELD_NAME) && q.containsField(ID_FIELD_NAME) && objectComparator.compare(o.get(ID_FIELD_NAME), q.get(ID_FIELD_NAME)) != 0) {
-      LOG.warn("can not change _id of a document query={}, document={}", q, o);
-      throw fongoDb.writeConcernException(16837, "can not change _id of a document " + ID_FIELD_NAME);
-    }
+      if (!o.keySet().isEmpty()) {
+        // if 1st key doesn't start with $, then object will be inserted as is, need to check it
+        String key = o.keySet().iterator().next();
+        if (!key.startsWith("$")) {
+          _checkObject(o, false, false);
+        }
+      }
 
-    int updatedDocuments = 0;
-    boolean idOnlyUpdate = q.containsField(ID_FIELD_NAME) && q.keySet().size() == 1;
-    boolean updatedExisting = false;
-    Object upsertedId = null;
+  //    if (multi) {
+  //      try {
+  //        checkMultiUpdateDocument(o);
+  //      } catch (final IllegalArgumentException e) {
+  //        this.fongoDb.notOkErrorResult(9, e.getMessage()).throwOnError();
+  //      }
+  //    }
 
-    if (idOnlyUpdate && isNotUpdateCommand(o)) {
-      if (!o.containsField(ID_FIELD_NAME)) {
-        o.put(ID_FIELD_NAME, Util.clone(q.get(ID_FIELD_NAME)));
-      } else {
-        o.put(ID_FIELD_NAME, Util.clone(o.get(ID_FIELD_NAME)));
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("update(" + q + ", " + o + ", " + upsert + ", " + multi + ")");
       }
-      @SuppressWarnings("unchecked") Iterator<DBObject> oldObjects = _idIndex.retrieveObjects(q).iterator();
-      if (oldObjects.hasNext() || upsert) {
-        addToIndexes(Util.clone(o), oldObjects.hasNext() ? oldObjects.next() : null, concern);
-        updatedDocuments++;
+
+      if (o.containsField(ID_FIELD_NAME) && q.containsField(ID_FIELD_NAME) && objectComparator.compare(o.get(ID_FIELD_NAME), q.get(ID_FIELD_NAME)) != 0) {
+        LOG.warn("can not change _id of a document query={}, document={}", q, o);
+        throw fongoDb.writeConcernException(16837, "can not change _id of a document " + ID_FIELD_NAME);
       }
-    } else {
-      Filter filter = buildFilter(q);
-      for (DBObject obj : filterByIndexes(q)) {
-        if (filter.apply(obj)) {
-          DBObject newObject = Util.clone(obj);
-          updateEngine.doUpdate(newObject, o, q, false);
-          // Check for uniqueness (throw MongoException if error)
-          addToIndexes(newObject, obj, concern);
 
-          updatedDocuments++;
-          updatedExisting = true;
+      int updatedDocuments = 0;
+      boolean idOnlyUpdate = q.containsField(ID_FIELD_NAME) && q.keySet().size() == 1;
+      boolean updatedExisting = false;
+      Object upsertedId = null;
 
-          if (!multi) {
-            break;
+      if (idOnlyUpdate && isNotUpdateCommand(o)) {
+        if (!o.containsField(ID_FIELD_NAME)) {
+          o.put(ID_FIELD_NAME, Util.clone(q.get(ID_FIELD_NAME)));
+        } else {
+          o.put(ID_FIELD_NAME, Util.clone(o.get(ID_FIELD_NAME)));
+        }
+        @SuppressWarnings("unchecked") Iterator<DBObject> oldObjects = _idIndex.retrieveObjects(q).iterator();
+        if (oldObjects.hasNext() || upsert) {
+          addToIndexes(Util.clone(o), oldObjects.hasNext() ? oldObjects.next() : null, concern);
+          updatedDocuments++;
+        }
+      } else {
+        Filter filter = buildFilter(q);
+        Set<String> modifiedPaths = updateEngine.modifiedPaths(o);
+        for (DBObject obj : filterByIndexes(q)) {
+          if (filter.apply(view(obj))) {
+            DBObject newObject = Util.clone(obj);
+            updateEngine.doUpdate(newObject, o, q, false);
+            // Check for uniqueness (throw MongoException if error)
+            updateInIndexes(obj, newObject, modifiedPaths, concern);
+
+            updatedDocuments++;
+            updatedExisting = true;
+
+            if (!multi) {
+              break;
+            }
           }
         }
-      }
-      if (updatedDocuments == 0 && upsert) {
-        BasicDBObject newObject = createUpsertObject(q);
-        fInsert(updateEngine.doUpdate(newObject, o, q, true), concern);
+        if (Trace.ENABLED) {
+          Trace.write("update", getFullName(), q, indexName(q), updatedDocuments);
+        }
+        if (updatedDocuments == 0 && upsert) {
+          BasicDBObject newObject = createUpsertObject(q);
+          fInsert(updateEngine.doUpdate(newObject, o, q, true), concern);
 
-        updatedDocuments++;
-        updatedExisting = false;
-        upsertedId = newObject.get(ID_FIELD_NAME);
+          updatedDocuments++;
+          updatedExisting = false;
+          upsertedId = newObject.get(ID_FIELD_NAME);
+        }
       }
+      return updateResult(updatedDocuments, updatedExisting, upsertedId);
+    } finally {
+      lock.writeLock().unlock();
     }
-    return updateResult(updatedDocuments, updatedExisting, upsertedId);
   }
 
   protected DBObject _checkObject(DBObject o, boolean canBeNull, boolean query) {
@@ -460,86 +516,105 @@ public class FongoDBCollection extends DBCollection {
   }
 
   @Override
-  public synchronized WriteResult remove(DBObject o, WriteConcern concern, DBEncoder encoder) throws MongoException {
-    o = filterLists(o);
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("remove: " + o);
-    }
-    int updatedDocuments = 0;
-    Collection<DBObject> objectsByIndex = filterByIndexes(o);
-    Filter filter = buildFilter(o);
-    List<DBObject> ids = new ArrayList<DBObject>();
-    // Double pass, objectsByIndex can be not "objects"
-    for (DBObject object : objectsByIndex) {
-      if (filter.apply(object)) {
-        ids.add(object);
+  public WriteResult remove(DBObject o, WriteConcern concern, DBEncoder encoder) throws MongoException {
+    lockForWrite();
+    try {
+      o = filterLists(o);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("remove: " + o);
       }
+      int updatedDocuments = 0;
+      Collection<DBObject> objectsByIndex = filterByIndexes(o);
+      Filter filter = buildFilter(o);
+      List<DBObject> ids = new ArrayList<DBObject>();
+      // Double pass, objectsByIndex can be not "objects"
+      for (DBObject object : objectsByIndex) {
+        if (filter.apply(view(object))) {
+          ids.add(object);
+        }
+      }
+      // Real remove.
+      for (DBObject object : ids) {
+        removeFromIndexes(object);
+        updatedDocuments++;
+      }
+      if (Trace.ENABLED) {
+        Trace.write("remove", getFullName(), o, indexName(o), updatedDocuments);
+      }
+      return updateResult(updatedDocuments, true, null);
+    } finally {
+      lock.writeLock().unlock();
     }
-    // Real remove.
-    for (DBObject object : ids) {
-      LOG.debug("remove object : {}", object);
-      removeFromIndexes(object);
-      updatedDocuments++;
-    }
-    return updateResult(updatedDocuments, true, null);
   }
 
   @Override
-  public synchronized void createIndex(final DBObject keys, final DBObject options) {
-    DBCollection indexColl = fongoDb.getCollection("system.indexes");
-    BasicDBObject rec = new BasicDBObject();
-    rec.append("v", 1);
-    rec.append("key", keys);
-    rec.append("ns", nsName());
-    if (options != null && options.containsField("name")) {
-      rec.append("name", options.get("name"));
-    } else {
-      StringBuilder sb = new StringBuilder();
-      boolean firstLoop = true;
-      for (String keyName : keys.keySet()) {
-        if (!firstLoop) {
-          sb.append("_");
+  public void createIndex(final DBObject keys, final DBObject options) {
+    lockForWrite();
+    try {
+      DBCollection indexColl = fongoDb.getCollection("system.indexes");
+      BasicDBObject rec = new BasicDBObject();
+      rec.append("v", 1);
+      rec.append("key", keys);
+      rec.append("ns", nsName());
+      if (options != null && options.containsField("name")) {
+        rec.append("name", options.get("name"));
+      } else {
+        StringBuilder sb = new StringBuilder();
+        boolean firstLoop = true;
+        for (String keyName : keys.keySet()) {
+          if (!firstLoop) {
+            sb.append("_");
+          }
+          sb.append(keyName).append("_").append(keys.get(keyName));
+          firstLoop = false;
         }
-        sb.append(keyName).append("_").append(keys.get(keyName));
-        firstLoop = false;
+        rec.append("name", sb.toString());
       }
-      rec.append("name", sb.toString());
-    }
-    // Ensure index doesn't exist.
-    final DBObject oldIndex = indexColl.findOne(rec);
-    if (oldIndex != null) {
-      for (Map.Entry<String, Object> entry : Util.entrySet(options)) {
-        if (!entry.getValue().equals(oldIndex.get(entry.getKey()))) {
-          fongoDb.notOkErrorResult(85, String.format("Index with name: %s already exists with different options", nsName())).throwOnError();
+      // Ensure index doesn't exist.
+      final DBObject oldIndex = indexColl.findOne(rec);
+      if (oldIndex != null) {
+        for (Map.Entry<String, Object> entry : Util.entrySet(options)) {
+          if (!entry.getValue().equals(oldIndex.get(entry.getKey()))) {
+            fongoDb.notOkErrorResult(85, String.format("Index with name: %s already exists with different options", nsName())).throwOnError();
+          }
         }
+        return;
       }
-      return;
-    }
 
-    // Unique index must not be in previous find.
-    boolean unique = options != null && options.get("unique") != null && (Boolean.TRUE.equals(options.get("unique")) || "1".equals(options.get("unique")) || Integer.valueOf(1).equals(options.get("unique")));
-    if (unique) {
-      rec.append("unique", unique);
-    }
-    rec.putAll(options);
+      // Unique index must not be in previous find.
+      boolean unique = options != null && options.get("unique") != null && (Boolean.TRUE.equals(options.get("unique")) || "1".equals(options.get("unique")) || Integer.valueOf(1).equals(options.get("unique")));
+      if (unique) {
+        rec.append("unique", unique);
+      }
+      rec.putAll(options);
+      final boolean sparse = options != null && (Boolean.TRUE.equals(options.get("sparse")) || Integer.valueOf(1).equals(options.get("sparse")));
+      final Object partialFilterExpression = options == null ? null : options.get("partialFilterExpression");
 
-    try {
-      IndexAbstract index = IndexFactory.create((String) rec.get("name"), keys, unique);
-      @SuppressWarnings("unchecked") List<List<Object>> notUnique = index.addAll(_idIndex.values());
-      if (!notUnique.isEmpty()) {
-        // Duplicate key.
-        if (enforceDuplicates(getWriteConcern())) {
-          fongoDb.notOkErrorResult(11000, "E11000 duplicate key error index: " + getFullName() + ".$" + rec.get("name") + "  dup key: { : " + notUnique + " }").throwOnError();
+      try {
+        if (partialFilterExpression != null && !ExpressionParser.isDbObject(partialFilterExpression)) {
+          throw new MongoException(67, "partialFilterExpression must be an object");
         }
-        return;
+        IndexAbstract index = IndexFactory.create((String) rec.get("name"), keys, unique, sparse,
+            partialFilterExpression == null ? null : ExpressionParser.toDbObject(partialFilterExpression));
+        @SuppressWarnings("unchecked") List<List<Object>> notUnique = index.addAll(_idIndex.values());
+        if (!notUnique.isEmpty()) {
+          // Duplicate key.
+          if (enforceDuplicates(getWriteConcern())) {
+            fongoDb.notOkErrorResult(11000, "E11000 duplicate key error index: " + getFullName() + ".$" + rec.get("name") + "  dup key: { : " + notUnique + " }").throwOnError();
+          }
+          return;
+        }
+        indexes.add(index);
+        queryPlanner.invalidate();
+      } catch (MongoException me) {
+        fongoDb.errorResult(me.getCode(), me.getMessage()).throwOnError();
       }
-      indexes.add(index);
-    } catch (MongoException me) {
-      fongoDb.errorResult(me.getCode(), me.getMessage()).throwOnError();
-    }
 
-    // Add index if all fine.
-    indexColl.insert(rec);
+      // Add index if all fine.
+      indexColl.insert(rec);
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
   // @Override
@@ -584,75 +659,270 @@ public class FongoDBCollection extends DBCollection {
    * <p/>
    * note: decoder, readPref, options are ignored
    */
-  synchronized List<DBObject> __find(final DBObject pRef, DBObject fields, int numToSkip, int batchSize, int limit,
-                                     int options, ReadPreference readPref, DBDecoder decoder) throws MongoException {
-    DBObject ref = filterLists(pRef == null ? new BasicDBObject() : pRef);
-    long maxScan = Long.MAX_VALUE;
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("find({}, {}).skip({}).limit({})", ref, fields, numToSkip, limit);
-      LOG.debug("the db {} looks like {}", this.getDB().getName(), _idIndex.size());
-    }
-
-    DBObject orderby = null;
-    if (ref.containsField("$orderby")) {
-      orderby = ExpressionParser.toDbObject(ref.get("$orderby"));
-    }
-    if (ref.containsField("$maxScan")) {
-      maxScan = ((Number) ref.get("$maxScan")).longValue();
-    }
-    if (ref.containsField("$query")) {
-      ref = ExpressionParser.toDbObject(ref.get("$query"));
-    }
-
-    Filter filter = buildFilter(ref);
-    int foundCount = 0;
-    int upperLimit = Integer.MAX_VALUE;
-    if (limit > 0) {
-      upperLimit = limit;
-    }
-
-    Collection<DBObject> objectsFromIndex = filterByIndexes(ref);
-    List<DBObject> results = new ArrayList<DBObject>();
-    List objects = idsIn(ref);
-    if (!objects.isEmpty()) {
-//      if (!(ref.get(ID_FIELD_NAME) instanceof DBObject)) {
-      // Special case : find({id:<val}) doesn't handle skip...
-      // But : find({_id:{$in:[1,2,3]}).skip(3) will return empty list.
-//        numToSkip = 0;
-//      }
-      if (orderby == null) {
-        orderby = new BasicDBObject(ID_FIELD_NAME, 1);
+  List<DBObject> __find(final DBObject pRef, DBObject fields, int numToSkip, int batchSize, int limit,
+                        int options, ReadPreference readPref, DBDecoder decoder) throws MongoException {
+    lock.readLock().lock();
+    try {
+      return new FindBatches(pRef, fields, numToSkip, limit, false).next(Integer.MAX_VALUE);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * A find read by batches : the objects to scan are selected and sorted for the first batch, and again for the next
+   * batch after a write, which goes on after the objects already found.
+   */
+  FindBatches findBatches(final DBObject ref, DBObject fields, int numToSkip, int limit) {
+    lock.readLock().lock();
+    try {
+      return new FindBatches(ref, fields, numToSkip, limit, true);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Take the write lock : the finds read by batches search again after it.
+   */
+  private void lockForWrite() {
+    lock.writeLock().lock();
+    writeCount++;
+  }
+
+  /**
+   * Objects of a find, selected and sorted under the read lock, and filtered by {@link #next(int)}.
+   */
+  final class FindBatches {
+    private final DBObject ref;
+    private final DBObject fields;
+    private final int numToSkip;
+    private final int limit;
+    private final int upperLimit;
+    private final Filter filter;
+    // The projection copies only the projected fields.
+    private final boolean projected;
+    // Not null if the find is read by several batches : the "_id" keys of the objects found (skipped or returned), the
+    // objects themselves if the "_id" is not unique.
+    private final Set<Object> foundIds;
+    private final DBObject orderby;
+    private Iterator<DBObject> objectsToSearch;
+    // Write count when objectsToSearch was selected.
+    private int searchedAt;
+    private long maxScan = Long.MAX_VALUE;
+    private int seen;
+    private int foundCount;
+    // Covered query : the keys of the index hold all the fields.
+    private List<DBObject> covered;
+    // Index chosen by the last search, null for a scan of the collection.
+    private IndexAbstract plannedIndex;
+    // Objects scanned and returned by all the batches, traced once when the find is over.
+    private long scanned;
+    private long returned;
+    private boolean traced;
+
+    private FindBatches(final DBObject pRef, DBObject fields, int numToSkip, int limit, boolean resumable) {
+      DBObject ref = filterLists(pRef == null ? new BasicDBObject() : pRef);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("find({}, {}).skip({}).limit({})", ref, fields, numToSkip, limit);
+        LOG.debug("the db {} looks like {}", getDB().getName(), _idIndex.size());
+      }
+
+      this.orderby = ref.containsField("$orderby") ? ExpressionParser.toDbObject(ref.get("$orderby")) : null;
+      if (ref.containsField("$maxScan")) {
+        maxScan = ((Number) ref.get("$maxScan")).longValue();
+      }
+      if (ref.containsField("$query")) {
+        ref = ExpressionParser.toDbObject(ref.get("$query"));
+      }
+      this.ref = ref;
+      this.fields = fields;
+      this.numToSkip = numToSkip;
+      this.limit = limit;
+      if (!resumable) {
+        this.foundIds = null;
+      } else if (_idIndex.isUnique()) {
+        this.foundIds = new HashSet<Object>();
       } else {
-        // Special case : if order by is wrong (field doesn't exist), the sort must be directed by _id.
-        objectsFromIndex = sortObjects(new BasicDBObject(ID_FIELD_NAME, 1), objectsFromIndex);
-      }
-    }
-    int seen = 0;
-    Iterable<DBObject> objectsToSearch = sortObjects(orderby, objectsFromIndex);
-    for (Iterator<DBObject> iter = objectsToSearch.iterator();
-         iter.hasNext() && foundCount < upperLimit && maxScan-- > 0; ) {
-      DBObject dbo = iter.next();
-      if (filter.apply(dbo)) {
-        if (seen++ >= numToSkip) {
-          foundCount++;
-          DBObject clonedDbo = Util.clone(dbo);
-          if (nonIdCollection) {
-            clonedDbo.removeField(ID_FIELD_NAME);
-          }
-          clonedDbo.removeField(FONGO_SPECIAL_ORDER_BY);
-//          handleDBRef(clonedDbo);
-          results.add(clonedDbo);
+        this.foundIds = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+      }
+      this.filter = buildFilter(ref);
+      this.upperLimit = limit > 0 ? limit : Integer.MAX_VALUE;
+      this.projected = !nonIdCollection && !encodedStorage && !Util.isDBObjectEmpty(fields);
+
+      if (!resumable && orderby == null && maxScan == Long.MAX_VALUE && idsIn(ref).isEmpty() && !nonIdCollection && !Util.isDBObjectEmpty(fields)) {
+        IndexAbstract coveringIndex = searchIndex(ref);
+        if (coveringIndex != null && coveringIndex.canCover(ref, fields)) {
+          //noinspection unchecked
+          covered = coveringIndex.retrieveCovered(ref, fields, numToSkip, upperLimit);
+          plannedIndex = coveringIndex;
+          return;
+        }
+      }
+      search();
+    }
+
+    /**
+     * Select and sort the objects to scan. Without index nor sort, or with an index giving the order, the objects are
+     * scanned in place : the index must not be modified during the scan.
+     */
+    private void search() {
+      searchedAt = writeCount;
+      plannedIndex = searchIndex(ref);
+      DBObject orderby = this.orderby;
+      List objects = idsIn(ref);
+      // Not null for a $near without sort : the nearest objects first.
+      final Comparator<DBObject> nearComparator = orderby == null ? expressionParser.nearComparator(ref) : null;
+      // Not null if an index gives the order : the objects are scanned in place.
+      final Iterable<DBObject> sortedByIndex = orderby != null && objects.isEmpty() ? sortedByIndex(ref, orderby, plannedIndex) : null;
+      Collection<DBObject> objectsFromIndex = null;
+      if (sortedByIndex == null) {
+        // Null without index nor sort : the objects are scanned in place.
+        objectsFromIndex = restrictByIndexes(ref, plannedIndex);
+        if (objectsFromIndex == null && (orderby != null || nearComparator != null || !objects.isEmpty())) {
+          //noinspection unchecked
+          objectsFromIndex = _idIndex.values();
+        }
+      }
+      if (!objects.isEmpty()) {
+  //      if (!(ref.get(ID_FIELD_NAME) instanceof DBObject)) {
+        // Special case : find({id:<val}) doesn't handle skip...
+        // But : find({_id:{$in:[1,2,3]}).skip(3) will return empty list.
+  //        numToSkip = 0;
+  //      }
+        if (orderby == null) {
+          orderby = new BasicDBObject(ID_FIELD_NAME, 1);
+        } else {
+          // Special case : if order by is wrong (field doesn't exist), the sort must be directed by _id.
+          objectsFromIndex = sortObjects(new BasicDBObject(ID_FIELD_NAME, 1), objectsFromIndex);
         }
       }
+      Iterable<DBObject> objectsToSearch;
+      if (sortedByIndex != null) {
+        objectsToSearch = sortedByIndex;
+      } else if (objectsFromIndex == null) {
+        // Without index nor sort, the scan stops at the limit : nothing is copied nor sorted.
+        //noinspection unchecked
+        objectsToSearch = _idIndex.liveValues();
+      } else if (nearComparator != null) {
+        objectsToSearch = sortNear(nearComparator, objectsFromIndex);
+      } else if (orderby != null && !orderby.keySet().isEmpty() && limit > 0 && maxScan == Long.MAX_VALUE
+          && (long) numToSkip + limit < objectsFromIndex.size()) {
+        // Sort and limit : only the first skip + limit matching objects are kept. The objects already found are
+        // among them when the search is done again.
+        objectsToSearch = topObjects(orderby, objectsFromIndex, filter, numToSkip + limit);
+      } else {
+        objectsToSearch = sortObjects(orderby, objectsFromIndex);
+      }
+      this.objectsToSearch = objectsToSearch.iterator();
+    }
+
+    /**
+     * @return the next objects found, at most "batchSize" : less when the find is over.
+     */
+    List<DBObject> next(int batchSize) {
+      lock.readLock().lock();
+      try {
+        return nextObjects(batchSize);
+      } finally {
+        lock.readLock().unlock();
+      }
     }
 
-    if (!Util.isDBObjectEmpty(fields)) {
-      results = applyProjections(results, fields);
+    /**
+     * Trace the find if it is not over : the objects not read are not counted.
+     */
+    void close() {
+      trace();
     }
 
-    LOG.debug("found results {}", results);
+    private void trace() {
+      if (Trace.ENABLED && !traced) {
+        traced = true;
+        Trace.find(getFullName(), ref, plannedIndex == null ? null : plannedIndex.getName(), covered != null, scanned, returned);
+      }
+    }
 
-    return replaceWithObjectClass(results);
+    private List<DBObject> nextObjects(int batchSize) {
+      if (covered != null) {
+        final List<DBObject> batch = new ArrayList<DBObject>(covered.subList(0, Math.min(batchSize, covered.size())));
+        covered = covered.subList(batch.size(), covered.size());
+        scanned += batch.size();
+        returned += batch.size();
+        if (batch.size() < batchSize) {
+          trace();
+        }
+        //noinspection unchecked
+        return replaceWithObjectClass(batch);
+      }
+      if (foundIds != null && searchedAt != writeCount && foundCount < upperLimit) {
+        // The objects and the indexes have changed since the last batch : search again, the objects already found are
+        // skipped by their "_id".
+        search();
+      }
+      List<DBObject> results = new ArrayList<DBObject>();
+      while (objectsToSearch.hasNext() && foundCount < upperLimit && results.size() < batchSize && maxScan-- > 0) {
+        DBObject dbo = objectsToSearch.next();
+        scanned++;
+        final DBObject view = view(dbo);
+        if (filter.apply(view)) {
+          if (foundIds != null && !foundIds.add(_idIndex.isUnique() ? Util.hashKey(view.get(ID_FIELD_NAME)) : dbo)) {
+            continue;
+          }
+          if (seen++ >= numToSkip) {
+            foundCount++;
+            if (projected) {
+              results.add(dbo);
+            } else {
+              DBObject clonedDbo = Util.clone(dbo);
+              if (nonIdCollection) {
+                clonedDbo.removeField(ID_FIELD_NAME);
+              }
+  //          handleDBRef(clonedDbo);
+              results.add(clonedDbo);
+            }
+          }
+        }
+      }
+
+      if (!Util.isDBObjectEmpty(fields)) {
+        results = applyProjections(results, fields);
+      }
+      returned += results.size();
+      if (results.size() < batchSize) {
+        trace();
+      }
+
+      return replaceWithObjectClass(results);
+    }
+  }
+
+  /**
+   * Objects to filter in the order of "orderby", when an index holding all the objects is sorted like it. The index
+   * must be the one chosen for the query, or no index must restrict the query.
+   *
+   * @param restrictingIndex index chosen for the query, null if none.
+   * @return null if the objects must be sorted.
+   */
+  private Iterable<DBObject> sortedByIndex(DBObject ref, DBObject orderby, IndexAbstract restrictingIndex) {
+    for (IndexAbstract index : indexes) {
+      if ((restrictingIndex == null || restrictingIndex == index) && index.size() == _idIndex.size()) {
+        //noinspection unchecked
+        final Iterable<DBObject> sorted = index.sortedValues(ref, orderby);
+        if (sorted != null) {
+          return sorted;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return name of the index used for the query, for the traces.
+   */
+  private String indexName(DBObject query) {
+    final IndexAbstract index = searchIndex(query);
+    return index == null ? null : index.getName();
   }
 
   /**
@@ -661,22 +931,85 @@ public class FongoDBCollection extends DBCollection {
    * @return objects from "_id" if no index found, elsewhere the restricted values from an index.
    */
   private Collection<DBObject> filterByIndexes(DBObject ref) {
+    Collection<DBObject> dbObjectIterable = restrictByIndexes(ref);
+    if (dbObjectIterable == null) {
+      //noinspection unchecked
+      dbObjectIterable = _idIndex.values();
+    }
+    return dbObjectIterable;
+  }
+
+  /**
+   * Objects to filter for the query, in insertion order and without copy if no index restricts them. The collection
+   * must not be modified during the iteration.
+   */
+  private Iterable<DBObject> scanByIndexes(DBObject ref) {
+    final Collection<DBObject> dbObjectIterable = restrictByIndexes(ref);
+    //noinspection unchecked
+    return dbObjectIterable == null ? _idIndex.liveValues() : dbObjectIterable;
+  }
+
+  /**
+   * @return the objects restricted by an index, null if no index can be used.
+   */
+  private Collection<DBObject> restrictByIndexes(DBObject ref) {
+    return restrictByIndexes(ref, ref == null ? null : searchIndex(ref));
+  }
+
+  /**
+   * @param matchingIndex index chosen for the query, null if none.
+   * @return the objects restricted by the index, null if no index can be used.
+   */
+  private Collection<DBObject> restrictByIndexes(DBObject ref, IndexAbstract matchingIndex) {
     Collection<DBObject> dbObjectIterable = null;
     if (ref != null) {
-      IndexAbstract matchingIndex = searchIndex(ref);
       if (matchingIndex != null) {
         //noinspection unchecked
         dbObjectIterable = matchingIndex.retrieveObjects(ref);
         if (LOG.isDebugEnabled()) {
           LOG.debug("restrict with index {}, from {} to {} elements", matchingIndex.getName(), _idIndex.size(), dbObjectIterable == null ? 0 : dbObjectIterable.size());
         }
+      } else if (ref.get(QueryOperators.OR) instanceof List) {
+        dbObjectIterable = filterByIndexesOr(ref);
       }
     }
-    if (dbObjectIterable == null) {
+    return dbObjectIterable;
+  }
+
+  /**
+   * Union of the objects found by index for each clause of a "$or". The caller must still filter the objects.
+   *
+   * @return null if one clause can't use an index.
+   */
+  private Collection<DBObject> filterByIndexesOr(DBObject ref) {
+    final List<?> clauses = (List<?>) ref.get(QueryOperators.OR);
+    final Set<DBObject> union = Collections.newSetFromMap(new IdentityHashMap<DBObject, Boolean>());
+    final List<DBObject> result = new ArrayList<DBObject>();
+    for (Object clause : clauses) {
+      if (!ExpressionParser.isDbObject(clause)) {
+        return null;
+      }
+      // The other fields of the query restrict each clause.
+      final DBObject clauseQuery = new BasicDBObject();
+      for (String field : ref.keySet()) {
+        if (!QueryOperators.OR.equals(field)) {
+          clauseQuery.put(field, ref.get(field));
+        }
+      }
+      clauseQuery.putAll(ExpressionParser.toDbObject(clause));
+      final IndexAbstract matchingIndex = searchIndex(clauseQuery);
+      if (matchingIndex == null) {
+        return null;
+      }
       //noinspection unchecked
-      dbObjectIterable = _idIndex.values();
+      for (DBObject object : (Collection<DBObject>) matchingIndex.retrieveObjects(clauseQuery)) {
+        if (union.add(object)) {
+          result.add(object);
+        }
+      }
     }
-    return dbObjectIterable;
+    LOG.debug("restrict $or with indexes, from {} to {} elements", _idIndex.size(), result.size());
+    return result;
   }
 
   private List<DBObject> applyProjections(List<DBObject> results, DBObject projection) {
@@ -725,7 +1058,7 @@ public class FongoDBCollection extends DBCollection {
         }
       }
     } else if (value != null) {
-      ret.append(subKey, value);
+      ret.append(subKey, Util.clone(value));
     }
   }
 
@@ -789,10 +1122,10 @@ public class FongoDBCollection extends DBCollection {
 
   /**
    * Applies the requested <a href="http://docs.mongodb.org/manual/core/read-operations/#result-projections">projections</a> to the given object.
+   * The result is a copy : it can be applied to a stored object.
    * TODO: Support for projection operators: http://docs.mongodb.org/manual/reference/operator/projection/
    */
   public static DBObject applyProjections(DBObject result, DBObject projectionObject) {
-    LOG.debug("applying projections {}", projectionObject);
     if (Util.isDBObjectEmpty(projectionObject)) {
       if (Util.isDBObjectEmpty(result)) {
         return null;
@@ -914,9 +1247,8 @@ public class FongoDBCollection extends DBCollection {
           }
           if (pos != -1) {
             BasicDBList append = new BasicDBList();
-            append.add(searchIn.get(pos));
+            append.add(Util.clone(searchIn.get(pos)));
             ret.append(projectionKey, append);
-            LOG.debug("$elemMatch projection of field \"{}\", gave result: {} ({})", projectionKey, ret, ret.getClass());
           }
         } else if (isSlice) {
           slice(result, projectionObject, projectionKey, projectionValue, ret);
@@ -970,7 +1302,7 @@ public class FongoDBCollection extends DBCollection {
       startArray = Math.min(searchIn.size(), start) + 1;
     }
     for (int i = startArray, count = 0; i <= searchIn.size() && count < limit; i++, count++) {
-      slice.add(searchIn.get(i - 1));
+      slice.add(Util.clone(searchIn.get(i - 1)));
     }
     ret.put(projectionKey, slice);
   }
@@ -980,128 +1312,249 @@ public class FongoDBCollection extends DBCollection {
     if (orderby != null) {
       final Set<String> orderbyKeySet = orderby.keySet();
       if (!orderbyKeySet.isEmpty()) {
-        DBObject[] objectsToSort = objects.toArray(new DBObject[objects.size()]);
+        objectsToSearch = sort(objects, sortComparator(orderby));
+      }
+    }
+    if (Trace.ENABLED && orderby != null) {
+      Trace.sort(getFullName(), orderby, objects.size());
+    }
+    return objectsToSearch;
+  }
 
-        Arrays.sort(objectsToSort, new Comparator<DBObject>() {
-          @Override
-          public int compare(DBObject o1, DBObject o2) {
-            for (String sortKey : orderbyKeySet) {
-              final List<String> path = Util.split(sortKey);
-              int sortDirection = (Integer) orderby.get(sortKey);
+  /**
+   * Objects sorted by the distance of a $near, in a copy : the stored objects are shared with the other readers.
+   */
+  private List<DBObject> sortNear(Comparator<DBObject> nearComparator, Collection<DBObject> objects) {
+    return sort(objects, nearComparator);
+  }
 
-              List<Object> o1list = expressionParser.getEmbeddedValues(path, o1);
-              List<Object> o2list = expressionParser.getEmbeddedValues(path, o2);
+  /**
+   * Objects sorted in a copy. The encoded objects are compared through their views, read once from the bytes.
+   */
+  private List<DBObject> sort(final Collection<DBObject> objects, final Comparator<DBObject> comparator) {
+    if (!encodedStorage) {
+      final DBObject[] objectsToSort = objects.toArray(new DBObject[objects.size()]);
+      Arrays.sort(objectsToSort, comparator);
+      return Arrays.asList(objectsToSort);
+    }
+    final List<Tuple2<DBObject, DBObject>> views = new ArrayList<Tuple2<DBObject, DBObject>>(objects.size());
+    for (DBObject object : objects) {
+      views.add(new Tuple2<DBObject, DBObject>(view(object), object));
+    }
+    Collections.sort(views, new Comparator<Tuple2<DBObject, DBObject>>() {
+      @Override
+      public int compare(Tuple2<DBObject, DBObject> o1, Tuple2<DBObject, DBObject> o2) {
+        return comparator.compare(o1._1, o2._1);
+      }
+    });
+    final List<DBObject> sorted = new ArrayList<DBObject>(views.size());
+    for (Tuple2<DBObject, DBObject> view : views) {
+      sorted.add(view._2);
+    }
+    return sorted;
+  }
 
-              int compareValue = expressionParser.compareLists(o1list, o2list) * sortDirection;
-              if (compareValue != 0) {
-                return compareValue;
-              }
-            }
-            return 0;
+  /**
+   * @return the object to read for a whole operation : the view of an encoded object.
+   */
+  private static DBObject view(DBObject object) {
+    return EncodedDBObject.view(object);
+  }
+
+  /**
+   * The first objects matching the filter in the order of "orderby", without sorting all the objects : a heap keeps
+   * the "count" best objects seen.
+   *
+   * @return at most "count" objects, sorted.
+   */
+  public List<DBObject> topObjects(final DBObject orderby, final Collection<DBObject> objects, Filter filter, int count) {
+    final Comparator<DBObject> comparator = sortComparator(orderby);
+    // Worst object first. Equal objects are kept in the order of the collection, like a stable sort.
+    final PriorityQueue<Tuple2<Integer, DBObject>> heap = new PriorityQueue<Tuple2<Integer, DBObject>>(count + 1,
+        new Comparator<Tuple2<Integer, DBObject>>() {
+          @Override
+          public int compare(Tuple2<Integer, DBObject> o1, Tuple2<Integer, DBObject> o2) {
+            final int compareValue = comparator.compare(o2._2, o1._2);
+            return compareValue != 0 ? compareValue : o2._1.compareTo(o1._1);
           }
         });
-        objectsToSearch = Arrays.asList(objectsToSort);
+    // The heap holds the views of the encoded objects : their stored objects.
+    final Map<DBObject, DBObject> storedByView = encodedStorage ? new IdentityHashMap<DBObject, DBObject>() : null;
+    int matched = 0;
+    for (DBObject object : objects) {
+      final DBObject view = view(object);
+      if (filter.apply(view)) {
+        final Tuple2<Integer, DBObject> candidate = new Tuple2<Integer, DBObject>(matched++, view);
+        if (heap.size() < count) {
+          heap.add(candidate);
+        } else if (heap.comparator().compare(candidate, heap.peek()) > 0) {
+          final DBObject removed = heap.poll()._2;
+          if (storedByView != null) {
+            storedByView.remove(removed);
+          }
+          heap.add(candidate);
+        } else {
+          continue;
+        }
+        if (storedByView != null) {
+          storedByView.put(view, object);
+        }
       }
-    } else {
-      objectsToSearch = sortObjects(new BasicDBObject(FONGO_SPECIAL_ORDER_BY, 1), objects);
     }
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("sorted objectsToSearch " + objectsToSearch);
+    final DBObject[] top = new DBObject[heap.size()];
+    for (int i = top.length - 1; i >= 0; i--) {
+      final DBObject view = heap.poll()._2;
+      top[i] = storedByView == null ? view : storedByView.get(view);
     }
-    return objectsToSearch;
+    if (Trace.ENABLED) {
+      Trace.sort(getFullName(), orderby, matched);
+    }
+    return Arrays.asList(top);
+  }
+
+  /**
+   * @return the comparator of the objects for find().sort(orderby).
+   */
+  public Comparator<DBObject> sortComparator(final DBObject orderby) {
+    final Set<String> orderbyKeySet = orderby.keySet();
+    return new Comparator<DBObject>() {
+      @Override
+      public int compare(DBObject o1, DBObject o2) {
+        for (String sortKey : orderbyKeySet) {
+          final List<String> path = Util.split(sortKey);
+          int sortDirection = (Integer) orderby.get(sortKey);
+
+          List<Object> o1list = expressionParser.getEmbeddedValues(path, o1);
+          List<Object> o2list = expressionParser.getEmbeddedValues(path, o2);
+
+          int compareValue = expressionParser.compareLists(o1list, o2list) * sortDirection;
+          if (compareValue != 0) {
+            return compareValue;
+          }
+        }
+        return 0;
+      }
+    };
   }
 
   // @Override
-  public synchronized long getCount(final DBObject pQuery, final DBObject projection, final long limit, final long skip,
-                                    final ReadPreference readPreference, final long maxTime, final TimeUnit maxTimeUnit,
-                                    final BsonValue hint) {
-    final DBObject query = filterLists(pQuery);
-    Filter filter = query == null ? ExpressionParser.AllFilter : buildFilter(query);
-    long count = 0;
-    long upperLimit = Long.MAX_VALUE;
-    if (limit > 0) {
-      upperLimit = limit;
-    }
-    int seen = 0;
-    for (Iterator<DBObject> iter = filterByIndexes(query).iterator(); iter.hasNext() && count < upperLimit; ) {
-      DBObject value = iter.next();
-      if (filter.apply(value)) {
-        if (seen++ >= skip) {
-          count++;
+  public long getCount(final DBObject pQuery, final DBObject projection, final long limit, final long skip,
+                       final ReadPreference readPreference, final long maxTime, final TimeUnit maxTimeUnit,
+                       final BsonValue hint) {
+    lock.readLock().lock();
+    try {
+      final DBObject query = filterLists(pQuery);
+      Filter filter = query == null ? ExpressionParser.AllFilter : buildFilter(query);
+      long count = 0;
+      long upperLimit = Long.MAX_VALUE;
+      if (limit > 0) {
+        upperLimit = limit;
+      }
+      int seen = 0;
+      for (Iterator<DBObject> iter = scanByIndexes(query).iterator(); iter.hasNext() && count < upperLimit; ) {
+        DBObject value = iter.next();
+        if (filter.apply(view(value))) {
+          if (seen++ >= skip) {
+            count++;
+          }
         }
       }
+      return count;
+    } finally {
+      lock.readLock().unlock();
     }
-    return count;
   }
 
   @Override
-  public synchronized long getCount(DBObject query, DBObject fields, ReadPreference readPrefs) {
+  public long getCount(DBObject query, DBObject fields, ReadPreference readPrefs) {
     //as we're in memory we don't need to worry about readPrefs
     return getCount(query, fields, 0, 0);
   }
 
   @Override
-  public synchronized DBObject findAndModify(DBObject query, DBObject fields, DBObject sort, boolean remove, DBObject update, boolean returnNew, boolean upsert) {
-    LOG.debug("findAndModify({}, {}, {}, {}, {}, {}, {}", query, fields, sort, remove, update, returnNew, upsert);
-    query = filterLists(query);
-    update = filterLists(update);
-    Filter filter = buildFilter(query);
-
-    Iterable<DBObject> objectsToSearch = sortObjects(sort, filterByIndexes(query));
-    DBObject beforeObject = null;
-    DBObject afterObject = null;
-    for (DBObject dbo : objectsToSearch) {
-      if (filter.apply(dbo)) {
-        beforeObject = dbo;
-        if (!remove) {
-          afterObject = Util.clone(beforeObject);
-          updateEngine.doUpdate(afterObject, update, query, false);
-          addToIndexes(afterObject, beforeObject, getWriteConcern());
-          break;
-        } else {
-          remove(dbo);
-          return dbo;
+  public DBObject findAndModify(DBObject query, DBObject fields, DBObject sort, boolean remove, DBObject update, boolean returnNew, boolean upsert) {
+    lockForWrite();
+    try {
+      LOG.debug("findAndModify({}, {}, {}, {}, {}, {}, {}", query, fields, sort, remove, update, returnNew, upsert);
+      query = filterLists(query);
+      update = filterLists(update);
+      Filter filter = buildFilter(query);
+
+      final Comparator<DBObject> nearComparator = sort == null ? expressionParser.nearComparator(query) : null;
+      Iterable<DBObject> objectsToSearch = nearComparator != null ? sortNear(nearComparator, filterByIndexes(query)) : sortObjects(sort, filterByIndexes(query));
+      DBObject beforeObject = null;
+      DBObject afterObject = null;
+      for (DBObject dbo : objectsToSearch) {
+        if (filter.apply(view(dbo))) {
+          beforeObject = dbo;
+          if (!remove) {
+            afterObject = Util.clone(beforeObject);
+            updateEngine.doUpdate(afterObject, update, query, false);
+            if (!returnNew) {
+              // The stored object is updated in place.
+              beforeObject = Util.clone(beforeObject);
+            }
+            updateInIndexes(dbo, afterObject, updateEngine.modifiedPaths(update), getWriteConcern());
+            break;
+          } else {
+            if (encodedStorage) {
+              // Decoded before its release.
+              final DBObject removed = Util.clone(dbo);
+              remove(dbo);
+              return removed;
+            }
+            remove(dbo);
+            return dbo;
+          }
         }
       }
-    }
-    if (beforeObject != null && !returnNew) {
-      return replaceWithObjectClass(applyProjections(beforeObject, fields));
-    }
-    if (beforeObject == null && upsert && !remove) {
-      beforeObject = new BasicDBObject();
-      afterObject = createUpsertObject(query);
-      fInsert(updateEngine.doUpdate(afterObject, update, query, upsert), getWriteConcern());
-    }
+      if (beforeObject != null && !returnNew) {
+        return replaceWithObjectClass(applyProjections(beforeObject, fields));
+      }
+      if (beforeObject == null && upsert && !remove) {
+        beforeObject = new BasicDBObject();
+        afterObject = createUpsertObject(query);
+        fInsert(updateEngine.doUpdate(afterObject, update, query, upsert), getWriteConcern());
+      }
 
-    final DBObject resultObject;
-    if (returnNew) {
-      resultObject = applyProjections(afterObject, fields);
-    } else {
-      resultObject = applyProjections(beforeObject, fields);
-    }
+      final DBObject resultObject;
+      if (returnNew) {
+        resultObject = applyProjections(afterObject, fields);
+      } else {
+        resultObject = applyProjections(beforeObject, fields);
+      }
 
-    return replaceWithObjectClass(resultObject);
+      return replaceWithObjectClass(resultObject);
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
   @Override
-  public synchronized List distinct(final String key, final DBObject pQuery, final ReadPreference readPreference) {
-    final DBObject query = filterLists(pQuery);
-    Set<Object> results = new LinkedHashSet<Object>();
-    Filter filter = buildFilter(query);
-    for (DBObject value : filterByIndexes(query)) {
-      if (filter.apply(value)) {
-        List<Object> keyValues = expressionParser.getEmbeddedValues(key, value);
-        for (Object keyValue : keyValues) {
-          if (keyValue instanceof List) {
-            results.addAll((List) keyValue);
-          } else {
-            results.add(keyValue);
+  public List distinct(final String key, final DBObject pQuery, final ReadPreference readPreference) {
+    lock.readLock().lock();
+    try {
+      final DBObject query = filterLists(pQuery);
+      Set<Object> results = new LinkedHashSet<Object>();
+      Filter filter = buildFilter(query);
+      for (DBObject object : filterByIndexes(query)) {
+        final DBObject value = view(object);
+        if (filter.apply(value)) {
+          List<Object> keyValues = expressionParser.getEmbeddedValues(key, value);
+          for (Object keyValue : keyValues) {
+            if (keyValue instanceof List) {
+              results.addAll((List) keyValue);
+            } else {
+              results.add(keyValue);
+            }
           }
         }
       }
+      //noinspection unchecked
+      return new ArrayList(results);
+    } finally {
+      lock.readLock().unlock();
     }
-    //noinspection unchecked
-    return new ArrayList(results);
   }
 
   @Override
@@ -1223,22 +1676,28 @@ public class FongoDBCollection extends DBCollection {
   }
 
 
-  protected synchronized void _dropIndex(String name) throws MongoException {
-    final DBCollection indexColl = fongoDb.getCollection("system.indexes");
-    final WriteResult wr = indexColl.remove(new BasicDBObject("name", name).append("ns", nsName()), WriteConcern.ACKNOWLEDGED);
-    boolean isDrop = wr.getN() == 1;
-    ListIterator<IndexAbstract> iterator = indexes.listIterator();
-
-    while (iterator.hasNext()) {
-      IndexAbstract index = iterator.next();
-      if (index.getName().equals(name)) {
-        iterator.remove();
-        isDrop = true;
-        break;
+  protected void _dropIndex(String name) throws MongoException {
+    lockForWrite();
+    try {
+      final DBCollection indexColl = fongoDb.getCollection("system.indexes");
+      final WriteResult wr = indexColl.remove(new BasicDBObject("name", name).append("ns", nsName()), WriteConcern.ACKNOWLEDGED);
+      boolean isDrop = wr.getN() == 1;
+      ListIterator<IndexAbstract> iterator = indexes.listIterator();
+
+      while (iterator.hasNext()) {
+        IndexAbstract index = iterator.next();
+        if (index.getName().equals(name)) {
+          iterator.remove();
+          queryPlanner.invalidate();
+          isDrop = true;
+          break;
+        }
       }
-    }
-    if (!isDrop) {
-      fongoDb.notOkErrorResult("index not found with name [" + name + "]").throwOnError();
+      if (!isDrop) {
+        fongoDb.notOkErrorResult("index not found with name [" + name + "]").throwOnError();
+      }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -1246,47 +1705,49 @@ public class FongoDBCollection extends DBCollection {
     return this.getDB().getName() + "." + this.getName();
   }
 
-  protected synchronized void _dropIndexes() {
-    final List<DBObject> indexes = fongoDb.getCollection("system.indexes").find(new BasicDBObject("ns", nsName())).toArray();
-    // Two step for no concurrent modification exception
-    for (final DBObject index : indexes) {
-      final String indexName = index.get("name").toString();
-      if (!ID_NAME_INDEX.equals(indexName)) {
-        dropIndexes(indexName);
+  protected void _dropIndexes() {
+    lockForWrite();
+    try {
+      final List<DBObject> indexes = fongoDb.getCollection("system.indexes").find(new BasicDBObject("ns", nsName())).toArray();
+      // Two step for no concurrent modification exception
+      for (final DBObject index : indexes) {
+        final String indexName = index.get("name").toString();
+        if (!ID_NAME_INDEX.equals(indexName)) {
+          dropIndexes(indexName);
+        }
       }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
   @Override
   public void drop() {
-    _idIndex.clear();
-    _dropIndexes(); // _idIndex must stay.
+    lockForWrite();
+    try {
+      _idIndex.clear();
+      _dropIndexes(); // _idIndex must stay.
+      if (slabAllocator != null) {
+        slabAllocator.clear();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
     fongoDb.removeCollection(this);
   }
 
   /**
-   * Search the most restrictive index for query.
+   * Search the cheapest index for query.
    *
    * @param query query for restriction
-   * @return the most restrictive index, or null.
+   * @return the cheapest index, or null.
    */
-  private synchronized IndexAbstract searchIndex(DBObject query) {
-    IndexAbstract result = null;
-    int foundCommon = -1;
-    Set<String> queryFields = query.keySet();
-    for (IndexAbstract index : this.indexes) {
-      if (index.canHandle(query)) {
-        // The most restrictive first.
-        if (index.getFields().size() > foundCommon || (result != null && !result.isUnique() && index.isUnique())) {
-          result = index;
-          foundCommon = index.getFields().size();
-        }
-      }
+  private IndexAbstract searchIndex(DBObject query) {
+    if (query.keySet().size() == 1 && query.containsField(ID_FIELD_NAME) && !ExpressionParser.isDbObject(query.get(ID_FIELD_NAME))) {
+      // Lookup by "_id", no need to plan.
+      return _idIndex;
     }
-
-    LOG.debug("searchIndex() found index {} for fields {}", result, queryFields);
-
-    return result;
+    return queryPlanner.plan(query, _idIndex.size());
   }
 
   /**
@@ -1294,7 +1755,7 @@ public class FongoDBCollection extends DBCollection {
    *
    * @return the geo index, or null.
    */
-  private synchronized IndexAbstract searchGeoIndex(boolean unique) {
+  private IndexAbstract searchGeoIndex(boolean unique) {
     IndexAbstract result = null;
     for (IndexAbstract index : indexes) {
       if (index.isGeoIndex()) {
@@ -1323,7 +1784,79 @@ public class FongoDBCollection extends DBCollection {
   private void addToIndexes(DBObject object, DBObject oldObject, WriteConcern concern) {
     // Ensure "insert/update" create collection into "fongoDB"
     // First, try to see if index can add the new value.
+    if (!checkIndexes(indexes, object, oldObject, concern)) {
+      return; // silently ignore.
+    }
+
+    //     Set<String> queryFields = object.keySet();
+    final DBObject idFirst = encodedStorage ? new EncodedDBObject(object, slabAllocator) : Util.cloneIdFirst(object);
+    try {
+      for (final IndexAbstract index : indexes) {
+        if (index.canIndex(object)) {
+          index.addOrUpdate(idFirst, oldObject);
+        } else if (index.canIndex(oldObject))
+          // In case of update and removing a field, we must remove from the index.
+          index.remove(oldObject);
+      }
+      release(oldObject);
+    } catch (MongoException e) {
+      LOG.info("", e);
+      throw this.fongoDb.writeConcernException(e.getCode(), e.getMessage());
+    }
+    this.fongoDb.addCollection(this);
+  }
+
+  /**
+   * Update an object in place : the stored object takes the content of the new object, and only the indexes on
+   * modified paths are updated (the other ones already reference the stored object).
+   *
+   * @param object        stored object.
+   * @param newObject     updated copy of the object.
+   * @param modifiedPaths paths modified by the update, null if the whole object is replaced.
+   */
+  private void updateInIndexes(DBObject object, DBObject newObject, Set<String> modifiedPaths, WriteConcern concern) {
+    final List<IndexAbstract> modifiedIndexes = new ArrayList<IndexAbstract>();
     for (IndexAbstract index : indexes) {
+      if (modifiedPaths == null || !index.isSharingObjects() || index.isModifiedBy(modifiedPaths)) {
+        modifiedIndexes.add(index);
+      }
+    }
+    if (!checkIndexes(modifiedIndexes, newObject, object, concern)) {
+      return; // silently ignore.
+    }
+
+    final List<DBObject> oldKeys = new ArrayList<DBObject>(modifiedIndexes.size());
+    for (IndexAbstract index : modifiedIndexes) {
+      //noinspection unchecked
+      oldKeys.add(index.keyBeforeUpdate(object));
+    }
+    if (object instanceof EncodedDBObject) {
+      ((EncodedDBObject) object).replaceWith(newObject);
+    } else {
+      for (String key : new ArrayList<String>(object.keySet())) {
+        object.removeField(key);
+      }
+      object.putAll(newObject);
+    }
+    try {
+      for (int i = 0; i < modifiedIndexes.size(); i++) {
+        //noinspection unchecked
+        modifiedIndexes.get(i).updateInPlace(object, oldKeys.get(i));
+      }
+    } catch (MongoException e) {
+      LOG.info("", e);
+      throw this.fongoDb.writeConcernException(e.getCode(), e.getMessage());
+    }
+    this.fongoDb.addCollection(this);
+  }
+
+  /**
+   * Check if the indexes can add the new value.
+   *
+   * @return false if the value must be ignored (duplicate key without write concern).
+   */
+  private boolean checkIndexes(Collection<IndexAbstract> indexesToCheck, DBObject object, DBObject oldObject, WriteConcern concern) {
+    for (IndexAbstract index : indexesToCheck) {
       @SuppressWarnings("unchecked") List<List<Object>> error = index.checkAddOrUpdate(object, oldObject);
       if (!error.isEmpty()) {
         // TODO formatting : E11000 duplicate key error index: test.zip.$city_1_state_1_pop_1  dup key: { : "BARRE", : "MA", : 4546.0 }
@@ -1337,25 +1870,10 @@ public class FongoDBCollection extends DBCollection {
             throw fongoDb.mongoCommandException(11000, err);
           }
         }
-        return; // silently ignore.
+        return false;
       }
     }
-
-    //     Set<String> queryFields = object.keySet();
-    final DBObject idFirst = Util.cloneIdFirst(object);
-    try {
-      for (final IndexAbstract index : indexes) {
-        if (index.canHandle(object)) {
-          index.addOrUpdate(idFirst, oldObject);
-        } else if (index.canHandle(oldObject))
-          // In case of update and removing a field, we must remove from the index.
-          index.remove(oldObject);
-      }
-    } catch (MongoException e) {
-      LOG.info("", e);
-      throw this.fongoDb.writeConcernException(e.getCode(), e.getMessage());
-    }
-    this.fongoDb.addCollection(this);
+    return true;
   }
 
   /**
@@ -1363,35 +1881,63 @@ public class FongoDBCollection extends DBCollection {
    *
    * @param object object to remove.
    */
-  private synchronized void removeFromIndexes(DBObject object) {
+  private void removeFromIndexes(DBObject object) {
     for (IndexAbstract index : indexes) {
-      if (index.canHandle(object)) {
+      if (index.canIndex(object)) {
         index.remove(object);
       }
     }
+    release(object);
   }
 
-  public synchronized Collection<IndexAbstract> getIndexes() {
-    return Collections.unmodifiableList(indexes);
+  /**
+   * Give back the memory of an encoded object which has left the collection.
+   */
+  private void release(DBObject object) {
+    if (object instanceof EncodedDBObject) {
+      ((EncodedDBObject) object).release();
+    }
   }
 
-  public synchronized List<DBObject> geoNear(Coordinate near, DBObject query, Number limit, Number maxDistance, boolean spherical) {
-    IndexAbstract matchingIndex = searchGeoIndex(true);
-    if (matchingIndex == null) {
-      fongoDb.notOkErrorResult(-5, "no geo indices for geoNear").throwOnError();
+  /**
+   * @return a copy of the indexes.
+   */
+  public Collection<IndexAbstract> getIndexes() {
+    lock.readLock().lock();
+    try {
+      return Collections.unmodifiableList(new ArrayList<IndexAbstract>(indexes));
+    } finally {
+      lock.readLock().unlock();
     }
-    //noinspection ConstantConditions
-    LOG.info("geoNear() near:{}, query:{}, limit:{}, maxDistance:{}, spherical:{}, use index:{}", near, query, limit, maxDistance, spherical, matchingIndex.getName());
+  }
+
+  public List<DBObject> geoNear(Coordinate near, DBObject query, Number limit, Number maxDistance, boolean spherical) {
+    lock.readLock().lock();
+    try {
+      IndexAbstract matchingIndex = searchGeoIndex(true);
+      if (matchingIndex == null) {
+        fongoDb.notOkErrorResult(-5, "no geo indices for geoNear").throwOnError();
+      }
+      //noinspection ConstantConditions
+      LOG.info("geoNear() near:{}, query:{}, limit:{}, maxDistance:{}, spherical:{}, use index:{}", near, query, limit, maxDistance, spherical, matchingIndex.getName());
 
-//    List<LatLong> latLongs = GeoUtil.coordinate(Collections.<String>emptyList(), near);
-    Geometry geometry = GeoUtil.toGeometry(near);
-    return ((GeoIndex) matchingIndex).geoNear(query == null ? new BasicDBObject() : query, geometry, limit == null ? 100 : limit.intValue(), spherical);
+  //    List<LatLong> latLongs = GeoUtil.coordinate(Collections.<String>emptyList(), near);
+      Geometry geometry = GeoUtil.toGeometry(near);
+      return ((GeoIndex) matchingIndex).geoNear(query == null ? new BasicDBObject() : query, geometry, limit == null ? 100 : limit.intValue(), spherical);
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   //Text search Emulation see http://docs.mongodb.org/manual/tutorial/search-for-text/ for mongo
-  public synchronized DBObject text(String search, Number limit, DBObject project) {
-    TextSearch ts = new TextSearch(this);
-    return ts.findByTextSearch(search, project == null ? new BasicDBObject() : project, limit == null ? 100 : limit.intValue());
+  public DBObject text(String search, Number limit, DBObject project) {
+    lock.readLock().lock();
+    try {
+      TextSearch ts = new TextSearch(this);
+      return ts.findByTextSearch(search, project == null ? new BasicDBObject() : project, limit == null ? 100 : limit.intValue());
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   // TODO WDEL
@@ -1569,9 +2115,13 @@ public class FongoDBCollection extends DBCollection {
     return retVal;
   }
 
-  private Filter buildFilter(DBObject q) {
+  /**
+   * @param q query, with its lists filtered (see {@link #filterLists(DBObject)}).
+   * @return the filter of the query, like find() : the errors of the query are thrown like the server.
+   */
+  public Filter buildFilter(DBObject q) {
     try {
-      return expressionParser.buildFilter(q);
+      return filterCache.get(q);
     } catch (FongoException e) {
       if (e.getCode() != null) {
         this.fongoDb.notOkErrorResult(e.getCode(), e.getMessage()).throwOnError();
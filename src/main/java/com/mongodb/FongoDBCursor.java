@@ -3,8 +3,8 @@ package com.mongodb;
 import com.github.fakemongo.impl.Util;
 import com.mongodb.client.model.FindOptions;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,8 +26,14 @@ public class FongoDBCursor extends DBCursor {
   private boolean closed;
 
   private DBObject currentObject;
+  // Objects of all the batches fetched.
   private List<DBObject> objects = null;
-  private Iterator<DBObject> iterator;
+  // Position of the next object in objects.
+  private int position;
+  // Not null when the objects are fetched by batches.
+  private FongoDBCollection.FindBatches batches;
+  // True when all the batches have been fetched.
+  private boolean exhausted;
 
   public FongoDBCursor(FongoDBCollection fongoDBCollection, DBObject query, DBObject projection) {
     this(fongoDBCollection, query, projection, new FindOptions(), new BasicDBObject(), null);
@@ -45,24 +51,51 @@ public class FongoDBCursor extends DBCursor {
 
   private void fetch() {
     if (this.objects == null) {
-      objects = new ArrayList<DBObject>();
-
-      final DBObject q;
+      final DBObject findQuery;
       if (this.query != null && this.query.containsField("$query")) {
-        q = Util.clone(query);
+        findQuery = Util.clone(query);
       } else {
-        q = new BasicDBObject("$query", Util.clone(this.query));
+        findQuery = new BasicDBObject("$query", Util.clone(this.query));
       }
       if (sort != null) {
-        q.put("$orderby", sort);
+        findQuery.put("$orderby", sort);
+      }
+      findQuery.putAll(modifiers);
+      final int limit = this.getLimit();
+      final int batchSize = this.findOptions.getBatchSize();
+      // A negative limit or batchSize means a single batch.
+      if (batchSize > 0 && limit >= 0 && (limit == 0 || batchSize < limit)) {
+        batches = dbCollection.findBatches(findQuery, projection, this.findOptions.getSkip(), limit);
+        objects = new ArrayList<DBObject>();
+        fetchBatch();
+      } else {
+        objects = dbCollection.__find(findQuery, projection, this.findOptions.getSkip(), batchSize, limit,
+            this.getOptions(), getReadPreference(), null);
+        exhausted = true;
       }
-      q.putAll(modifiers);
-      objects.addAll(dbCollection.__find(q, projection, this.findOptions.getSkip(), this.findOptions.getBatchSize(),
-          this.getLimit(), this.getOptions(), getReadPreference(), null));
-      iterator = objects.iterator();
     }
   }
 
+  /**
+   * Fetch all the batches : the objects already read are kept.
+   */
+  private void fetchAll() {
+    fetch();
+    while (!exhausted) {
+      fetchBatch();
+    }
+  }
+
+  /**
+   * Fetch the next {@link #getBatchSize()} objects : the find goes on after the objects of the previous batches.
+   */
+  private void fetchBatch() {
+    final int batchSize = this.findOptions.getBatchSize();
+    final List<DBObject> batch = batches.next(batchSize);
+    objects.addAll(batch);
+    exhausted = batch.size() < batchSize;
+  }
+
 
   private DBObject currentObject(final DBObject newCurrentObject) {
     if (newCurrentObject != null) {
@@ -78,7 +111,7 @@ public class FongoDBCursor extends DBCursor {
 
   @Override
   public synchronized List<DBObject> toArray(int max) {
-    fetch();
+    fetchAll();
     return objects;
   }
 
@@ -88,7 +121,10 @@ public class FongoDBCursor extends DBCursor {
       throw new IllegalStateException("Cursor has been closed");
     }
     fetch();
-    return iterator.hasNext();
+    if (position == objects.size() && !exhausted) {
+      fetchBatch();
+    }
+    return position < objects.size();
   }
 
   @Override
@@ -96,9 +132,11 @@ public class FongoDBCursor extends DBCursor {
     if (closed) {
       throw new IllegalStateException("Cursor has been closed");
     }
-    fetch();
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
     this.numSeen++;
-    return currentObject(iterator.next());
+    return currentObject(objects.get(position++));
   }
 
   @Override
@@ -116,7 +154,7 @@ public class FongoDBCursor extends DBCursor {
 
   @Override
   public int length() {
-    fetch();
+    fetchAll();
     return this.objects.size();
   }
 
@@ -236,6 +274,9 @@ public class FongoDBCursor extends DBCursor {
   @Override
   public void close() {
     this.closed = true;
+    if (batches != null) {
+      batches.close();
+    }
     super.close();
   }
 
@@ -1,7 +1,9 @@
 package com.github.fakemongo;
 
+import com.github.fakemongo.impl.Util;
 import com.github.fakemongo.junit.FongoRule;
 import com.mongodb.AggregationOutput;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.util.FongoJSON;
@@ -79,4 +81,89 @@ public class FongoAggregateGroupTest {
     // Then
     Assertions.assertThat(output.results()).containsAll(fongoRule.parseList("[{\"_id\":{\"groupType\":\"treatment\", \"City\":\"Paris\"}, \"average\":45.0}, {\"_id\":{\"groupType\":\"treatment\", \"City\":\"London\"}, \"average\":30.0}, {\"_id\":{\"groupType\":\"control\", \"City\":\"London\"}, \"average\":3.0}, {\"_id\":{\"groupType\":\"control\", \"City\":\"Paris\"}, \"average\":4.5}, {\"_id\":{\"groupType\":\"treatment\", \"City\":\"Madrid\"}, \"average\":15.0}, {\"_id\":{\"groupType\":\"control\", \"City\":\"Madrid\"}, \"average\":1.5}]"));
   }
+
+  @Test
+  public void should_all_accumulators_work_in_one_pass() {
+    // Given
+    DBCollection coll = fongoRule.newCollection();
+    for (int i = 0; i < 100; i++) {
+      coll.insert(new BasicDBObject("_id", i).append("key", i % 3).append("value", i).append("tag", "t" + (i % 2)));
+    }
+
+    // When
+    AggregationOutput output = coll.aggregate(fongoRule.parseList("[{$match: {key: 1}}, {$group: {_id: \"$key\", sum: {$sum: \"$value\"}, count: {$sum: 1}, "
+        + "avg: {$avg: \"$value\"}, min: {$min: \"$value\"}, max: {$max: \"$value\"}, first: {$first: \"$value\"}, last: {$last: \"$value\"}, "
+        + "tags: {$addToSet: \"$tag\"}}}]"));
+
+    // Then
+    Assertions.assertThat(output.results()).containsExactly(new BasicDBObject("_id", 1).append("sum", 1617).append("count", 33)
+        .append("avg", 49.0).append("min", 1).append("max", 97).append("first", 1).append("last", 97).append("tags", Util.list("t1", "t0")));
+  }
+
+  @Test
+  public void should_group_the_numbers_of_different_types_together() {
+    // Given
+    DBCollection coll = fongoRule.newCollection();
+    coll.insert(new BasicDBObject("_id", 1).append("k", 1));
+    coll.insert(new BasicDBObject("_id", 2).append("k", 1L));
+    coll.insert(new BasicDBObject("_id", 3).append("k", 1.0D));
+    coll.insert(new BasicDBObject("_id", 4).append("k", 1.5D));
+    coll.insert(new BasicDBObject("_id", 5).append("k", new BasicDBObject("a", 1).append("b", 2L)));
+    coll.insert(new BasicDBObject("_id", 6).append("k", new BasicDBObject("a", 1L).append("b", 2.0D)));
+    coll.insert(new BasicDBObject("_id", 7).append("k", new BasicDBObject("b", 2).append("a", 1)));
+
+    // When
+    AggregationOutput output = coll.aggregate(fongoRule.parseList("[{$group: {_id: \"$k\", ids: {$push: \"$_id\"}}}]"));
+
+    // Then
+    Assertions.assertThat(output.results()).containsExactly(
+        new BasicDBObject("_id", 1).append("ids", Util.list(1, 2, 3)),
+        new BasicDBObject("_id", 1.5D).append("ids", Util.list(4)),
+        new BasicDBObject("_id", new BasicDBObject("a", 1).append("b", 2L)).append("ids", Util.list(5, 6)),
+        new BasicDBObject("_id", new BasicDBObject("b", 2).append("a", 1)).append("ids", Util.list(7)));
+  }
+
+  @Test
+  public void should_addToSet_keep_the_first_of_the_equal_numbers_of_different_types() {
+    // Given
+    DBCollection coll = fongoRule.newCollection();
+    coll.insert(new BasicDBObject("_id", 1).append("k", 1));
+    coll.insert(new BasicDBObject("_id", 2).append("k", 1L));
+    coll.insert(new BasicDBObject("_id", 3).append("k", 1.0D));
+    coll.insert(new BasicDBObject("_id", 4).append("k", 1.5D));
+    coll.insert(new BasicDBObject("_id", 5).append("k", new BasicDBObject("a", 1).append("b", 2L)));
+    coll.insert(new BasicDBObject("_id", 6).append("k", new BasicDBObject("a", 1L).append("b", 2.0D)));
+    coll.insert(new BasicDBObject("_id", 7).append("k", new BasicDBObject("b", 2).append("a", 1)));
+
+    // When
+    AggregationOutput output = coll.aggregate(fongoRule.parseList("[{$group: {_id: null, values: {$addToSet: \"$k\"}}}]"));
+
+    // Then
+    Assertions.assertThat(output.results()).containsExactly(new BasicDBObject("_id", null).append("values", Util.list(1, 1.5D,
+        new BasicDBObject("a", 1).append("b", 2L), new BasicDBObject("b", 2).append("a", 1))));
+  }
+
+  @Test
+  public void should_min_and_max_the_strings_and_the_numbers_of_different_types() {
+    // Given
+    DBCollection coll = fongoRule.newCollection();
+    coll.insert(new BasicDBObject("_id", 1).append("g", "strings").append("v", "banana"));
+    coll.insert(new BasicDBObject("_id", 2).append("g", "strings").append("v", "apple"));
+    coll.insert(new BasicDBObject("_id", 3).append("g", "strings").append("v", "cherry"));
+    coll.insert(new BasicDBObject("_id", 4).append("g", "numbers").append("v", 3));
+    coll.insert(new BasicDBObject("_id", 5).append("g", "numbers").append("v", 2.5D));
+    coll.insert(new BasicDBObject("_id", 6).append("g", "numbers").append("v", 10L));
+    coll.insert(new BasicDBObject("_id", 7).append("g", "numbers").append("v", 7));
+    coll.insert(new BasicDBObject("_id", 8).append("g", "mixed").append("v", "a"));
+    coll.insert(new BasicDBObject("_id", 9).append("g", "mixed").append("v", 5L));
+
+    // When
+    AggregationOutput output = coll.aggregate(fongoRule.parseList("[{$group: {_id: \"$g\", min: {$min: \"$v\"}, max: {$max: \"$v\"}}}]"));
+
+    // Then
+    Assertions.assertThat(output.results()).containsExactly(
+        new BasicDBObject("_id", "strings").append("min", "apple").append("max", "cherry"),
+        new BasicDBObject("_id", "numbers").append("min", 2.5D).append("max", 10L),
+        new BasicDBObject("_id", "mixed").append("min", 5L).append("max", "a"));
+  }
 }
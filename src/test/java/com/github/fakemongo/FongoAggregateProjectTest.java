@@ -1081,6 +1081,20 @@ public class FongoAggregateProjectTest {
     collection.aggregate(fongoRule.parseList("[{$match: {liked: {$ne: null}}}, {$project: {viewCount: 1, likedCount: {$size: [\"$liked\"]}, liked: 1} }, {$sort: {viewCount: -1, likedCount: -1}}, {$limit: 1}]"));
   }
 
+  @Test
+  public void should_$project_exclude_the_id() {
+    // Given
+    DBCollection collection = fongoRule.newCollection();
+    collection.insert(new BasicDBObject("_id", 1).append("a", 1).append("b", 2));
+    collection.insert(new BasicDBObject("_id", 2).append("a", 3).append("b", 4));
+
+    // When
+    AggregationOutput output = collection.aggregate(fongoRule.parseList("[{$project: {_id: 0, a: 1}}, {$sort: {a: -1}}]"));
+
+    // Then
+    Assertions.assertThat(output.results()).isEqualTo(fongoRule.parseList("[{\"a\":3}, {\"a\":1}]"));
+  }
+
   private DBCollection createTestCollection() {
     DBCollection collection = fongoRule.newCollection();
     collection.insert(new BasicDBObject("myId", "p0").append("date", 1));
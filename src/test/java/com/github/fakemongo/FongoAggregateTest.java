@@ -837,6 +837,23 @@ public class FongoAggregateTest {
     }
   }
 
+  @Test
+  public void should_leading_match_sort_limit_use_the_index() {
+    // Given
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("n", 1));
+    for (int i = 0; i < 100; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("n", 100 - i).append("even", i % 2 == 0));
+    }
+
+    // When
+    AggregationOutput output = collection.aggregate(fongoRule.parseList("[{$match: {n: {$gt: 50}}}, {$match: {even: true}}, "
+        + "{$project: {n: 1, even: 1}}, {$match: {n: {$lt: 90}}}, {$sort: {n: 1}}, {$limit: 3}, {$project: {_id: 0, n: 1}}]"));
+
+    // Then
+    Assertions.assertThat(output.results()).isEqualTo(fongoRule.parseList("[{n: 52}, {n: 54}, {n: 56}]"));
+  }
+
   private DBCollection createTestCollection() {
     DBCollection collection = fongoRule.newCollection();
     collection.insert(new BasicDBObject("myId", "p0").append("date", 1));
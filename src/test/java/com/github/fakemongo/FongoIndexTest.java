@@ -12,6 +12,7 @@ import com.mongodb.DBObject;
 import com.mongodb.FongoDBCollection;
 import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import org.assertj.core.api.Assertions;
@@ -605,6 +606,234 @@ public class FongoIndexTest {
     Assertions.assertThat(result).isEqualTo(new BasicDBObject("_id", new BasicDBObject("sub", 1)).append("second", Lists.newArrayList(10, 11, 12)));
   }
 
+  @Test
+  public void should_range_query_seek_into_index() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("age", 1));
+    collection.createIndex(new BasicDBObject("rank", -1).append("name", 1));
+    for (int i = 0; i < 10; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("age", i).append("rank", i % 5).append("name", "name" + i));
+    }
+    collection.insert(new BasicDBObject("_id", 10).append("age", "old").append("rank", "first").append("name", "name10"));
+    IndexAbstract indexAge = getIndex(collection, "age_1");
+    IndexAbstract indexRank = getIndex(collection, "rank_-1_name_1");
+
+    assertEquals(Arrays.asList(4, 5, 6), ids(collection.find(new BasicDBObject("age", new BasicDBObject("$gt", 3).append("$lte", 6))).sort(new BasicDBObject("_id", 1))));
+    assertEquals(Arrays.asList(0, 1), ids(collection.find(new BasicDBObject("age", new BasicDBObject("$lt", 2L))).sort(new BasicDBObject("_id", 1))));
+    assertEquals(Arrays.asList(2, 7), ids(collection.find(new BasicDBObject("age", new BasicDBObject("$in", Util.list(7, 2, 2.0)))).sort(new BasicDBObject("_id", 1))));
+    assertEquals(Arrays.asList(), ids(collection.find(new BasicDBObject("age", new BasicDBObject("$gt", 6).append("$lt", 4)))));
+    assertEquals(4, indexAge.getLookupCount());
+    // A full scan would read the 11 keys for each query.
+    assertEquals(3 + 2 + 2 + 0, indexAge.getScannedKeyCount());
+
+    assertEquals(Arrays.asList(0, 1, 5, 6), ids(collection.find(new BasicDBObject("rank", new BasicDBObject("$lte", 1)).append("name", new BasicDBObject("$gte", "name"))).sort(new BasicDBObject("_id", 1))));
+    assertEquals(Arrays.asList(9), ids(collection.find(new BasicDBObject("rank", 4).append("name", new BasicDBObject("$ne", "name4")))));
+    assertEquals(Arrays.asList(3, 4, 8, 9), ids(collection.find(new BasicDBObject("rank", new BasicDBObject("$gt", 2).append("$lt", 10)).append("name", new BasicDBObject("$ne", "name10"))).sort(new BasicDBObject("_id", 1))));
+    assertEquals(3, indexRank.getLookupCount());
+    assertEquals(4 + 2 + 4, indexRank.getScannedKeyCount());
+  }
+
+  @Test
+  public void should_query_on_prefix_and_or_use_indexes() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("city", 1).append("zip", 1).append("pop", 1));
+    collection.createIndex(new BasicDBObject("tag", 1));
+    for (int i = 0; i < 12; i++) {
+      BasicDBObject object = new BasicDBObject("_id", i).append("city", "ABC".substring(i % 3, i % 3 + 1));
+      if (i != 11) {
+        object.append("zip", i % 4);
+      }
+      collection.insert(object.append("pop", i).append("tag", i < 3 ? "x" : "y"));
+    }
+    IndexAbstract indexCity = getIndex(collection, "city_1_zip_1_pop_1");
+    IndexAbstract indexTag = getIndex(collection, "tag_1");
+
+    assertEquals(Arrays.asList(1, 4, 7, 10), ids(collection.find(new BasicDBObject("city", "B")).sort(new BasicDBObject("_id", 1))));
+    assertEquals(Arrays.asList(2, 3, 6), ids(collection.find(new BasicDBObject("city", new BasicDBObject("$in", Util.list("C", "A"))).append("zip", new BasicDBObject("$gte", 2))).sort(new BasicDBObject("_id", 1))));
+    assertEquals(Arrays.asList(8, 11), ids(collection.find(new BasicDBObject("city", "C").append("pop", new BasicDBObject("$gt", 5))).sort(new BasicDBObject("_id", 1))));
+    assertEquals(3, indexCity.getLookupCount());
+
+    assertEquals(Arrays.asList(0, 1, 2), ids(collection.find(new BasicDBObject("$or", Util.list(new BasicDBObject("city", "A").append("zip", 0), new BasicDBObject("tag", "x")))).sort(new BasicDBObject("_id", 1))));
+    assertEquals(4, indexCity.getLookupCount());
+    assertEquals(1, indexTag.getLookupCount());
+
+    // "pop" alone can't use an index.
+    assertEquals(Arrays.asList(3, 4, 5, 6, 7, 8, 9, 10, 11), ids(collection.find(new BasicDBObject("$or", Util.list(new BasicDBObject("tag", "y"), new BasicDBObject("pop", 3)))).sort(new BasicDBObject("_id", 1))));
+    assertEquals(1, indexTag.getLookupCount());
+  }
+
+  @Test
+  public void should_covered_query_return_fields_from_index() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("name", 1).append("age", 1));
+    collection.insert(new BasicDBObject("_id", 1).append("name", "a").append("age", 10).append("other", "x"));
+    collection.insert(new BasicDBObject("_id", 2).append("name", "b").append("age", 20).append("other", "y"));
+    collection.insert(new BasicDBObject("_id", 3).append("name", "b").append("age", null));
+    collection.insert(new BasicDBObject("_id", 4).append("name", "b").append("age", 15));
+    IndexAbstract index = getIndex(collection, "name_1_age_1");
+
+    List<DBObject> objects = collection.find(new BasicDBObject("name", "b"), new BasicDBObject("age", 1).append("_id", 0)).toArray();
+    assertEquals(Arrays.<DBObject>asList(new BasicDBObject(), new BasicDBObject("age", 15), new BasicDBObject("age", 20)), objects);
+    assertEquals(1, index.getLookupCount());
+
+    objects = collection.find(new BasicDBObject("name", new BasicDBObject("$gte", "b")).append("age", new BasicDBObject("$gt", 12)),
+        new BasicDBObject("name", 1).append("age", 1).append("_id", 0)).skip(1).limit(1).toArray();
+    assertEquals(Arrays.<DBObject>asList(new BasicDBObject("name", "b").append("age", 20)), objects);
+    assertEquals(2, index.getLookupCount());
+
+    // The results are not the keys of the index.
+    objects.get(0).put("age", 99);
+    assertEquals(Arrays.<DBObject>asList(new BasicDBObject("name", "b").append("age", 20)),
+        collection.find(new BasicDBObject("name", "b").append("age", 20), new BasicDBObject("name", 1).append("age", 1).append("_id", 0)).toArray());
+  }
+
+  @Test
+  public void should_update_in_place_the_modified_indexes() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("name", 1));
+    collection.createIndex(new BasicDBObject("count", 1));
+    collection.insert(new BasicDBObject("_id", 1).append("name", "a").append("count", 1));
+    collection.insert(new BasicDBObject("_id", 2).append("name", "b").append("count", 1));
+
+    collection.update(new BasicDBObject(), new BasicDBObject("$inc", new BasicDBObject("count", 1)), false, true);
+    collection.update(new BasicDBObject("_id", 2), new BasicDBObject("$set", new BasicDBObject("name", "c")));
+
+    assertEquals(new BasicDBObject("_id", 1).append("name", "a").append("count", 2), collection.findOne(new BasicDBObject("name", "a")));
+    assertEquals(Arrays.asList(1, 2), ids(collection.find(new BasicDBObject("count", 2)).sort(new BasicDBObject("_id", 1))));
+    assertEquals(Arrays.asList(), ids(collection.find(new BasicDBObject("count", 1))));
+    assertEquals(Arrays.asList(2), ids(collection.find(new BasicDBObject("name", "c"))));
+    assertEquals(Arrays.asList(), ids(collection.find(new BasicDBObject("name", "b"))));
+    assertEquals(2, getIndex(collection, "count_1").size());
+
+    // The object before the update is returned.
+    assertEquals(new BasicDBObject("_id", 1).append("name", "a").append("count", 2),
+        collection.findAndModify(new BasicDBObject("_id", 1), new BasicDBObject("$inc", new BasicDBObject("count", 1))));
+    assertEquals(3, collection.findOne(new BasicDBObject("name", "a")).get("count"));
+  }
+
+  @Test
+  public void should_partial_index_store_only_the_matching_objects() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("name", 1), new BasicDBObject("partialFilterExpression",
+        new BasicDBObject("age", new BasicDBObject("$gt", 18))));
+    collection.insert(new BasicDBObject("_id", 1).append("name", "a").append("age", 20));
+    collection.insert(new BasicDBObject("_id", 2).append("name", "a").append("age", 10));
+    collection.insert(new BasicDBObject("_id", 3).append("name", "b").append("age", 30));
+    IndexAbstract index = getIndex(collection, "name_1");
+    assertEquals(2, index.size());
+
+    // The query must imply the filter to use the index.
+    assertEquals(Arrays.asList(1), ids(collection.find(new BasicDBObject("name", "a").append("age", new BasicDBObject("$gte", 19)))));
+    assertEquals(1, index.getLookupCount());
+    assertEquals(Arrays.asList(1, 2), ids(collection.find(new BasicDBObject("name", "a")).sort(new BasicDBObject("_id", 1))));
+    assertEquals(Arrays.asList(2), ids(collection.find(new BasicDBObject("name", "a").append("age", 10))));
+    assertEquals(1, index.getLookupCount());
+
+    // The objects enter and leave the index on update.
+    collection.update(new BasicDBObject("_id", 2), new BasicDBObject("$set", new BasicDBObject("age", 40)));
+    collection.update(new BasicDBObject("_id", 3), new BasicDBObject("$set", new BasicDBObject("age", 5)));
+    assertEquals(2, index.size());
+    assertEquals(Arrays.asList(1, 2), ids(collection.find(new BasicDBObject("name", "a").append("age", new BasicDBObject("$gt", 18))).sort(new BasicDBObject("_id", 1))));
+  }
+
+  @Test
+  public void should_sparse_index_not_be_used_for_missing_fields() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("name", 1), new BasicDBObject("sparse", true));
+    collection.insert(new BasicDBObject("_id", 1).append("name", "a"));
+    collection.insert(new BasicDBObject("_id", 2));
+    collection.insert(new BasicDBObject("_id", 3).append("name", null));
+    IndexAbstract index = getIndex(collection, "name_1");
+    assertEquals(2, index.size());
+
+    assertEquals(Arrays.asList(2, 3), ids(collection.find(new BasicDBObject("name", null)).sort(new BasicDBObject("_id", 1))));
+    assertEquals(Arrays.asList(2, 3), ids(collection.find(new BasicDBObject("name", new BasicDBObject("$ne", "a"))).sort(new BasicDBObject("_id", 1))));
+    assertEquals(0, index.getLookupCount());
+    assertEquals(Arrays.asList(1), ids(collection.find(new BasicDBObject("name", "a"))));
+    assertEquals(1, index.getLookupCount());
+  }
+
+  @Test
+  public void should_sparse_and_partial_index_be_refused() {
+    DBCollection collection = fongoRule.newCollection();
+    try {
+      collection.createIndex(new BasicDBObject("name", 1), new BasicDBObject("sparse", true).append("partialFilterExpression",
+          new BasicDBObject("age", new BasicDBObject("$gt", 18))));
+      fail("must throw exception");
+    } catch (MongoException e) {
+      assertEquals(67, e.getCode());
+    }
+  }
+
+  @Test
+  public void should_multikey_index_have_one_entry_by_element() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("tags", 1));
+    collection.insert(new BasicDBObject("_id", 1).append("tags", Util.list("a", "b", "a")));
+    collection.insert(new BasicDBObject("_id", 2).append("tags", Util.list("b", "c")));
+    collection.insert(new BasicDBObject("_id", 3).append("tags", "c"));
+    collection.insert(new BasicDBObject("_id", 4).append("tags", Util.list(1, 10)));
+    IndexAbstract index = getIndex(collection, "tags_1");
+    assertEquals(4, index.size());
+    assertEquals(5, index.getKeyCount());
+
+    assertEquals(Arrays.asList(1, 2), ids(collection.find(new BasicDBObject("tags", "b"))));
+    assertEquals(Arrays.asList(2, 3), ids(collection.find(new BasicDBObject("tags", "c"))));
+    assertEquals(Arrays.asList(1, 2), ids(collection.find(new BasicDBObject("tags", new BasicDBObject("$in", Util.list("a", "b"))))));
+    assertEquals(Arrays.asList(1), ids(collection.find(new BasicDBObject("tags", new BasicDBObject("$all", Util.list("a", "b"))))));
+    assertEquals(Arrays.asList(2), ids(collection.find(new BasicDBObject("tags", Util.list("b", "c")))));
+    // Each bound can be matched by a different element.
+    assertEquals(Arrays.asList(4), ids(collection.find(new BasicDBObject("tags", new BasicDBObject("$gt", 5).append("$lt", 8)))));
+    assertEquals(6, index.getLookupCount());
+
+    collection.update(new BasicDBObject("_id", 1), new BasicDBObject("$pull", new BasicDBObject("tags", "b")));
+    collection.remove(new BasicDBObject("_id", 2));
+    assertEquals(Arrays.asList(), ids(collection.find(new BasicDBObject("tags", "b"))));
+    assertEquals(3, index.size());
+    assertEquals(4, index.getKeyCount());
+  }
+
+  @Test
+  public void should_sort_be_given_by_the_order_of_the_index() {
+    assumeFalse(fongoRule.isRealMongo());
+    DBCollection collection = fongoRule.newCollection();
+    collection.createIndex(new BasicDBObject("a", 1).append("b", 1));
+    collection.insert(new BasicDBObject("_id", 1).append("a", 2).append("b", 1));
+    collection.insert(new BasicDBObject("_id", 2).append("a", 1).append("b", 2));
+    collection.insert(new BasicDBObject("_id", 3).append("a", 2).append("b", 0));
+    collection.insert(new BasicDBObject("_id", 4).append("a", 1).append("b", 1));
+    collection.insert(new BasicDBObject("_id", 5).append("a", 3).append("b", 5));
+    collection.insert(new BasicDBObject("_id", 6).append("a", 2).append("b", 2));
+    IndexAbstract index = getIndex(collection, "a_1_b_1");
+
+    assertEquals(Arrays.asList(4, 2, 3, 1, 6, 5), ids(collection.find().sort(new BasicDBObject("a", 1).append("b", 1))));
+    assertEquals(Arrays.asList(5, 6, 1), ids(collection.find().sort(new BasicDBObject("a", -1).append("b", -1)).limit(3)));
+    assertEquals(Arrays.asList(6, 1, 3), ids(collection.find(new BasicDBObject("a", 2)).sort(new BasicDBObject("a", -1).append("b", -1))));
+    assertEquals(3, index.getLookupCount());
+
+    // Mixed directions are sorted.
+    assertEquals(Arrays.asList(2, 4, 6, 1, 3, 5), ids(collection.find().sort(new BasicDBObject("a", 1).append("b", -1))));
+    // The index doesn't hold the objects without "a".
+    collection.insert(new BasicDBObject("_id", 7));
+    assertEquals(Arrays.asList(7, 4), ids(collection.find().sort(new BasicDBObject("a", 1).append("b", 1)).limit(2)));
+    assertEquals(3, index.getLookupCount());
+  }
+
+  private static List<Object> ids(DBCursor cursor) {
+    List<Object> ids = new ArrayList<Object>();
+    for (DBObject object : cursor.toArray()) {
+      ids.add(object.get("_id"));
+    }
+    return ids;
+  }
+
   @Test
   public void testIdInQueryResultsInIndexOnFieldOrder() {
     DBCollection collection = fongoRule.newCollection();
@@ -0,0 +1,130 @@
+package com.github.fakemongo;
+
+import com.github.fakemongo.impl.Util;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.Test;
+
+public class FongoStorageModeTest {
+
+  private static DBCollection newCollection(StorageMode storageMode) {
+    Fongo fongo = new Fongo("storage", Fongo.DEFAULT_SERVER_VERSION, storageMode);
+    return fongo.getDB("db").getCollection(UUID.randomUUID().toString());
+  }
+
+  @Test
+  public void encoded_collection_must_behave_like_objects() {
+    // Given
+    DBCollection collection = newCollection(StorageMode.ENCODED);
+    collection.createIndex(new BasicDBObject("n", 1));
+    for (int i = 1; i <= 5; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("n", 10 - i)
+          .append("sub", new BasicDBObject("even", i % 2 == 0)).append("tags", Util.list("t" + i, "all")));
+    }
+
+    // When
+    collection.update(new BasicDBObject("_id", 2), new BasicDBObject("$set", new BasicDBObject("n", 0)));
+    collection.remove(new BasicDBObject("_id", 3));
+
+    // Then
+    assertThat(collection.count()).isEqualTo(4);
+    assertThat(collection.find(new BasicDBObject("sub.even", false)).sort(new BasicDBObject("n", 1)).toArray())
+        .containsExactly(
+            new BasicDBObject("_id", 5).append("n", 5).append("sub", new BasicDBObject("even", false)).append("tags", Util.list("t5", "all")),
+            new BasicDBObject("_id", 1).append("n", 9).append("sub", new BasicDBObject("even", false)).append("tags", Util.list("t1", "all")));
+    assertThat(collection.findOne(new BasicDBObject("tags", "t2")))
+        .isEqualTo(new BasicDBObject("_id", 2).append("n", 0).append("sub", new BasicDBObject("even", true)).append("tags", Util.list("t2", "all")));
+    assertThat(collection.find(new BasicDBObject("n", new BasicDBObject("$lt", 7)), new BasicDBObject("n", 1).append("_id", 0)).toArray())
+        .containsExactly(new BasicDBObject("n", 0), new BasicDBObject("n", 5), new BasicDBObject("n", 6));
+  }
+
+  @Test
+  public void off_heap_collection_must_behave_like_objects() {
+    // Given
+    DBCollection collection = newCollection(StorageMode.OFF_HEAP);
+    collection.createIndex(new BasicDBObject("n", 1));
+    for (int i = 1; i <= 1000; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("n", i % 10).append("text", "document " + i));
+    }
+
+    // When
+    collection.update(new BasicDBObject("n", 3), new BasicDBObject("$set", new BasicDBObject("text", "updated")), false, true);
+    collection.remove(new BasicDBObject("n", new BasicDBObject("$gte", 5)));
+    collection.save(new BasicDBObject("_id", 1).append("n", 1).append("text", "saved"));
+    DBObject removed = collection.findAndModify(new BasicDBObject("_id", 2), null, null, true, null, false, false);
+
+    // Then
+    assertThat(removed).isEqualTo(new BasicDBObject("_id", 2).append("n", 2).append("text", "document 2"));
+    assertThat(collection.count()).isEqualTo(499);
+    assertThat(collection.count(new BasicDBObject("text", "updated"))).isEqualTo(100);
+    assertThat(collection.findOne(new BasicDBObject("_id", 1))).isEqualTo(new BasicDBObject("_id", 1).append("n", 1).append("text", "saved"));
+    assertThat(collection.findOne(new BasicDBObject("_id", 994))).isEqualTo(new BasicDBObject("_id", 994).append("n", 4).append("text", "document 994"));
+  }
+
+  @Test
+  public void off_heap_collection_must_sort_the_stored_objects() {
+    // Given
+    DBCollection collection = newCollection(StorageMode.OFF_HEAP);
+    for (int i = 1; i <= 100; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("n", i % 7).append("text", "document " + (1000 - i)));
+    }
+    DBObject query = new BasicDBObject("n", new BasicDBObject("$gt", 0));
+    DBObject orderBy = new BasicDBObject("n", -1).append("text", 1);
+
+    // When
+    List<DBObject> sorted = collection.find(query).sort(orderBy).toArray();
+    List<DBObject> top = collection.find(query).sort(orderBy).limit(3).toArray();
+
+    // Then
+    assertThat(sorted).hasSize(86);
+    assertThat(sorted.get(0)).isEqualTo(new BasicDBObject("_id", 97).append("n", 6).append("text", "document 903"));
+    assertThat(sorted.get(85)).isEqualTo(new BasicDBObject("_id", 1).append("n", 1).append("text", "document 999"));
+    assertThat(top).isEqualTo(sorted.subList(0, 3));
+  }
+
+  @Test
+  public void off_heap_collection_must_project_batch_and_group() {
+    // Given
+    DBCollection collection = newCollection(StorageMode.OFF_HEAP);
+    collection.createIndex(new BasicDBObject("n", 1).append("text", 1));
+    for (int i = 1; i <= 10; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("n", i % 3).append("text", "document " + i));
+    }
+
+    // When
+    List<DBObject> covered = collection.find(new BasicDBObject("n", 1), new BasicDBObject("text", 1).append("_id", 0)).toArray();
+    List<DBObject> batched = collection.find(new BasicDBObject("n", 0)).batchSize(2).toArray();
+    Iterable<DBObject> grouped = collection.aggregate(Arrays.<DBObject>asList(new BasicDBObject("$group",
+        new BasicDBObject("_id", "$n").append("count", new BasicDBObject("$sum", 1))))).results();
+
+    // Then
+    assertThat(covered).containsOnly(new BasicDBObject("text", "document 1"), new BasicDBObject("text", "document 4"),
+        new BasicDBObject("text", "document 7"), new BasicDBObject("text", "document 10"));
+    assertThat(batched).containsExactly(new BasicDBObject("_id", 3).append("n", 0).append("text", "document 3"),
+        new BasicDBObject("_id", 6).append("n", 0).append("text", "document 6"),
+        new BasicDBObject("_id", 9).append("n", 0).append("text", "document 9"));
+    assertThat(grouped).containsOnly(new BasicDBObject("_id", 1).append("count", 4), new BasicDBObject("_id", 2).append("count", 3),
+        new BasicDBObject("_id", 0).append("count", 3));
+  }
+
+  @Test
+  public void encoded_collection_must_return_copies() {
+    // Given
+    DBCollection collection = newCollection(StorageMode.ENCODED);
+    collection.insert(new BasicDBObject("_id", 1).append("sub", new BasicDBObject("a", 1)));
+
+    // When
+    DBObject result = collection.findOne();
+    ((DBObject) result.get("sub")).put("a", 2);
+    DBObject removed = collection.findAndModify(new BasicDBObject("_id", 1), null, null, true, null, false, false);
+
+    // Then
+    assertThat(removed).isInstanceOf(BasicDBObject.class).isEqualTo(new BasicDBObject("_id", 1).append("sub", new BasicDBObject("a", 1)));
+    assertThat(collection.count()).isEqualTo(0);
+  }
+}
@@ -576,6 +576,92 @@ public class FongoTest {
     ), cursor.toArray());
   }
 
+  @Test
+  public void testFindWithBatchSize() {
+    DBCollection collection = newCollection();
+    for (int i = 1; i <= 7; i++) {
+      collection.insert(new BasicDBObject("_id", i));
+    }
+
+    DBCursor cursor = collection.find().batchSize(2).skip(1).limit(4);
+    List<DBObject> results = new ArrayList<DBObject>();
+    while (cursor.hasNext()) {
+      results.add(cursor.next());
+    }
+    assertEquals(Arrays.asList(
+        new BasicDBObject("_id", 2),
+        new BasicDBObject("_id", 3),
+        new BasicDBObject("_id", 4),
+        new BasicDBObject("_id", 5)
+    ), results);
+
+    cursor = collection.find().sort(new BasicDBObject("_id", -1)).batchSize(3);
+    assertEquals(7, cursor.toArray().size());
+    assertEquals(new BasicDBObject("_id", 7), cursor.toArray().get(0));
+    assertEquals(new BasicDBObject("_id", 1), cursor.toArray().get(6));
+  }
+
+  @Test
+  public void testFindWithBatchSizeAndWritesBetweenTheBatches() {
+    DBCollection collection = newCollection();
+    for (int i = 1; i <= 6; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("a", 7 - i));
+    }
+
+    DBCursor cursor = collection.find().sort(new BasicDBObject("a", 1)).batchSize(2);
+    List<Object> ids = new ArrayList<Object>();
+    ids.add(cursor.next().get("_id"));
+    ids.add(cursor.next().get("_id"));
+    collection.remove(new BasicDBObject("_id", 6));
+    collection.remove(new BasicDBObject("_id", 2));
+    while (cursor.hasNext()) {
+      ids.add(cursor.next().get("_id"));
+    }
+
+    assertEquals(Arrays.<Object>asList(6, 5, 4, 3, 1), ids);
+  }
+
+  @Test
+  public void testFindWithBatchSizeAndReplaceBetweenTheBatches() {
+    DBCollection collection = newCollection();
+    for (int i = 1; i <= 5; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("a", i));
+    }
+
+    DBCursor cursor = collection.find().batchSize(2);
+    List<Object> ids = new ArrayList<Object>();
+    ids.add(cursor.next().get("_id"));
+    ids.add(cursor.next().get("_id"));
+    collection.save(new BasicDBObject("_id", 1).append("a", 10));
+    collection.save(new BasicDBObject("_id", 4).append("a", 40));
+    List<Object> values = new ArrayList<Object>();
+    while (cursor.hasNext()) {
+      DBObject next = cursor.next();
+      ids.add(next.get("_id"));
+      values.add(next.get("a"));
+    }
+
+    assertEquals(Arrays.<Object>asList(1, 2, 3, 5, 4), ids);
+    assertEquals(Arrays.<Object>asList(3, 5, 40), values);
+  }
+
+  @Test
+  public void testFindWithBatchSizeToArrayKeepsTheObjectsRead() {
+    DBCollection collection = newCollection();
+    for (int i = 1; i <= 5; i++) {
+      collection.insert(new BasicDBObject("_id", i));
+    }
+
+    DBCursor cursor = collection.find().batchSize(2);
+    cursor.next();
+    cursor.next();
+    cursor.next();
+
+    assertEquals(5, cursor.toArray().size());
+    assertEquals(5, cursor.length());
+    assertEquals(4, cursor.next().get("_id"));
+  }
+
   @Test
   public void testFindWithSkipLimitNoResult() {
     DBCollection collection = newCollection();
@@ -611,6 +697,22 @@ public class FongoTest {
     assertEquals(Arrays.asList(), cursor.toArray());
   }
 
+  @Test
+  public void testFindWithSortLimitKeepsTheOrderOfEqualObjects() {
+    DBCollection collection = newCollection();
+    for (int i = 1; i <= 20; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("group", i % 3).append("odd", i % 2 == 1));
+    }
+
+    DBCursor cursor = collection.find(new BasicDBObject("odd", true)).sort(new BasicDBObject("group", -1)).skip(2).limit(4);
+    assertEquals(Arrays.asList(
+        new BasicDBObject("_id", 17).append("group", 2).append("odd", true),
+        new BasicDBObject("_id", 1).append("group", 1).append("odd", true),
+        new BasicDBObject("_id", 7).append("group", 1).append("odd", true),
+        new BasicDBObject("_id", 13).append("group", 1).append("odd", true)
+    ), cursor.toArray());
+  }
+
   @Test
   public void testFindWithWhere() {
     DBCollection collection = newCollection();
@@ -712,6 +814,52 @@ public class FongoTest {
     ), cursor.toArray());
   }
 
+  @Test
+  public void testSortNaNAndNegativeZeroWithAllTheNumbers() {
+    DBCollection collection = newCollection();
+    collection.insert(new BasicDBObject("a", 1.5D).append("_id", 1));
+    collection.insert(new BasicDBObject("a", 0).append("_id", 2));
+    collection.insert(new BasicDBObject("a", Double.NaN).append("_id", 3));
+    collection.insert(new BasicDBObject("a", -0.0D).append("_id", 4));
+    collection.insert(new BasicDBObject("a", 1L).append("_id", 5));
+    collection.insert(new BasicDBObject("a", -1).append("_id", 6));
+    collection.insert(new BasicDBObject("a", 0L).append("_id", 7));
+    collection.insert(new BasicDBObject("a", Double.NaN).append("_id", 8));
+
+    List<Object> withoutIndex = ids(collection.find().sort(new BasicDBObject("a", 1).append("_id", 1)));
+    List<Object> zeros = ids(collection.find(new BasicDBObject("a", 0)).sort(new BasicDBObject("_id", 1)));
+    collection.createIndex(new BasicDBObject("a", 1));
+    List<Object> withIndex = ids(collection.find().sort(new BasicDBObject("a", 1).append("_id", 1)));
+    List<Object> zerosWithIndex = ids(collection.find(new BasicDBObject("a", 0)).sort(new BasicDBObject("_id", 1)));
+
+    assertEquals(Arrays.<Object>asList(3, 8, 6, 2, 4, 7, 5, 1), withoutIndex);
+    assertEquals(withoutIndex, withIndex);
+    assertEquals(Arrays.<Object>asList(2, 4, 7), zeros);
+    assertEquals(zeros, zerosWithIndex);
+  }
+
+  @Test
+  public void testFindNegativeZeroWithAllTheZeros() {
+    DBCollection collection = newCollection();
+    collection.insert(new BasicDBObject("a", -0.0D).append("_id", 1));
+    collection.insert(new BasicDBObject("a", 0.0D).append("_id", 2));
+    collection.insert(new BasicDBObject("a", 0L).append("_id", 3));
+    collection.insert(new BasicDBObject("a", Double.MIN_VALUE).append("_id", 4));
+
+    DBObject orderBy = new BasicDBObject("_id", 1);
+    assertEquals(Arrays.<Object>asList(1, 2, 3), ids(collection.find(new BasicDBObject("a", 0.0D)).sort(orderBy)));
+    assertEquals(Arrays.<Object>asList(1, 2, 3), ids(collection.find(new BasicDBObject("a", -0.0D)).sort(orderBy)));
+    assertEquals(Arrays.<Object>asList(1, 2, 3), ids(collection.find(new BasicDBObject("a", new BasicDBObject("$in", Util.list(-0.0D)))).sort(orderBy)));
+  }
+
+  private static List<Object> ids(DBCursor cursor) {
+    List<Object> ids = new ArrayList<Object>();
+    for (DBObject object : cursor) {
+      ids.add(object.get("_id"));
+    }
+    return ids;
+  }
+
   @Test
   public void testCompoundSort() {
     DBCollection collection = newCollection();
@@ -1587,6 +1735,56 @@ public class FongoTest {
     }
   }
 
+  @Test(timeout = 16000)
+  public void testMultiThreadReadWhileWriting() throws Exception {
+    final DBCollection col = newCollection();
+    col.createIndex(new BasicDBObject("n", 1));
+    for (int i = 0; i < 100; i++) {
+      col.insert(new BasicDBObject("_id", i).append("n", i % 10));
+    }
+    final DBCollection geo = newCollection();
+    geo.createIndex(new BasicDBObject("loc", "2d"));
+    for (int i = 0; i < 50; i++) {
+      geo.insert(new BasicDBObject("_id", i).append("loc", Arrays.asList((double) i, 0D)));
+    }
+
+    final int threads = 8;
+    final AtomicInteger errors = new AtomicInteger();
+    final CountDownLatch lockDone = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      new Thread() {
+        public void run() {
+          try {
+            for (int i = 0; i < 200; i++) {
+              if (thread == 0) {
+                col.update(new BasicDBObject("_id", i % 100), new BasicDBObject("$inc", new BasicDBObject("n", 10)));
+              } else if (thread % 2 == 1) {
+                // Each thread its own point : the distances of the others must not change the order.
+                List<DBObject> near = geo.find(new BasicDBObject("loc", new BasicDBObject("$near", Arrays.asList(thread * 5D, 0D)))).toArray();
+                if (near.size() != 50 || !Integer.valueOf(thread * 5).equals(near.get(0).get("_id"))
+                    || !Integer.valueOf(thread * 5 + 1).equals(near.get(1).get("_id")) && !Integer.valueOf(thread * 5 - 1).equals(near.get(1).get("_id"))) {
+                  errors.incrementAndGet();
+                }
+              } else if (col.find(new BasicDBObject("n", new BasicDBObject("$gte", 0))).sort(new BasicDBObject("n", 1)).toArray().size() != 100
+                  || col.count(new BasicDBObject("_id", new BasicDBObject("$lt", 50))) != 50) {
+                errors.incrementAndGet();
+              }
+            }
+          } catch (RuntimeException e) {
+            errors.incrementAndGet();
+          } finally {
+            lockDone.countDown();
+          }
+        }
+      }.start();
+    }
+
+    assertTrue("Too long :-(", lockDone.await(15, TimeUnit.SECONDS));
+    assertEquals(0, errors.get());
+    assertEquals(100, col.count(new BasicDBObject("n", new BasicDBObject("$gte", 10))));
+  }
+
   // Don't know why, but request by _id only return document event if limit is set
   @Test
   public void testFindLimit0ById() throws Exception {
@@ -2186,6 +2384,26 @@ public class FongoTest {
         + "{ \"_id\" : 3, \"students\" : [ { name: \"achilles\"} ] }, { \"_id\" : 4}]"), result);
   }
 
+  @Test
+  public void projection_must_not_share_the_stored_values() {
+    // Given
+    DBCollection collection = newCollection();
+    this.fongoRule.insertJSON(collection, "[{ _id: 1, a: { b: 1, c: 2 }, list: [ { name: \"john\" }, { name: \"jess\" } ] }]");
+
+    // When
+    DBObject included = collection.find(new BasicDBObject(), fongoRule.parseDBObject("{ a: 1, \"list.name\": 1 }")).next();
+    ((DBObject) included.get("a")).put("b", 10);
+    ((DBObject) ((List) included.get("list")).get(0)).put("name", "joe");
+    DBObject sliced = collection.find(new BasicDBObject(), fongoRule.parseDBObject("{ list: { $slice: 1 } }")).next();
+    ((DBObject) ((List) sliced.get("list")).get(0)).put("name", "joe");
+    DBObject excluded = collection.find(new BasicDBObject(), fongoRule.parseDBObject("{ list: 0 }")).next();
+    ((DBObject) excluded.get("a")).put("c", 20);
+
+    // Then
+    assertEquals(fongoRule.parseDBObject("{ _id: 1, a: { b: 1, c: 2 }, list: [ { name: \"john\" }, { name: \"jess\" } ] }"),
+        collection.findOne());
+  }
+
   @Test
   public void projection_elemMatchWithBigSubdocument() {
     // Given
@@ -2,13 +2,16 @@ package com.github.fakemongo;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.fakemongo.impl.Util;
 import com.github.fakemongo.junit.FongoRule;
 import com.github.fakemongo.test.beans.TestChildBean;
 import com.github.fakemongo.test.beans.TestParentBean;
 import com.mongodb.AggregationOutput;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import org.apache.commons.lang3.RandomUtils;
+import org.bson.types.ObjectId;
 import org.assertj.core.api.Assertions;
 import org.assertj.core.api.Condition;
 import org.junit.Rule;
@@ -189,6 +192,76 @@ public class LookupTest {
     Assertions.assertThat(result).isEmpty();
   }
 
+  @Test
+  public void mustLookupAnyTypeInTheOrderOfThePipeline() {
+    DBCollection primaryColl = fongoRule.newCollection();
+    DBCollection secondaryColl = fongoRule.newCollection();
+    ObjectId oid = new ObjectId();
+    primaryColl.insert(new BasicDBObject("_id", 1).append("ref", 1));
+    primaryColl.insert(new BasicDBObject("_id", 2).append("ref", oid));
+    primaryColl.insert(new BasicDBObject("_id", 3));
+    primaryColl.insert(new BasicDBObject("_id", 4).append("ref", 5));
+    secondaryColl.insert(new BasicDBObject("_id", "a").append("parentRef", 1L));
+    secondaryColl.insert(new BasicDBObject("_id", "b").append("parentRef", Util.list(oid, 7)));
+    secondaryColl.insert(new BasicDBObject("_id", "c"));
+    secondaryColl.insert(new BasicDBObject("_id", "d").append("parentRef", 1.0));
+
+    AggregationOutput output = primaryColl.aggregate(fongoRule.parseList("[{$sort: {_id: -1}}, {$lookup: {from: \"" + secondaryColl.getName()
+        + "\", localField: \"ref\", foreignField: \"parentRef\", as: \"children\"}}]"));
+
+    Assertions.assertThat(output.results()).containsExactly(
+        new BasicDBObject("_id", 4).append("ref", 5).append("children", Util.list()),
+        new BasicDBObject("_id", 3).append("children", Util.list(new BasicDBObject("_id", "c"))),
+        new BasicDBObject("_id", 2).append("ref", oid).append("children", Util.list(new BasicDBObject("_id", "b").append("parentRef", Util.list(oid, 7)))),
+        new BasicDBObject("_id", 1).append("ref", 1).append("children", Util.list(new BasicDBObject("_id", "a").append("parentRef", 1L),
+            new BasicDBObject("_id", "d").append("parentRef", 1.0))));
+  }
+
+  @Test
+  public void mustLookupByTheIndexOfTheForeignField() {
+    DBCollection primaryColl = fongoRule.newCollection();
+    DBCollection secondaryColl = fongoRule.newCollection();
+    secondaryColl.createIndex(new BasicDBObject("parentRef", 1));
+    List<ObjectId> oids = new ArrayList<ObjectId>();
+    for (int i = 0; i < 10; i++) {
+      oids.add(new ObjectId());
+      primaryColl.insert(new BasicDBObject("_id", i).append("ref", oids.get(i)));
+      secondaryColl.insert(new BasicDBObject("_id", "s" + i).append("parentRef", oids.get(i)));
+    }
+
+    AggregationOutput output = primaryColl.aggregate(fongoRule.parseList("[{$match: {_id: {$in: [3, 7]}}}, {$lookup: {from: \"" + secondaryColl.getName()
+        + "\", localField: \"ref\", foreignField: \"parentRef\", as: \"children\"}}]"));
+
+    Assertions.assertThat(output.results()).containsExactly(
+        new BasicDBObject("_id", 3).append("ref", oids.get(3)).append("children", Util.list(new BasicDBObject("_id", "s3").append("parentRef", oids.get(3)))),
+        new BasicDBObject("_id", 7).append("ref", oids.get(7)).append("children", Util.list(new BasicDBObject("_id", "s7").append("parentRef", oids.get(7)))));
+  }
+
+  @Test
+  public void mustLookupTheEmbeddedNumbersOfAnyTypeWithOrWithoutIndex() {
+    DBCollection primaryColl = fongoRule.newCollection();
+    DBCollection secondaryColl = fongoRule.newCollection();
+    primaryColl.insert(new BasicDBObject("_id", 1).append("ref", new BasicDBObject("a", 1).append("b", Util.list(2))));
+    secondaryColl.insert(new BasicDBObject("_id", "a").append("parentRef", new BasicDBObject("a", 1L).append("b", Util.list(2.0))));
+    secondaryColl.insert(new BasicDBObject("_id", "b").append("parentRef", new BasicDBObject("b", Util.list(2)).append("a", 1)));
+    List<DBObject> pipeline = fongoRule.parseList("[{$lookup: {from: \"" + secondaryColl.getName()
+        + "\", localField: \"ref\", foreignField: \"parentRef\", as: \"children\"}}]");
+
+    List<DBObject> withoutIndex = new ArrayList<DBObject>();
+    for (DBObject result : primaryColl.aggregate(pipeline).results()) {
+      withoutIndex.add(result);
+    }
+    secondaryColl.createIndex(new BasicDBObject("parentRef", 1).append("_id", 1));
+    List<DBObject> withIndex = new ArrayList<DBObject>();
+    for (DBObject result : primaryColl.aggregate(pipeline).results()) {
+      withIndex.add(result);
+    }
+
+    Assertions.assertThat(withoutIndex).containsExactly(new BasicDBObject("_id", 1).append("ref", new BasicDBObject("a", 1).append("b", Util.list(2)))
+        .append("children", Util.list(new BasicDBObject("_id", "a").append("parentRef", new BasicDBObject("a", 1L).append("b", Util.list(2.0))))));
+    Assertions.assertThat(withIndex).isEqualTo(withoutIndex);
+  }
+
   private void verifyResults(Iterable<DBObject> result, final Map<String, TestParentBean> parentBeanMap,
                              final Map<String, TestParentBean> childBeanMap, final Map<String, Integer> childCountMap) {
     final ObjectMapper mapper = new ObjectMapper();
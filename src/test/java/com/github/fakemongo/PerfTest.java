@@ -45,6 +45,24 @@ public class PerfTest {
     db.dropDatabase();
   }
 
+  @Benchmark
+  public void doitUpdateRemoveById() {
+    final DB db = createDB();
+    final DBCollection collection = db.getCollection("coll");
+
+    for (int k = 0; k < size; k++) {
+      collection.insert(new BasicDBObject("_id", k).append("n", new BasicDBObject("a", 1)));
+    }
+    for (int k = 0; k < size; k++) {
+      collection.update(new BasicDBObject("_id", k), new BasicDBObject("$inc", new BasicDBObject("count", 1)));
+    }
+    for (int k = 0; k < size; k++) {
+      collection.remove(new BasicDBObject("_id", k));
+    }
+
+    db.dropDatabase();
+  }
+
   @Benchmark
   public void doitFindN() {
     final DB db = createDB();
@@ -0,0 +1,91 @@
+package com.github.fakemongo.impl;
+
+import com.github.fakemongo.Fongo;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.FongoDB;
+import com.mongodb.FongoDBCollection;
+import com.mongodb.util.FongoJSON;
+import java.util.List;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.Test;
+
+public class AggregatorTest {
+
+  @SuppressWarnings("unchecked")
+  private static List<DBObject> parseList(String json) {
+    return (List<DBObject>) FongoJSON.parse(json);
+  }
+
+  @Test
+  public void optimize_must_merge_the_adjacent_matches() {
+    List<DBObject> stages = Aggregator.optimize(parseList("[{$match: {a: 1}}, {$match: {b: 2}}, {$group: {_id: \"$a\"}}]"));
+
+    assertThat(stages).isEqualTo(parseList("[{$match: {$and: [{a: 1}, {b: 2}]}}, {$group: {_id: \"$a\"}}]"));
+  }
+
+  @Test
+  public void optimize_must_move_the_match_before_a_project_keeping_its_fields() {
+    List<DBObject> stages = Aggregator.optimize(parseList("[{$match: {a: 1}}, {$project: {a: 1, b: true}}, {$match: {$or: [{b: 2}, {_id: 3}]}}]"));
+
+    assertThat(stages).isEqualTo(parseList("[{$match: {$and: [{a: 1}, {$or: [{b: 2}, {_id: 3}]}]}}, {$project: {a: 1, b: true}}]"));
+  }
+
+  @Test
+  public void optimize_must_keep_the_match_after_a_project_computing_its_fields() {
+    List<DBObject> pipeline = parseList("[{$project: {_id: 0, a: 1, b: {$size: \"$c\"}}}, {$match: {b: 2}}, {$project: {a: 1}}, {$match: {c: 1}}]");
+
+    assertThat(Aggregator.optimize(pipeline)).isEqualTo(pipeline);
+  }
+
+  @Test
+  public void optimize_must_merge_the_sort_and_the_limit() {
+    List<DBObject> stages = Aggregator.optimize(parseList("[{$sort: {a: 1}}, {$limit: 5}, {$limit: 2}]"));
+
+    assertThat(stages).isEqualTo(parseList("[{$sort: {a: 1}, $limit: 5}, {$limit: 2}]"));
+  }
+
+  @Test
+  public void parallel_aggregation_must_give_the_sequential_result() {
+    // Given
+    FongoDB db = new Fongo("aggregator").getDB("db");
+    FongoDBCollection collection = (FongoDBCollection) db.getCollection("parallel");
+    for (int i = 0; i < 5000; i++) {
+      collection.insert(new BasicDBObject("_id", i).append("key", i % 7).append("value", i % 100).append("tags", Util.list("t" + (i % 3), "all")));
+    }
+    List<DBObject> group = parseList("[{$match: {value: {$gte: 10}}}, {$unwind: \"$tags\"}, {$group: {_id: {key: \"$key\", tag: \"$tags\"}, "
+        + "sum: {$sum: \"$value\"}, count: {$sum: 1}, avg: {$avg: \"$value\"}, min: {$min: \"$value\"}, max: {$max: \"$value\"}, "
+        + "first: {$first: \"$_id\"}, last: {$last: \"$_id\"}, values: {$addToSet: \"$value\"}}}]");
+    List<DBObject> sort = parseList("[{$project: {key: 1, value: 1}}, {$match: {key: {$ne: 3}}}, {$sort: {value: -1, key: 1}}, {$limit: 50}, {$skip: 10}]");
+
+    // When
+    List<DBObject> parallelGroup = new Aggregator(db, collection, group, 4).computeResult();
+    List<DBObject> parallelSort = new Aggregator(db, collection, sort, 4).computeResult();
+
+    // Then
+    assertThat(parallelGroup).hasSize(28).containsOnly(new Aggregator(db, collection, group, 1).computeResult().toArray(new DBObject[0]));
+    assertThat(parallelSort).hasSize(40).isEqualTo(new Aggregator(db, collection, sort, 1).computeResult());
+  }
+
+  @Test
+  public void parallel_sum_must_widen_the_mixed_numbers() {
+    // Given
+    FongoDB db = new Fongo("aggregator").getDB("db");
+    FongoDBCollection collection = (FongoDBCollection) db.getCollection("mixed");
+    for (int i = 0; i < 2 * Aggregator.PART_MIN_SIZE; i++) {
+      // Integers in the first part, one Integer then Doubles in the second one.
+      Object value = i <= Aggregator.PART_MIN_SIZE ? (Object) 1 : (Object) 0.5D;
+      collection.insert(new BasicDBObject("_id", i).append("value", value).append("big", Integer.MAX_VALUE));
+    }
+    List<DBObject> group = parseList("[{$group: {_id: null, sum: {$sum: \"$value\"}, big: {$sum: \"$big\"}, avg: {$avg: \"$value\"}}}]");
+
+    // When
+    List<DBObject> parallelGroup = new Aggregator(db, collection, group, 2).computeResult();
+    List<DBObject> sequentialGroup = new Aggregator(db, collection, group, 1).computeResult();
+
+    // Then
+    DBObject expected = new BasicDBObject("_id", null).append("sum", 1500.5D).append("big", 2000L * Integer.MAX_VALUE).append("avg", 1500.5D / 2000);
+    assertThat(parallelGroup).containsExactly(expected);
+    assertThat(sequentialGroup).containsExactly(expected);
+  }
+}
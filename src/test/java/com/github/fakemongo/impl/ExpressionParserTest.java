@@ -3,6 +3,7 @@ package com.github.fakemongo.impl;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -1039,6 +1040,126 @@ public class ExpressionParserTest {
     assertEquals(expected, results);
   }
 
+  @Test
+  public void testTopLevelEqualityMatchesLikeEmbedded() {
+    List<DBObject> results = doFilter(
+        new BasicDBObject("a", 1),
+        new BasicDBObject("a", 1L),
+        new BasicDBObject("a", 1.0D),
+        new BasicDBObject("a", "1"),
+        new BasicDBObject("a", null),
+        new BasicDBObject("b", 1)
+    );
+    assertEquals(Arrays.<DBObject>asList(new BasicDBObject("a", 1L), new BasicDBObject("a", 1.0D)), results);
+
+    results = doFilter(
+        new BasicDBObject("a", null),
+        new BasicDBObject("a", 1),
+        new BasicDBObject("a", null),
+        new BasicDBObject("b", 1)
+    );
+    assertEquals(Arrays.<DBObject>asList(new BasicDBObject("a", null), new BasicDBObject("b", 1)), results);
+
+    results = doFilter(
+        new BasicDBObject("a", new BasicDBObject("$gte", 2)),
+        new BasicDBObject("a", null),
+        new BasicDBObject("a", 2.5D),
+        new BasicDBObject("b", 3)
+    );
+    assertEquals(Arrays.<DBObject>asList(new BasicDBObject("a", 2.5D)), results);
+  }
+
+  @Test
+  public void testFilterCacheBindsTheValuesOfEachQuery() {
+    FilterCache filterCache = new FilterCache(new ExpressionParser());
+    DBObject query = new BasicDBObject("a", 1);
+    Filter filter = filterCache.get(query);
+    Filter other = filterCache.get(new BasicDBObject("a", 2));
+    assertEquals(1, filterCache.size());
+
+    query.put("a", 3);
+    assertTrue(filter.apply(new BasicDBObject("a", 1)));
+    assertFalse(filter.apply(new BasicDBObject("a", 2)));
+    assertTrue(other.apply(new BasicDBObject("a", 2)));
+
+    assertTrue(filterCache.get(new BasicDBObject("a", new BasicDBObject("$gt", 3))).apply(new BasicDBObject("a", 4)));
+    assertFalse(filterCache.get(new BasicDBObject("a", new BasicDBObject("$gt", 5))).apply(new BasicDBObject("a", 4)));
+    assertTrue(filterCache.get(new BasicDBObject("$or", Arrays.asList(new BasicDBObject("a", 7), new BasicDBObject("b", 8))))
+        .apply(new BasicDBObject("b", 8)));
+    assertFalse(filterCache.get(new BasicDBObject("$or", Arrays.asList(new BasicDBObject("a", 7), new BasicDBObject("b", 9))))
+        .apply(new BasicDBObject("b", 8)));
+    assertEquals(3, filterCache.size());
+  }
+
+  @Test
+  public void testDottedPathWithEmbeddedDocumentsAndLists() {
+    List<DBObject> results = doFilter(
+        new BasicDBObject("a.b", 1),
+        new BasicDBObject("_id", 1).append("a", new BasicDBObject("b", 1)),
+        new BasicDBObject("_id", 2).append("a", new BasicDBObject("b", 2)),
+        new BasicDBObject("_id", 3).append("a", Arrays.asList(new BasicDBObject("b", 2), new BasicDBObject("b", 1))),
+        new BasicDBObject("_id", 4).append("a", 1),
+        new BasicDBObject("_id", 5)
+    );
+    assertEquals(Arrays.asList(1, 3), ids(results));
+
+    results = doFilter(
+        new BasicDBObject("a.b", new BasicDBObject("$gt", 1)),
+        new BasicDBObject("_id", 1).append("a", new BasicDBObject("b", 1)),
+        new BasicDBObject("_id", 2).append("a", new BasicDBObject("b", 2)),
+        new BasicDBObject("_id", 3).append("a", Arrays.asList(new BasicDBObject("b", 1), new BasicDBObject("b", 3)))
+    );
+    assertEquals(Arrays.asList(2, 3), ids(results));
+
+    results = doFilter(
+        new BasicDBObject("a.b", null),
+        new BasicDBObject("_id", 1).append("a", new BasicDBObject("b", 1)),
+        new BasicDBObject("_id", 2).append("a", new BasicDBObject("c", 2)),
+        new BasicDBObject("_id", 3)
+    );
+    assertEquals(Arrays.asList(2, 3), ids(results));
+  }
+
+  @Test
+  public void testFilterCacheKeepsTheOrderOfTheEmbeddedDocuments() {
+    FilterCache filterCache = new FilterCache(new ExpressionParser());
+    DBObject object = new BasicDBObject("x", new BasicDBObject("a", 1).append("b", 2));
+
+    assertTrue(filterCache.get(new BasicDBObject("x", new BasicDBObject("a", 1).append("b", 2))).apply(object));
+    assertFalse(filterCache.get(new BasicDBObject("x", new BasicDBObject("b", 2).append("a", 1))).apply(object));
+  }
+
+  @Test
+  public void testCompareNumbersOfDifferentClasses() {
+    ExpressionParser expressionParser = new ExpressionParser();
+    assertEquals(0, expressionParser.compareObjects(1, 1L));
+    assertEquals(0, expressionParser.compareObjects(1, 1.0D));
+    assertEquals(0, expressionParser.compareObjects(-0.0D, 0L));
+    assertEquals(-1, expressionParser.compareObjects(1, 1.5D));
+    assertEquals(1, expressionParser.compareObjects(2L, 1.5D));
+    assertEquals(1, expressionParser.compareObjects(-1, -1.5D));
+    assertEquals(-1, expressionParser.compareObjects(Long.MAX_VALUE, 1e19D));
+    assertEquals(1, expressionParser.compareObjects(Long.MIN_VALUE, -1e19D));
+    assertEquals(-1, expressionParser.compareObjects(Double.NaN, Long.MIN_VALUE));
+    assertEquals(1, expressionParser.compareObjects(Integer.MIN_VALUE, Double.NaN));
+    assertEquals(-1, expressionParser.compareObjects(Integer.MAX_VALUE, Long.MAX_VALUE));
+    assertEquals(0, expressionParser.compareObjects(new java.math.BigDecimal("2.50"), 2.5D));
+  }
+
+  @Test
+  public void testCompareNaNAndNegativeZeroLikeAllTheNumbers() {
+    ExpressionParser expressionParser = new ExpressionParser();
+    assertEquals(-1, expressionParser.compareObjects(Double.NaN, 1.0D));
+    assertEquals(1, expressionParser.compareObjects(1.0D, Double.NaN));
+    assertEquals(-1, expressionParser.compareObjects(Double.NaN, Double.NEGATIVE_INFINITY));
+    assertEquals(0, expressionParser.compareObjects(Double.NaN, Double.NaN));
+    assertEquals(0, expressionParser.compareObjects(Double.NaN, Float.NaN));
+    assertEquals(-1, expressionParser.compareObjects(Float.NaN, 1));
+    assertEquals(0, expressionParser.compareObjects(-0.0D, 0.0D));
+    assertEquals(0, expressionParser.compareObjects(-0.0F, 0));
+    assertEquals(0, expressionParser.compareObjects(0L, -0.0D));
+  }
+
   public List<DBObject> doFilter(DBObject ref, DBObject... input) {
     ExpressionParser ep = new ExpressionParser();
     Filter filter = ep.buildFilter(ref);
@@ -1051,6 +1172,14 @@ public class ExpressionParserTest {
     return results;
   }
 
+  private List<Object> ids(List<DBObject> results) {
+    List<Object> ids = new ArrayList<Object>();
+    for (DBObject result : results) {
+      ids.add(result.get("_id"));
+    }
+    return ids;
+  }
+
   <T> List<T> asList(T... ts) {
     return Arrays.asList(ts);
   }
@@ -0,0 +1,45 @@
+package com.github.fakemongo.impl;
+
+import java.nio.ByteBuffer;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.Test;
+
+public class SlabAllocatorTest {
+
+  @Test
+  public void allocate_must_cut_the_slabs_by_size_class() {
+    SlabAllocator allocator = new SlabAllocator(1024);
+
+    ByteBuffer small = allocator.allocate(10);
+    ByteBuffer medium = allocator.allocate(65);
+    ByteBuffer large = allocator.allocate(512);
+
+    assertThat(small.capacity()).isEqualTo(64);
+    assertThat(medium.capacity()).isEqualTo(128);
+    assertThat(large.capacity()).isEqualTo(512);
+    assertThat(small.isDirect()).isTrue();
+    assertThat(allocator.getSlabCount()).isEqualTo(1);
+
+    // 320 bytes left : cut into free regions when a new slab is needed.
+    allocator.allocate(1000);
+    assertThat(allocator.getSlabCount()).isEqualTo(2);
+    assertThat(allocator.allocate(256).capacity()).isEqualTo(256);
+    assertThat(allocator.allocate(64).capacity()).isEqualTo(64);
+    assertThat(allocator.getSlabCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void free_region_must_be_reused() {
+    SlabAllocator allocator = new SlabAllocator(1024);
+    ByteBuffer region = allocator.allocate(100);
+    region.put((byte) 1);
+
+    allocator.free(region);
+
+    ByteBuffer reused = allocator.allocate(120);
+    assertThat(reused.get(0)).isEqualTo((byte) 1);
+    assertThat(reused.position()).isEqualTo(0);
+    assertThat(allocator.allocate(2000).capacity()).isEqualTo(2000);
+    assertThat(allocator.getSlabCount()).isEqualTo(1);
+  }
+}
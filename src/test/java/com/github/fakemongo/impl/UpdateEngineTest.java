@@ -7,7 +7,9 @@ import com.mongodb.BasicDBObjectBuilder;
 import com.mongodb.DBObject;
 import com.mongodb.util.FongoJSON;
 
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.UUID;
 import java.util.regex.Pattern;
@@ -567,4 +569,16 @@ public class UpdateEngineTest {
       assertTrue(updateTime.getTime() >= timeBeforeUpdate);
       assertTrue(updateTime.getTime() <= timeAfterUpdate);
   }
+
+  @Test
+  public void testModifiedPaths() {
+    UpdateEngine updateEngine = new UpdateEngine();
+    DBObject update = new BasicDBObjectBuilder().push("$inc").append("count", 1).append("a.b.c", 2).pop()
+        .push("$set").append("list.$.name", "n").append("list.1.value", 3).pop()
+        .push("$rename").append("old", "new").pop().get();
+
+    assertEquals(new HashSet<String>(Arrays.asList("count", "a.b.c", "list", "old", "new")), updateEngine.modifiedPaths(update));
+    assertNull(updateEngine.modifiedPaths(new BasicDBObject("a", 1)));
+  }
 }
+
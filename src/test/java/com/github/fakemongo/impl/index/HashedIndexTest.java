@@ -0,0 +1,71 @@
+package com.github.fakemongo.impl.index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.fakemongo.impl.Util;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link HashedIndex}.
+ */
+public class HashedIndexTest {
+
+  @Test
+  public void hash_must_squash_numbers() {
+    assertThat(HashedIndex.hash64(1)).isEqualTo(HashedIndex.hash64(1L)).isEqualTo(HashedIndex.hash64(1.0D))
+        .isEqualTo(HashedIndex.hash64(1.5D));
+    assertThat(HashedIndex.hash64(1)).isNotEqualTo(HashedIndex.hash64(2));
+    assertThat(HashedIndex.hash64(1)).isNotEqualTo(HashedIndex.hash64("1"));
+    assertThat(HashedIndex.hash64("a")).isNotEqualTo(HashedIndex.hash64("b"));
+    assertThat(HashedIndex.hash64(new BasicDBObject("a", 1))).isNotEqualTo(HashedIndex.hash64(new BasicDBObject("b", 1)));
+    assertThat(HashedIndex.hash64(null)).isNotEqualTo(HashedIndex.hash64(0));
+    ObjectId objectId = new ObjectId();
+    assertThat(HashedIndex.hash64(objectId)).isEqualTo(HashedIndex.hash64(new ObjectId(objectId.toHexString())));
+  }
+
+  @Test
+  public void retrieve_must_probe_the_bucket_of_the_value() {
+    HashedIndex index = new HashedIndex("a_hashed", new BasicDBObject("a", "hashed"), false, "a");
+    DBObject first = new BasicDBObject("_id", 1).append("a", 1);
+    DBObject second = new BasicDBObject("_id", 2).append("a", 1.5D);
+    DBObject third = new BasicDBObject("_id", 3).append("a", "x");
+    DBObject fourth = new BasicDBObject("_id", 4).append("a", 1);
+    index.addOrUpdate(first, null);
+    index.addOrUpdate(second, null);
+    index.addOrUpdate(third, null);
+    index.addOrUpdate(fourth, null);
+    assertThat(index.getKeyCount()).isEqualTo(2);
+
+    assertThat(index.retrieveObjects(new BasicDBObject("a", 1))).containsExactly(first, fourth);
+    assertThat(index.retrieveObjects(new BasicDBObject("a", 1.5D))).containsExactly(second);
+    assertThat(index.retrieveObjects(new BasicDBObject("a", new BasicDBObject("$in", Util.list("x", 1.5D))))).containsExactly(third, second);
+    assertThat(index.retrieveObjects(new BasicDBObject("a", new BasicDBObject("$gt", 1)))).containsExactly(second);
+    assertThat(index.estimateScanned(new BasicDBObject("a", "x"))).isEqualTo(2D);
+    assertThat(index.estimateScanned(new BasicDBObject("a", new BasicDBObject("$gt", 1)))).isEqualTo(4D);
+
+    index.remove(first);
+    assertThat(index.retrieveObjects(new BasicDBObject("a", 1))).containsExactly(fourth);
+  }
+
+  @Test
+  public void unique_must_compare_the_values_of_the_bucket() {
+    HashedIndex index = new HashedIndex("a_hashed", new BasicDBObject("a", "hashed"), true, "a");
+    DBObject first = new BasicDBObject("_id", 1).append("a", 1);
+    DBObject second = new BasicDBObject("_id", 2).append("a", 1.5D);
+    DBObject third = new BasicDBObject("_id", 3).append("a", 1.0D);
+
+    assertThat(index.checkAddOrUpdate(second, null)).isEmpty();
+    assertThat(index.addOrUpdate(first, null)).isEmpty();
+    assertThat(index.checkAddOrUpdate(second, null)).isEmpty();
+    assertThat(index.addOrUpdate(second, null)).isEmpty();
+    assertThat(index.getKeyCount()).isEqualTo(1);
+
+    assertThat(index.checkAddOrUpdate(third, null)).isNotEmpty();
+    assertThat(index.addOrUpdate(third, null)).isNotEmpty();
+    assertThat(index.checkAddOrUpdate(third, first)).isEmpty();
+    assertThat(index.get(new BasicDBObject("a", 1.5D))).containsExactly(second);
+  }
+}
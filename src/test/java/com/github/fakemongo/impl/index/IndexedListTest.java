@@ -176,4 +176,36 @@ public class IndexedListTest {
         assertFalse(list.contains(firstElement));
         assertFalse(list.contains(secondElement));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRemoveKeepsInsertionOrder() throws Exception {
+        List<Object> objects = new ArrayList<Object>();
+        for (int i = 0; i < 100; i++) {
+            objects.add(new Object());
+        }
+
+        IndexedList<Object> list = new IndexedList<Object>(new ArrayList<Object>(objects.subList(0, 1)));
+        for (Object object : objects.subList(1, objects.size())) {
+            list.add(object);
+        }
+        for (int i = 0; i < objects.size(); i += 3) {
+            list.remove(objects.get(i));
+        }
+
+        List<Object> expected = new ArrayList<Object>();
+        for (int i = 0; i < objects.size(); i++) {
+            if (i % 3 != 0) {
+                expected.add(objects.get(i));
+            }
+        }
+        List<Object> iterated = new ArrayList<Object>();
+        for (Object object : list) {
+            iterated.add(object);
+        }
+        assertEquals(expected, iterated);
+        assertEquals(expected.size(), list.size());
+        assertFalse(list.contains(objects.get(0)));
+        assertTrue(list.contains(objects.get(1)));
+        assertEquals(expected, list.getElements());
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.fakemongo.impl.index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.fakemongo.impl.Util;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link PrimaryKeyIndex}.
+ */
+public class PrimaryKeyIndexTest {
+
+  @Test
+  public void factory_must_create_primary_key_for_id() {
+    assertThat(IndexFactory.create("_id_", new BasicDBObject("_id", 1), true)).isInstanceOf(PrimaryKeyIndex.class);
+    assertThat(IndexFactory.create("_id_-1", new BasicDBObject("_id", -1), true)).isNotInstanceOf(PrimaryKeyIndex.class);
+    assertThat(IndexFactory.create("_id_a", new BasicDBObject("_id", 1).append("a", 1), true)).isNotInstanceOf(PrimaryKeyIndex.class);
+  }
+
+  @Test
+  public void numbers_must_be_the_same_key() {
+    assertThat(PrimaryKeyIndex.idKey(1)).isEqualTo(PrimaryKeyIndex.idKey(1L)).isEqualTo(PrimaryKeyIndex.idKey(1.0D));
+    assertThat(PrimaryKeyIndex.idKey(1.5D)).isNotEqualTo(PrimaryKeyIndex.idKey(1));
+    assertThat(PrimaryKeyIndex.idKey("1")).isNotEqualTo(PrimaryKeyIndex.idKey(1));
+  }
+
+  @Test
+  public void retrieve_must_find_by_id_in_insertion_order() {
+    PrimaryKeyIndex index = new PrimaryKeyIndex("_id_", new BasicDBObject("_id", 1), true);
+    DBObject first = new BasicDBObject("_id", 3).append("a", 1);
+    DBObject second = new BasicDBObject("_id", 1).append("a", 2);
+    DBObject third = new BasicDBObject("_id", "2").append("a", 3);
+    index.addOrUpdate(first, null);
+    index.addOrUpdate(second, null);
+    index.addOrUpdate(third, null);
+
+    assertThat(index.retrieveObjects(new BasicDBObject("_id", 1L))).containsExactly(second);
+    assertThat(index.retrieveObjects(new BasicDBObject("_id", 2))).isEmpty();
+    assertThat(index.retrieveObjects(new BasicDBObject("_id", new BasicDBObject("$in", Util.list("2", 3, 3.0))))).containsExactly(third, first);
+    assertThat(index.retrieveObjects(new BasicDBObject("_id", new BasicDBObject("$gte", 1)).append("a", new BasicDBObject("$lte", 2)))).containsExactly(first, second);
+    assertThat(index.values()).containsExactly(first, second, third);
+    assertThat(index.addOrUpdate(new BasicDBObject("_id", 3.0D), null)).isNotEmpty();
+
+    index.remove(second);
+    assertThat(index.retrieveObjects(new BasicDBObject("_id", 1))).isEmpty();
+    assertThat(index.size()).isEqualTo(2);
+  }
+}
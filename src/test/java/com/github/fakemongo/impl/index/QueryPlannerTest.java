@@ -0,0 +1,63 @@
+package com.github.fakemongo.impl.index;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.fakemongo.impl.Util;
+import com.mongodb.BasicDBObject;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link QueryPlanner}.
+ */
+public class QueryPlannerTest {
+
+  @Test
+  public void shape_must_ignore_values() {
+    assertThat(QueryPlanner.shape(new BasicDBObject("a", 1).append("b", new BasicDBObject("$in", Util.list(1, 2, 3)))))
+        .isEqualTo(QueryPlanner.shape(new BasicDBObject("a", 5).append("b", new BasicDBObject("$in", Util.list(7)))));
+    assertThat(QueryPlanner.shape(new BasicDBObject("a", 1)))
+        .isNotEqualTo(QueryPlanner.shape(new BasicDBObject("a", "1")))
+        .isNotEqualTo(QueryPlanner.shape(new BasicDBObject("a", null)))
+        .isNotEqualTo(QueryPlanner.shape(new BasicDBObject("b", 1)));
+  }
+
+  @Test
+  public void plan_must_choose_the_most_selective_index() {
+    List<IndexAbstract> indexes = new ArrayList<IndexAbstract>();
+    Index status = newIndex("status");
+    Index user = newIndex("user");
+    indexes.add(status);
+    indexes.add(user);
+    QueryPlanner queryPlanner = new QueryPlanner(indexes);
+
+    assertThat(queryPlanner.plan(new BasicDBObject("status", "A").append("user", 5), 100)).isSameAs(user);
+    assertThat(queryPlanner.plan(new BasicDBObject("status", "A"), 100)).isSameAs(status);
+    assertThat(queryPlanner.plan(new BasicDBObject("other", "A"), 100)).isNull();
+  }
+
+  @Test
+  public void plan_must_be_cached_until_invalidate() {
+    List<IndexAbstract> indexes = new ArrayList<IndexAbstract>();
+    Index status = newIndex("status");
+    indexes.add(status);
+    QueryPlanner queryPlanner = new QueryPlanner(indexes);
+    assertThat(queryPlanner.plan(new BasicDBObject("status", "A").append("user", 5), 100)).isSameAs(status);
+
+    Index user = newIndex("user");
+    indexes.add(user);
+    assertThat(queryPlanner.plan(new BasicDBObject("status", "B").append("user", 6), 100)).isSameAs(status);
+
+    queryPlanner.invalidate();
+    assertThat(queryPlanner.plan(new BasicDBObject("status", "B").append("user", 6), 100)).isSameAs(user);
+  }
+
+  private static Index newIndex(String field) {
+    Index index = new Index(field + "_1", new BasicDBObject(field, 1), false);
+    for (int i = 0; i < 100; i++) {
+      index.addOrUpdate(new BasicDBObject("_id", i).append("status", i % 2 == 0 ? "A" : "B").append("user", i), null);
+    }
+    return index;
+  }
+}